@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost, for the simulation callback thread, of sending one scene update to all the observers. Messaging each connection serializes the update once per observer, broadcasting
+ * serializes it once for everybody and should stay flat as the number of observers grows.
+ * 
+ * The writer never runs, so the queues stay full and each new frame replaces a stale one, like it happens with clients that can't keep up.
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark
+{
+
+	@Param({ "1", "10", "100", "1000" })
+	public int observers;
+
+	@Param({ "100" })
+	public int entities;
+
+	private GeppettoServletController controller;
+
+	private List<GeppettoMessageInbound> connections;
+
+	private String sceneUpdate;
+
+	@Setup
+	public void setUp()
+	{
+		controller = GeppettoServletController.getInstance();
+
+		Executor idleWriter = new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+			}
+		};
+
+		connections = new ArrayList<GeppettoMessageInbound>();
+		for(int i = 0; i < observers; i++)
+		{
+			connections.add(new GeppettoMessageInbound("Visitor" + i, idleWriter));
+		}
+
+		sceneUpdate = SceneGenerator.scene(entities);
+	}
+
+	@Benchmark
+	public void messagePerConnection()
+	{
+		for(GeppettoMessageInbound connection : connections)
+		{
+			controller.messageClient(null, connection, OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, sceneUpdate);
+		}
+	}
+
+	@Benchmark
+	public void broadcast()
+	{
+		controller.broadcast(null, connections, OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, sceneUpdate);
+	}
+}
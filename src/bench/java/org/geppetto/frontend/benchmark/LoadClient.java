@@ -0,0 +1,631 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Web socket client simulating a visitor, driven by the selector thread it belongs to. It speaks just enough of RFC 6455 to follow the simulation: it reads the beginning of each
+ * message to tell its type and the simulation time of the scenes, the rest is counted and discarded.
+ * 
+ * A controlling client loads the simulation as soon as it gets its ID and starts it when the model arrives, an observing client asks to observe the simulation.
+ * 
+ */
+public class LoadClient
+{
+
+	public enum Role
+	{
+		CONTROLLER, OBSERVER
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// bytes of each message kept to find its type and the time of the scene
+	private static final int HEAD_SIZE = 512;
+
+	private static final int OPCODE_CONTINUATION = 0x0;
+
+	private static final int OPCODE_TEXT = 0x1;
+
+	private static final int OPCODE_CLOSE = 0x8;
+
+	private static final int OPCODE_PING = 0x9;
+
+	private static final int OPCODE_PONG = 0xA;
+
+	private final int _id;
+
+	private final Role _role;
+
+	private final URI _uri;
+
+	private final String _subProtocol;
+
+	private final String _simulation;
+
+	private final LoadStatistics _statistics;
+
+	private final Random _random;
+
+	private SocketChannel _channel;
+
+	private SelectionKey _key;
+
+	private final ByteBuffer _in = ByteBuffer.allocate(64 * 1024);
+
+	private final ArrayDeque<ByteBuffer> _out = new ArrayDeque<ByteBuffer>();
+
+	private boolean _handshaken = false;
+
+	private boolean _closing = false;
+
+	// frame being read
+	private boolean _inFrame = false;
+
+	private boolean _fin;
+
+	private long _payloadRemaining;
+
+	// message being read, possibly made of several frames
+	private int _opcode;
+
+	private long _length;
+
+	private final byte[] _head = new byte[HEAD_SIZE];
+
+	private int _headLength;
+
+	private long _requestTime = 0;
+
+	private boolean _started = false;
+
+	private long _lastScene = 0;
+
+	// read by the reporting thread
+	private volatile long _scenes = 0;
+
+	/**
+	 * @param id
+	 *            - Number of the client, used in the request IDs
+	 * @param role
+	 *            - Whether the client controls or observes the simulation
+	 * @param uri
+	 *            - Web socket of the GeppettoServlet
+	 * @param subProtocol
+	 *            - Transport protocol asked to the server, null for the default one
+	 * @param simulation
+	 *            - URL or content of the simulation loaded by controlling clients
+	 * @param statistics
+	 *            - Where the measurements go
+	 */
+	public LoadClient(int id, Role role, URI uri, String subProtocol, String simulation, LoadStatistics statistics)
+	{
+		this._id = id;
+		this._role = role;
+		this._uri = uri;
+		this._subProtocol = subProtocol;
+		this._simulation = simulation;
+		this._statistics = statistics;
+		this._random = new Random(id);
+	}
+
+	/**
+	 * Starts connecting, runs on the selector thread
+	 */
+	void connect(Selector selector) throws IOException
+	{
+		_channel = SocketChannel.open();
+		_channel.configureBlocking(false);
+		_channel.socket().setTcpNoDelay(true);
+		int port = (_uri.getPort() > 0) ? _uri.getPort() : 80;
+		_channel.connect(new InetSocketAddress(_uri.getHost(), port));
+		_key = _channel.register(selector, SelectionKey.OP_CONNECT, this);
+	}
+
+	/**
+	 * Handles the readiness of the socket, runs on the selector thread
+	 */
+	void handle()
+	{
+		try
+		{
+			if(_key.isConnectable())
+			{
+				_channel.finishConnect();
+				_key.interestOps(SelectionKey.OP_READ);
+				handshake();
+			}
+			if(_key.isValid() && _key.isWritable())
+			{
+				flush();
+			}
+			if(_key.isValid() && _key.isReadable())
+			{
+				read();
+			}
+		}
+		catch(IOException e)
+		{
+			disconnected();
+		}
+	}
+
+	private void handshake() throws IOException
+	{
+		byte[] nonce = new byte[16];
+		_random.nextBytes(nonce);
+		StringBuilder request = new StringBuilder();
+		String path = (_uri.getRawPath() == null || _uri.getRawPath().isEmpty()) ? "/" : _uri.getRawPath();
+		request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(_uri.getHost()).append(':').append(_channel.socket().getPort()).append("\r\n");
+		request.append("Upgrade: websocket\r\nConnection: Upgrade\r\n");
+		request.append("Sec-WebSocket-Key: ").append(base64(nonce)).append("\r\n");
+		request.append("Sec-WebSocket-Version: 13\r\n");
+		if(_subProtocol != null)
+		{
+			request.append("Sec-WebSocket-Protocol: ").append(_subProtocol).append("\r\n");
+		}
+		request.append("\r\n");
+		write(ByteBuffer.wrap(request.toString().getBytes(UTF8)));
+	}
+
+	private void read() throws IOException
+	{
+		int read = _channel.read(_in);
+		if(read < 0)
+		{
+			disconnected();
+			return;
+		}
+		_in.flip();
+		if(!_handshaken && !readHandshake())
+		{
+			_in.compact();
+			return;
+		}
+		while(readFrame())
+		{
+			// continue with the next frame in the buffer
+		}
+		_in.compact();
+	}
+
+	/**
+	 * @return true once the response to the handshake has been read
+	 */
+	private boolean readHandshake() throws IOException
+	{
+		int end = -1;
+		for(int i = _in.position(); i + 3 < _in.limit(); i++)
+		{
+			if(_in.get(i) == '\r' && _in.get(i + 1) == '\n' && _in.get(i + 2) == '\r' && _in.get(i + 3) == '\n')
+			{
+				end = i + 4;
+				break;
+			}
+		}
+		if(end < 0)
+		{
+			return false;
+		}
+		byte[] response = new byte[end - _in.position()];
+		_in.get(response);
+		String status = new String(response, UTF8);
+		if(!status.startsWith("HTTP/1.1 101"))
+		{
+			throw new IOException("Web socket handshake refused: " + status.substring(0, status.indexOf('\r')));
+		}
+		_handshaken = true;
+		_statistics.connected.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Consumes the frame at the beginning of the buffer, or the part of it that was received
+	 * 
+	 * @return false if more bytes are needed to continue
+	 */
+	private boolean readFrame() throws IOException
+	{
+		if(!_inFrame)
+		{
+			if(_in.remaining() < 2)
+			{
+				return false;
+			}
+			int start = _in.position();
+			int b0 = _in.get() & 0xFF;
+			int b1 = _in.get() & 0xFF;
+			boolean masked = (b1 & 0x80) != 0;
+			long length = b1 & 0x7F;
+			int extension = (length == 126) ? 2 : (length == 127) ? 8 : 0;
+			if(_in.remaining() < extension + (masked ? 4 : 0))
+			{
+				_in.position(start);
+				return false;
+			}
+			if(length == 126)
+			{
+				length = _in.getShort() & 0xFFFF;
+			}
+			else if(length == 127)
+			{
+				length = _in.getLong();
+			}
+			if(masked)
+			{
+				// servers don't mask their frames
+				_in.getInt();
+			}
+			int opcode = b0 & 0x0F;
+			if(opcode >= OPCODE_CLOSE)
+			{
+				if(_in.remaining() < length)
+				{
+					_in.position(start);
+					return false;
+				}
+				byte[] payload = new byte[(int) length];
+				_in.get(payload);
+				control(opcode, payload);
+				return _in.hasRemaining() && _key.isValid();
+			}
+			if(opcode != OPCODE_CONTINUATION)
+			{
+				_opcode = opcode;
+				_length = 0;
+				_headLength = 0;
+			}
+			_fin = (b0 & 0x80) != 0;
+			_payloadRemaining = length;
+			_inFrame = true;
+		}
+
+		int available = (int) Math.min(_in.remaining(), _payloadRemaining);
+		int kept = Math.min(available, HEAD_SIZE - _headLength);
+		_in.get(_head, _headLength, kept);
+		_headLength += kept;
+		_in.position(_in.position() + available - kept);
+		_length += available;
+		_payloadRemaining -= available;
+		if(_payloadRemaining > 0)
+		{
+			return false;
+		}
+		_inFrame = false;
+		if(_fin)
+		{
+			message();
+		}
+		return _in.hasRemaining();
+	}
+
+	private void control(int opcode, byte[] payload) throws IOException
+	{
+		switch(opcode)
+		{
+			case OPCODE_PING:
+				write(frame(OPCODE_PONG, payload));
+				break;
+			case OPCODE_CLOSE:
+				disconnected();
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Reacts to a complete message from the server
+	 */
+	private void message() throws IOException
+	{
+		long now = System.nanoTime();
+		_statistics.frame(_length);
+		if(_opcode != OPCODE_TEXT)
+		{
+			return;
+		}
+		String head = new String(_head, 0, _headLength, UTF8);
+		String type = field(head, "type");
+		if(type == null)
+		{
+			return;
+		}
+		if(type.equals("client_id"))
+		{
+			if(_role == Role.CONTROLLER)
+			{
+				loadSimulation();
+			}
+			else
+			{
+				_requestTime = now;
+				send("observe", null);
+			}
+		}
+		else if(type.equals("load_model") || type.equals("load_model_end"))
+		{
+			if(_requestTime > 0)
+			{
+				_statistics.load.record(now - _requestTime);
+				_requestTime = 0;
+			}
+			if(_role == Role.CONTROLLER && !_started)
+			{
+				_started = true;
+				send("start", null);
+			}
+		}
+		else if(type.equals("scene_update") || type.equals("scene_delta"))
+		{
+			if(_lastScene > 0)
+			{
+				_statistics.interval.record(now - _lastScene);
+			}
+			_lastScene = now;
+			_scenes++;
+			_statistics.scene(sceneTime(head), now);
+		}
+		else if(type.equals("simulator_full"))
+		{
+			_statistics.waitlisted.incrementAndGet();
+		}
+		else if(type.equals("server_available") && _role == Role.CONTROLLER && !_started)
+		{
+			_statistics.waitlisted.decrementAndGet();
+			loadSimulation();
+		}
+		else if(type.equals("server_busy"))
+		{
+			_statistics.busy.incrementAndGet();
+		}
+	}
+
+	private void loadSimulation() throws IOException
+	{
+		_requestTime = System.nanoTime();
+		send("init_sim", _simulation);
+	}
+
+	/**
+	 * @return value of a string field of the message, whether the message is JSON or JSON v2
+	 */
+	private static String field(String message, String name)
+	{
+		String key = "\"" + name + "\":\"";
+		int start = message.indexOf(key);
+		if(start < 0)
+		{
+			return null;
+		}
+		start += key.length();
+		int end = message.indexOf('"', start);
+		return (end < 0) ? null : message.substring(start, end);
+	}
+
+	/**
+	 * @return simulation time of a scene, used to recognize the same scene received by different clients. The scene is escaped in JSON messages and not in JSON v2 ones.
+	 */
+	static String sceneTime(String message)
+	{
+		int time = message.indexOf("time");
+		if(time < 0)
+		{
+			return null;
+		}
+		int value = message.indexOf("value", time);
+		if(value < 0)
+		{
+			return null;
+		}
+		int start = value + "value".length();
+		while(start < message.length() && "\\\": ".indexOf(message.charAt(start)) >= 0)
+		{
+			start++;
+		}
+		int end = start;
+		while(end < message.length() && "0123456789.-+eE".indexOf(message.charAt(end)) >= 0)
+		{
+			end++;
+		}
+		return (end > start) ? message.substring(start, end) : null;
+	}
+
+	/**
+	 * Sends a message to the server, in the format of the JavaScript client
+	 */
+	private void send(String type, String data) throws IOException
+	{
+		StringBuilder message = new StringBuilder();
+		message.append("{\"requestID\":\"").append(_id).append('-').append(type).append("\",\"type\":\"").append(type).append('"');
+		if(data != null)
+		{
+			message.append(",\"data\":\"").append(data.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		}
+		message.append('}');
+		write(frame(OPCODE_TEXT, message.toString().getBytes(UTF8)));
+	}
+
+	/**
+	 * @return frame masked as required for the frames sent by clients
+	 */
+	private ByteBuffer frame(int opcode, byte[] payload)
+	{
+		int extension = (payload.length < 126) ? 0 : (payload.length < 65536) ? 2 : 8;
+		ByteBuffer frame = ByteBuffer.allocate(2 + extension + 4 + payload.length);
+		frame.put((byte) (0x80 | opcode));
+		if(extension == 0)
+		{
+			frame.put((byte) (0x80 | payload.length));
+		}
+		else if(extension == 2)
+		{
+			frame.put((byte) (0x80 | 126));
+			frame.putShort((short) payload.length);
+		}
+		else
+		{
+			frame.put((byte) (0x80 | 127));
+			frame.putLong(payload.length);
+		}
+		byte[] mask = new byte[4];
+		_random.nextBytes(mask);
+		frame.put(mask);
+		for(int i = 0; i < payload.length; i++)
+		{
+			frame.put((byte) (payload[i] ^ mask[i % 4]));
+		}
+		frame.flip();
+		return frame;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException
+	{
+		_out.addLast(buffer);
+		flush();
+	}
+
+	private void flush() throws IOException
+	{
+		while(!_out.isEmpty())
+		{
+			ByteBuffer buffer = _out.peekFirst();
+			_channel.write(buffer);
+			if(buffer.hasRemaining())
+			{
+				_key.interestOps(_key.interestOps() | SelectionKey.OP_WRITE);
+				return;
+			}
+			_out.pollFirst();
+		}
+		if(_key.isValid())
+		{
+			_key.interestOps(_key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Sends the close frame, the connection is closed when the server answers. Runs on the selector thread.
+	 */
+	void close()
+	{
+		_closing = true;
+		try
+		{
+			if(_handshaken && _channel.isOpen())
+			{
+				write(frame(OPCODE_CLOSE, new byte[0]));
+			}
+			else
+			{
+				_channel.close();
+			}
+		}
+		catch(IOException e)
+		{
+			// already gone
+		}
+	}
+
+	/**
+	 * The connection is closed, counted as a disconnection unless the client was closing it
+	 */
+	private void disconnected()
+	{
+		if(!_closing)
+		{
+			_statistics.disconnected.incrementAndGet();
+		}
+		if(_handshaken)
+		{
+			_statistics.connected.decrementAndGet();
+			_handshaken = false;
+		}
+		_closing = true;
+		try
+		{
+			_channel.close();
+		}
+		catch(IOException e)
+		{
+			// nothing left to do
+		}
+	}
+
+	/**
+	 * @return number of scenes received by this client
+	 */
+	long getScenes()
+	{
+		return _scenes;
+	}
+
+	int getId()
+	{
+		return _id;
+	}
+
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private static String base64(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < bytes.length; i += 3)
+		{
+			int b = (bytes[i] & 0xFF) << 16;
+			if(i + 1 < bytes.length)
+			{
+				b |= (bytes[i + 1] & 0xFF) << 8;
+			}
+			if(i + 2 < bytes.length)
+			{
+				b |= bytes[i + 2] & 0xFF;
+			}
+			sb.append(BASE64[(b >> 18) & 0x3F]).append(BASE64[(b >> 12) & 0x3F]);
+			sb.append((i + 1 < bytes.length) ? BASE64[(b >> 6) & 0x3F] : '=');
+			sb.append((i + 2 < bytes.length) ? BASE64[b & 0x3F] : '=');
+		}
+		return sb.toString();
+	}
+}
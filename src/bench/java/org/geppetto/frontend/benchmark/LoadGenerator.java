@@ -0,0 +1,528 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.MemoryUsage;
+import java.net.URI;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.geppetto.frontend.benchmark.LoadClient.Role;
+import org.geppetto.frontend.controllers.LatencyHistogram;
+import org.geppetto.frontend.controllers.SimulationServerConfig.ServerBehaviorModes;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Opens many web socket clients against a running GeppettoServlet and measures how the server keeps up with them. The server is expected to run the synthetic simulation (Spring
+ * profile "synthetic") with the behavior mode given to the load generator:
+ * <ul>
+ * <li>OBSERVE: the first client loads and starts the simulation, once the scenes flow the others connect and observe it</li>
+ * <li>MULTIUSER: every client loads and starts a simulation of its own, the clients beyond the capacity of the simulator wait their turn</li>
+ * </ul>
+ * 
+ * Every second it prints the frames and bytes delivered, the fan out latency (time from the first client receiving a scene to the others receiving it, OBSERVE only), the time
+ * between scenes for a client, the time to load the model, and the CPU and heap of the server if its JMX port is given. At the end the measurements taken after the warm up are
+ * written as JSON and the exit code is 1 if clients were disconnected, the fan out latency is above the limit or some clients received too few scenes, so that a drop in the
+ * number of observers a node sustains fails the run.
+ * 
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=org.geppetto.frontend.benchmark.LoadGenerator -Dbenchmark.args="--clients 1000 --jmx localhost:9999"
+ * 
+ * Options: --url (ws://localhost:8080/org.geppetto.frontend/GeppettoServlet), --mode (OBSERVE), --clients (100), --ramp clients connected per second (200), --warmup seconds (10),
+ * --duration seconds measured (60), --protocol web socket sub protocol (none), --simulation loaded by the controlling clients (synthetic), --threads selector threads (number of
+ * processors), --jmx host:port of the server (none), --max-latency fan out p99 in ms (1000), --min-delivery fraction of the scenes of the best client every client must receive
+ * (0.9), --out file for the results (stdout)
+ * 
+ */
+public class LoadGenerator
+{
+
+	private URI _uri = URI.create("ws://localhost:8080/org.geppetto.frontend/GeppettoServlet");
+
+	private ServerBehaviorModes _mode = ServerBehaviorModes.OBSERVE;
+
+	private int _clients = 100;
+
+	private int _ramp = 200;
+
+	private int _warmup = 10;
+
+	private int _duration = 60;
+
+	private String _protocol = null;
+
+	private String _simulation = "synthetic";
+
+	private int _threads = Runtime.getRuntime().availableProcessors();
+
+	private String _jmx = null;
+
+	private double _maxLatency = 1000;
+
+	private double _minDelivery = 0.9;
+
+	private String _out = null;
+
+	private final LoadStatistics _statistics = new LoadStatistics();
+
+	private final List<LoadClient> _allClients = new ArrayList<LoadClient>();
+
+	private final List<SelectorLoop> _loops = new ArrayList<SelectorLoop>();
+
+	private MBeanServerConnection _server;
+
+	/*
+	 * Thread running the clients assigned to a selector
+	 */
+	private static class SelectorLoop extends Thread
+	{
+
+		private final Selector _selector;
+
+		private final ConcurrentLinkedQueue<Runnable> _tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		private volatile boolean _running = true;
+
+		private SelectorLoop(int index) throws IOException
+		{
+			super("load-generator-" + index);
+			setDaemon(true);
+			_selector = Selector.open();
+		}
+
+		/**
+		 * Runs a task on the selector thread, the clients are only touched from there
+		 */
+		private void execute(Runnable task)
+		{
+			_tasks.add(task);
+			_selector.wakeup();
+		}
+
+		@Override
+		public void run()
+		{
+			while(_running)
+			{
+				try
+				{
+					_selector.select(100);
+					Runnable task;
+					while((task = _tasks.poll()) != null)
+					{
+						task.run();
+					}
+					Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+					while(keys.hasNext())
+					{
+						SelectionKey key = keys.next();
+						keys.remove();
+						if(key.isValid())
+						{
+							((LoadClient) key.attachment()).handle();
+						}
+					}
+				}
+				catch(IOException e)
+				{
+					System.err.println("Selector failed " + e.getMessage());
+					return;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		LoadGenerator generator = new LoadGenerator();
+		generator.parse(args);
+		boolean passed = generator.run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	private void parse(String[] args)
+	{
+		for(int i = 0; i + 1 < args.length; i += 2)
+		{
+			String name = args[i];
+			String value = args[i + 1];
+			if(name.equals("--url"))
+			{
+				_uri = URI.create(value);
+			}
+			else if(name.equals("--mode"))
+			{
+				_mode = ServerBehaviorModes.valueOf(value.toUpperCase(Locale.ENGLISH));
+			}
+			else if(name.equals("--clients"))
+			{
+				_clients = Integer.parseInt(value);
+			}
+			else if(name.equals("--ramp"))
+			{
+				_ramp = Integer.parseInt(value);
+			}
+			else if(name.equals("--warmup"))
+			{
+				_warmup = Integer.parseInt(value);
+			}
+			else if(name.equals("--duration"))
+			{
+				_duration = Integer.parseInt(value);
+			}
+			else if(name.equals("--protocol"))
+			{
+				_protocol = value;
+			}
+			else if(name.equals("--simulation"))
+			{
+				_simulation = value;
+			}
+			else if(name.equals("--threads"))
+			{
+				_threads = Integer.parseInt(value);
+			}
+			else if(name.equals("--jmx"))
+			{
+				_jmx = value;
+			}
+			else if(name.equals("--max-latency"))
+			{
+				_maxLatency = Double.parseDouble(value);
+			}
+			else if(name.equals("--min-delivery"))
+			{
+				_minDelivery = Double.parseDouble(value);
+			}
+			else if(name.equals("--out"))
+			{
+				_out = value;
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the server kept up with the clients
+	 */
+	private boolean run() throws Exception
+	{
+		JMXConnector jmx = null;
+		if(_jmx != null)
+		{
+			jmx = JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + _jmx + "/jmxrmi"));
+			_server = jmx.getMBeanServerConnection();
+		}
+		for(int i = 0; i < _threads; i++)
+		{
+			SelectorLoop loop = new SelectorLoop(i);
+			loop.start();
+			_loops.add(loop);
+		}
+
+		System.out.println("Connecting " + _clients + " clients to " + _uri + " in " + _mode + " mode");
+		if(_mode == ServerBehaviorModes.OBSERVE)
+		{
+			// the observers need a simulation running to observe
+			open(Role.CONTROLLER);
+			long deadline = System.currentTimeMillis() + 30000;
+			while(_statistics.scenes.get() == 0)
+			{
+				if(System.currentTimeMillis() > deadline)
+				{
+					throw new IllegalStateException("The simulation didn't start, is the server running the synthetic simulation in OBSERVE mode?");
+				}
+				Thread.sleep(100);
+			}
+		}
+		long start = System.currentTimeMillis();
+		long previousReport = start;
+		long previousFrames = 0;
+		long previousBytes = 0;
+		boolean warm = false;
+		long measureStart = 0;
+		while(true)
+		{
+			// connect the clients due according to the ramp
+			long elapsed = System.currentTimeMillis() - start;
+			long due = Math.min(_clients, 1 + (elapsed * _ramp) / 1000);
+			while(_allClients.size() < due)
+			{
+				open(_mode == ServerBehaviorModes.OBSERVE ? Role.OBSERVER : Role.CONTROLLER);
+			}
+
+			Thread.sleep(Math.max(1, 1000 - (System.currentTimeMillis() - previousReport)));
+			long now = System.currentTimeMillis();
+			long frames = _statistics.frames.get();
+			long bytes = _statistics.bytes.get();
+			double seconds = (now - previousReport) / 1000d;
+			report((now - start) / 1000, (frames - previousFrames) / seconds, (bytes - previousBytes) / seconds);
+			previousReport = now;
+			previousFrames = frames;
+			previousBytes = bytes;
+
+			boolean allConnected = _allClients.size() == _clients;
+			if(!warm && allConnected && now - start >= (_clients * 1000L) / Math.max(1, _ramp) + _warmup * 1000L)
+			{
+				// all the clients are in, measure from here
+				warm = true;
+				measureStart = now;
+				_statistics.reset();
+				resetScenes();
+				previousFrames = 0;
+				previousBytes = 0;
+				System.out.println("Warm up over, measuring for " + _duration + "s");
+			}
+			if(warm && now - measureStart >= _duration * 1000L)
+			{
+				break;
+			}
+		}
+
+		boolean passed = summarize((System.currentTimeMillis() - measureStart) / 1000d);
+		for(final LoadClient client : _allClients)
+		{
+			loopOf(client.getId()).execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					client.close();
+				}
+			});
+		}
+		Thread.sleep(1000);
+		if(jmx != null)
+		{
+			jmx.close();
+		}
+		return passed;
+	}
+
+	private void open(Role role)
+	{
+		final LoadClient client = new LoadClient(_allClients.size(), role, _uri, _protocol, _simulation, _statistics);
+		_allClients.add(client);
+		final SelectorLoop loop = loopOf(client.getId());
+		loop.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					client.connect(loop._selector);
+				}
+				catch(IOException e)
+				{
+					_statistics.disconnected.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	private SelectorLoop loopOf(int client)
+	{
+		return _loops.get(client % _loops.size());
+	}
+
+	private long[] _scenesAtStart;
+
+	private void resetScenes()
+	{
+		_scenesAtStart = new long[_allClients.size()];
+		for(int i = 0; i < _scenesAtStart.length; i++)
+		{
+			_scenesAtStart[i] = _allClients.get(i).getScenes();
+		}
+	}
+
+	/**
+	 * @return fraction of the scenes received by the best client that the worst one received during the measurement. In MULTIUSER mode the clients still waiting for the
+	 *         simulator don't count.
+	 */
+	private double getMinDelivery()
+	{
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for(int i = 0; i < _scenesAtStart.length; i++)
+		{
+			LoadClient client = _allClients.get(i);
+			if(_mode == ServerBehaviorModes.MULTIUSER && client.getScenes() == 0)
+			{
+				continue;
+			}
+			long scenes = client.getScenes() - _scenesAtStart[i];
+			min = Math.min(min, scenes);
+			max = Math.max(max, scenes);
+		}
+		return (max == 0) ? 0 : (double) min / max;
+	}
+
+	private void report(long second, double framesPerSecond, double bytesPerSecond) throws Exception
+	{
+		StringBuilder line = new StringBuilder();
+		line.append(String.format(Locale.ENGLISH, "%4ds clients %d/%d frames/s %.0f MB/s %.2f", second, _statistics.connected.get(), _allClients.size(), framesPerSecond,
+				bytesPerSecond / (1024 * 1024)));
+		if(_mode == ServerBehaviorModes.OBSERVE)
+		{
+			line.append(" fanout").append(percentiles(_statistics.fanout));
+		}
+		line.append(" interval").append(percentiles(_statistics.interval));
+		line.append(" load").append(percentiles(_statistics.load));
+		line.append(" disconnected ").append(_statistics.disconnected.get());
+		line.append(" waiting ").append(_statistics.waitlisted.get());
+		line.append(" busy ").append(_statistics.busy.get());
+		if(_server != null)
+		{
+			line.append(String.format(Locale.ENGLISH, " server cpu %.0f%% heap %dMB", getServerCpu() * 100, getServerHeap() / (1024 * 1024)));
+		}
+		System.out.println(line);
+	}
+
+	private static String percentiles(LatencyHistogram histogram)
+	{
+		return String.format(Locale.ENGLISH, " p50 %.1fms p99 %.1fms max %.1fms", histogram.getP50(), histogram.getP99(), histogram.getMax());
+	}
+
+	private double getServerCpu() throws Exception
+	{
+		return ((Number) _server.getAttribute(new ObjectName("java.lang:type=OperatingSystem"), "ProcessCpuLoad")).doubleValue();
+	}
+
+	private long getServerHeap() throws Exception
+	{
+		CompositeData heap = (CompositeData) _server.getAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage");
+		return MemoryUsage.from(heap).getUsed();
+	}
+
+	/**
+	 * Writes the measurements taken after the warm up
+	 * 
+	 * @return true if the server kept up with the clients
+	 */
+	private boolean summarize(double seconds) throws Exception
+	{
+		double minDelivery = getMinDelivery();
+		JsonObject result = new JsonObject();
+		result.addProperty("mode", _mode.toString());
+		result.addProperty("clients", _clients);
+		result.addProperty("connected", _statistics.connected.get());
+		result.addProperty("disconnected", _statistics.disconnected.get());
+		result.addProperty("waiting", _statistics.waitlisted.get());
+		result.addProperty("seconds", seconds);
+		result.addProperty("framesPerSecond", _statistics.frames.get() / seconds);
+		result.addProperty("megabytesPerSecond", _statistics.bytes.get() / seconds / (1024 * 1024));
+		result.addProperty("scenesPerSecond", _statistics.scenes.get() / seconds);
+		result.add("fanoutLatency", toJson(_statistics.fanout));
+		result.add("sceneInterval", toJson(_statistics.interval));
+		result.add("loadLatency", toJson(_statistics.load));
+		result.addProperty("minDelivery", minDelivery);
+		result.addProperty("busy", _statistics.busy.get());
+		if(_server != null)
+		{
+			result.addProperty("serverCpu", getServerCpu());
+			result.addProperty("serverHeapMB", getServerHeap() / (1024 * 1024));
+		}
+
+		List<String> failures = new ArrayList<String>();
+		if(_statistics.disconnected.get() > 0)
+		{
+			failures.add(_statistics.disconnected.get() + " clients disconnected");
+		}
+		if(_mode == ServerBehaviorModes.OBSERVE && _statistics.fanout.getP99() > _maxLatency)
+		{
+			failures.add("fan out p99 " + _statistics.fanout.getP99() + "ms above " + _maxLatency + "ms");
+		}
+		if(minDelivery < _minDelivery)
+		{
+			failures.add("a client received " + Math.round(minDelivery * 100) + "% of the scenes of the best one");
+		}
+		result.addProperty("passed", failures.isEmpty());
+		JsonArray failed = new JsonArray();
+		for(String failure : failures)
+		{
+			failed.add(new JsonPrimitive(failure));
+		}
+		result.add("failures", failed);
+
+		String json = new GsonBuilder().setPrettyPrinting().create().toJson(result);
+		if(_out != null)
+		{
+			Writer writer = new FileWriter(_out);
+			try
+			{
+				writer.write(json);
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		System.out.println(json);
+		return failures.isEmpty();
+	}
+
+	private static JsonObject toJson(LatencyHistogram histogram)
+	{
+		JsonObject json = new JsonObject();
+		json.addProperty("count", histogram.getCount());
+		json.addProperty("meanMs", histogram.getMean());
+		json.addProperty("p50Ms", histogram.getP50());
+		json.addProperty("p99Ms", histogram.getP99());
+		json.addProperty("p999Ms", histogram.getP999());
+		json.addProperty("maxMs", histogram.getMax());
+		return json;
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geppetto.frontend.controllers.LatencyHistogram;
+
+/**
+ * Measurements shared by the clients of the load generator
+ * 
+ */
+public class LoadStatistics
+{
+
+	// scenes remembered to measure the fan out latency, older ones are forgotten
+	private static final int MAX_SCENES = 10000;
+
+	/*
+	 * Time from the first client receiving a scene to each of the other clients receiving it, only meaningful when all the clients observe the same simulation
+	 */
+	final LatencyHistogram fanout = new LatencyHistogram();
+
+	/*
+	 * Time between two scenes received by a client
+	 */
+	final LatencyHistogram interval = new LatencyHistogram();
+
+	/*
+	 * Time from a client asking to load or observe the simulation to receiving the model
+	 */
+	final LatencyHistogram load = new LatencyHistogram();
+
+	final AtomicLong frames = new AtomicLong();
+
+	final AtomicLong bytes = new AtomicLong();
+
+	final AtomicLong scenes = new AtomicLong();
+
+	final AtomicInteger connected = new AtomicInteger();
+
+	final AtomicInteger disconnected = new AtomicInteger();
+
+	final AtomicInteger waitlisted = new AtomicInteger();
+
+	final AtomicInteger busy = new AtomicInteger();
+
+	private final ConcurrentHashMap<String, Long> _firstArrivals = new ConcurrentHashMap<String, Long>();
+
+	private final ConcurrentLinkedQueue<String> _arrivalOrder = new ConcurrentLinkedQueue<String>();
+
+	private final AtomicInteger _arrivalCount = new AtomicInteger();
+
+	/**
+	 * @param length
+	 *            - Length of the message in bytes
+	 */
+	void frame(long length)
+	{
+		frames.incrementAndGet();
+		bytes.addAndGet(length);
+	}
+
+	/**
+	 * @param time
+	 *            - Simulation time of the scene, identifies the scene across clients, null if not known
+	 * @param arrival
+	 *            - When the scene was received, in nanoseconds
+	 */
+	void scene(String time, long arrival)
+	{
+		scenes.incrementAndGet();
+		if(time == null)
+		{
+			return;
+		}
+		Long first = _firstArrivals.putIfAbsent(time, arrival);
+		if(first == null)
+		{
+			_arrivalOrder.add(time);
+			if(_arrivalCount.incrementAndGet() > MAX_SCENES)
+			{
+				String oldest = _arrivalOrder.poll();
+				if(oldest != null)
+				{
+					_firstArrivals.remove(oldest);
+					_arrivalCount.decrementAndGet();
+				}
+			}
+		}
+		else
+		{
+			fanout.record(arrival - first);
+		}
+	}
+
+	/**
+	 * Forgets the measurements taken while warming up, the number of connections is kept
+	 */
+	void reset()
+	{
+		fanout.reset();
+		interval.reset();
+		load.reset();
+		frames.set(0);
+		bytes.set(0);
+		scenes.set(0);
+		busy.set(0);
+	}
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.benchmark;
+
+import java.util.Locale;
+
+/**
+ * Builds scene payloads shaped like the ones produced by the simulation: a tree of entities, each with a few aspects holding state variables and a block of geometry.
+ * 
+ */
+public class SceneGenerator
+{
+
+	private SceneGenerator()
+	{
+	}
+
+	/**
+	 * @param entities
+	 *            - Number of entities in the scene
+	 * @return scene as JSON string, the way the simulation sends it to the callbacks
+	 */
+	public static String scene(int entities)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"scene\":{\"time\":{\"value\":0.05,\"unit\":\"ms\"}");
+		for(int e = 0; e < entities; e++)
+		{
+			sb.append(",\"entity").append(e).append("\":{\"id\":\"entity").append(e).append("\",\"electrical\":{\"SimulationTree\":{");
+			for(int v = 0; v < 5; v++)
+			{
+				if(v > 0)
+				{
+					sb.append(',');
+				}
+				sb.append("\"v").append(v).append("\":{\"value\":").append(String.format(Locale.ENGLISH, "%.6f", -65 + e * 0.01 + v)).append(",\"unit\":\"mV\"}");
+			}
+			sb.append("},\"VisualizationTree\":{\"geometry\":{\"type\":\"Cylinder\",\"position\":[");
+			sb.append(e).append(",0.5,-1.25],\"distal\":[").append(e + 1).append(",0.5,-1.25],\"radiusTop\":0.1,\"radiusBottom\":0.1}}}}");
+		}
+		sb.append("}}");
+		return sb.toString();
+	}
+}
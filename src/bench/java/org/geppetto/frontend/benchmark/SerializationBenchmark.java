@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.frontend.GeppettoTransportMessage;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.OutboundFrame;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
+import org.geppetto.frontend.TransportMessageFactory;
+import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+/**
+ * Throughput of turning an update of the simulation into the message written to a client, step by step and for each transport protocol. Every type of message is measured with a
+ * small, a medium and a very large scene (about 4KB, 400KB and 8MB).
+ * 
+ * Run with the GC profiler to get the allocation rate, which the benchmark profile does by default. The full matrix takes long, restrict it with e.g.
+ * -Dbenchmark.args="SerializationBenchmark -p type=SCENE_UPDATE -prof gc"
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SerializationBenchmark
+{
+
+	// all the types when no values are given
+	@Param
+	public OUTBOUND_MESSAGE_TYPES type;
+
+	@Param({ "10", "1000", "20000" })
+	public int entities;
+
+	private GeppettoServletController controller;
+
+	private Gson gson;
+
+	private String update;
+
+	private String requestID;
+
+	@Setup
+	public void setUp()
+	{
+		controller = GeppettoServletController.getInstance();
+		gson = new Gson();
+		update = SceneGenerator.scene(entities);
+		requestID = "requestID42";
+	}
+
+	/**
+	 * Wrapping of the model done by the observer mode callback before sending it
+	 */
+	@Benchmark
+	public String callbackWrapping()
+	{
+		return "{ \"entities\":" + update + "}";
+	}
+
+	@Benchmark
+	public GeppettoTransportMessage transportMessage()
+	{
+		return TransportMessageFactory.getTransportMessage(requestID, type, update);
+	}
+
+	/**
+	 * Transport message and Gson envelope, what the JSON clients get
+	 */
+	@Benchmark
+	public String jsonEnvelope()
+	{
+		return gson.toJson(TransportMessageFactory.getTransportMessage(requestID, type, update));
+	}
+
+	@Benchmark
+	public CharBuffer jsonV2()
+	{
+		return TransportMessageFactory.getTransportMessageV2(requestID, type, update);
+	}
+
+	@Benchmark
+	public ByteBuffer binary()
+	{
+		return TransportMessageFactory.getBinaryTransportMessage(requestID, type, update);
+	}
+
+	/**
+	 * Whole chain run by the callbacks for a JSON client, from the wrapping to the frame queued for the connections
+	 */
+	@Benchmark
+	public OutboundFrame fullChain()
+	{
+		return controller.createFrame(TRANSPORT_PROTOCOLS.JSON, requestID, type, "{ \"entities\":" + update + "}");
+	}
+}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geppetto.frontend.TransportMessageFactory.Parameter;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Encodes messages for clients using the binary protocol. Compared to the JSON protocol the JSON documents sent to the client (e.g. the scene) are not escaped as strings, and numeric arrays
+ * are moved out of the JSON and sent as little-endian float64 arrays the browser can use without parsing.
+ * 
+ * Layout of a message, all numbers are little-endian:
+ * 
+ * <pre>
+ * size  content
+ * 1     version of the protocol, currently 1
+ * 1     type of message, position of the type in OUTBOUND_MESSAGE_TYPES
+ * 2     length R in bytes of the requestID, 0 if the message has no requestID
+ * R     requestID, UTF-8
+ * 4     length D in bytes of the data
+ * D     data, UTF-8 JSON object with the message parameters. Parameters holding JSON documents are embedded as objects,
+ *       numeric arrays in them are replaced by {"$bin":index}
+ * 4     number N of numeric arrays
+ * N times:
+ *   4   number of elements E of the array
+ *   P   padding, 0 to 7 bytes so that the elements start at a multiple of 8 from the beginning of the message
+ *   8*E elements, float64
+ * </pre>
+ * 
+ */
+public class BinaryMessageEncoder
+{
+
+	public static final byte VERSION = 1;
+
+	// name of the property of the objects replacing the numeric arrays
+	public static final String ARRAY_PLACEHOLDER = "$bin";
+
+	// shorter arrays stay in the JSON, the placeholder would be as long as the array
+	private static final int MIN_ARRAY_LENGTH = 8;
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private BinaryMessageEncoder()
+	{
+	}
+
+	/**
+	 * @param requestID
+	 *            - Request the message is replying to, can be null
+	 * @param type
+	 *            - Type of message
+	 * @param params
+	 *            - Parameters of the message
+	 * @return encoded message, ready to be sent
+	 */
+	static ByteBuffer encode(String requestID, OUTBOUND_MESSAGE_TYPES type, List<Parameter> params)
+	{
+		List<double[]> arrays = new ArrayList<double[]>();
+		StringWriter data = new StringWriter();
+		try
+		{
+			JsonWriter writer = new JsonWriter(data);
+			writer.beginObject();
+			for(Parameter param : params)
+			{
+				writer.name(param.getName());
+				if(param.getValue() == null)
+				{
+					writer.nullValue();
+				}
+				else if(param.isJson() && !param.getValue().isEmpty())
+				{
+					copy(new JsonReader(new StringReader(param.getValue())), writer, arrays);
+				}
+				else
+				{
+					writer.value(param.getValue());
+				}
+			}
+			writer.endObject();
+			writer.close();
+		}
+		catch(IOException e)
+		{
+			// only thrown for malformed JSON parameters, writing to a string doesn't fail
+			throw new IllegalArgumentException("Invalid JSON in " + type + " message", e);
+		}
+
+		byte[] requestBytes = (requestID != null) ? requestID.getBytes(UTF_8) : new byte[0];
+		byte[] dataBytes = data.toString().getBytes(UTF_8);
+
+		int size = 4 + requestBytes.length + 4 + dataBytes.length + 4;
+		for(double[] array : arrays)
+		{
+			size = align(size + 4) + array.length * 8;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(VERSION);
+		buffer.put((byte) type.ordinal());
+		buffer.putShort((short) requestBytes.length);
+		buffer.put(requestBytes);
+		buffer.putInt(dataBytes.length);
+		buffer.put(dataBytes);
+		buffer.putInt(arrays.size());
+		for(double[] array : arrays)
+		{
+			buffer.putInt(array.length);
+			buffer.position(align(buffer.position()));
+			buffer.asDoubleBuffer().put(array);
+			buffer.position(buffer.position() + array.length * 8);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @return the first multiple of 8 not smaller than position
+	 */
+	private static int align(int position)
+	{
+		return (position + 7) & ~7;
+	}
+
+	/**
+	 * Copies the next JSON value from in to out, moving the numeric arrays to arrays
+	 */
+	private static void copy(JsonReader in, JsonWriter out, List<double[]> arrays) throws IOException
+	{
+		switch(in.peek())
+		{
+			case BEGIN_OBJECT:
+				in.beginObject();
+				out.beginObject();
+				while(in.hasNext())
+				{
+					out.name(in.nextName());
+					copy(in, out, arrays);
+				}
+				in.endObject();
+				out.endObject();
+				break;
+			case BEGIN_ARRAY:
+				copyArray(in, out, arrays);
+				break;
+			case STRING:
+				out.value(in.nextString());
+				break;
+			case NUMBER:
+				out.value(new JsonNumber(in.nextString()));
+				break;
+			case BOOLEAN:
+				out.value(in.nextBoolean());
+				break;
+			case NULL:
+				in.nextNull();
+				out.nullValue();
+				break;
+			default:
+				throw new IOException("Unexpected " + in.peek());
+		}
+	}
+
+	private static void copyArray(JsonReader in, JsonWriter out, List<double[]> arrays) throws IOException
+	{
+		in.beginArray();
+
+		// the numbers at the start of the array, their text is kept in case the array has to stay in the JSON
+		double[] values = new double[MIN_ARRAY_LENGTH * 2];
+		String[] text = new String[values.length];
+		int count = 0;
+		while(in.hasNext() && in.peek() == JsonToken.NUMBER)
+		{
+			String number = in.nextString();
+			if(count == values.length)
+			{
+				values = Arrays.copyOf(values, count * 2);
+				text = Arrays.copyOf(text, count * 2);
+			}
+			text[count] = number;
+			values[count++] = Double.parseDouble(number);
+		}
+
+		if(!in.hasNext() && count >= MIN_ARRAY_LENGTH)
+		{
+			in.endArray();
+			arrays.add(Arrays.copyOf(values, count));
+			out.beginObject();
+			out.name(ARRAY_PLACEHOLDER).value(arrays.size() - 1);
+			out.endObject();
+			return;
+		}
+
+		out.beginArray();
+		for(int i = 0; i < count; i++)
+		{
+			out.value(new JsonNumber(text[i]));
+		}
+		while(in.hasNext())
+		{
+			copy(in, out, arrays);
+		}
+		in.endArray();
+		out.endArray();
+	}
+
+	/*
+	 * Number written as it was read, to leave the values that stay in the JSON untouched
+	 */
+	private static class JsonNumber extends Number
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private final String text;
+
+		JsonNumber(String text)
+		{
+			this.text = text;
+		}
+
+		@Override
+		public int intValue()
+		{
+			return (int) doubleValue();
+		}
+
+		@Override
+		public long longValue()
+		{
+			return (long) doubleValue();
+		}
+
+		@Override
+		public float floatValue()
+		{
+			return (float) doubleValue();
+		}
+
+		@Override
+		public double doubleValue()
+		{
+			return Double.parseDouble(text);
+		}
+
+		@Override
+		public String toString()
+		{
+			return text;
+		}
+	}
+}
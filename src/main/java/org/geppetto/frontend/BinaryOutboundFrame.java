@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.catalina.websocket.WsOutbound;
+
+/**
+ * Frame sent as a web socket binary message
+ * 
+ */
+public class BinaryOutboundFrame extends OutboundFrame
+{
+
+	// shared by all the writes, each write works on its own duplicate. Not a read only buffer, WsOutbound writes the backing array of the buffer
+	private final ByteBuffer _buffer;
+
+	/**
+	 * @param type
+	 *            - Type of message carried by the frame
+	 * @param buffer
+	 *            - Encoded message, from position to limit, backed by an array. Must not be modified once the frame is created
+	 */
+	public BinaryOutboundFrame(OUTBOUND_MESSAGE_TYPES type, ByteBuffer buffer)
+	{
+		super(type);
+		this._buffer = buffer.slice();
+	}
+
+	/**
+	 * @return read only view of the serialized message
+	 */
+	public ByteBuffer getBuffer()
+	{
+		return _buffer.asReadOnlyBuffer();
+	}
+
+	@Override
+	public int getLength()
+	{
+		return _buffer.remaining();
+	}
+
+	@Override
+	public void writeTo(WsOutbound outbound) throws IOException
+	{
+		outbound.writeBinaryMessage(_buffer.duplicate());
+	}
+}
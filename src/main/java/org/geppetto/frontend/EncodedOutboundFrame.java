@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.catalina.websocket.WsOutbound;
+
+/**
+ * Frame kept in its wire encoding, UTF-8 for text messages, optionally deflated, in a direct buffer outside of the Java heap. Meant for large messages sent many times, e.g. the loaded
+ * model sent to every observer joining the simulation: the message is serialized once, the first write decodes it into the heap buffer the web socket needs and the next writes
+ * share it.
+ * 
+ */
+public class EncodedOutboundFrame extends OutboundFrame
+{
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int CHUNK_SIZE = 8192;
+
+	// read only view shared by all the writes, each write works on its own duplicate
+	private final ByteBuffer _data;
+
+	private final boolean _binary;
+
+	private final boolean _deflated;
+
+	private final int _length;
+
+	// the message decoded, a ByteBuffer for binary frames and a CharBuffer for text ones, built by the first write. Each write works on its own duplicate
+	private volatile Buffer _decoded;
+
+	private EncodedOutboundFrame(OUTBOUND_MESSAGE_TYPES type, ByteBuffer data, boolean binary, boolean deflated, int length)
+	{
+		super(type);
+		this._data = data.asReadOnlyBuffer();
+		this._binary = binary;
+		this._deflated = deflated;
+		this._length = length;
+	}
+
+	/**
+	 * Encodes a text or binary frame
+	 * 
+	 * @param frame
+	 *            - Frame to encode
+	 * @param deflate
+	 *            - true to compress the frame, it's then decompressed each time it's written
+	 * @return
+	 */
+	public static EncodedOutboundFrame encode(OutboundFrame frame, boolean deflate)
+	{
+		ByteBuffer message;
+		boolean binary;
+		if(frame instanceof TextOutboundFrame)
+		{
+			message = UTF_8.encode(((TextOutboundFrame) frame).getBuffer());
+			binary = false;
+		}
+		else if(frame instanceof BinaryOutboundFrame)
+		{
+			message = ((BinaryOutboundFrame) frame).getBuffer();
+			binary = true;
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unable to encode frame " + frame);
+		}
+
+		int length = message.remaining();
+		if(deflate)
+		{
+			message = deflate(message);
+		}
+		ByteBuffer data = ByteBuffer.allocateDirect(message.remaining());
+		data.put(message);
+		data.flip();
+		return new EncodedOutboundFrame(frame.getType(), data, binary, deflate, length);
+	}
+
+	private static ByteBuffer deflate(ByteBuffer message)
+	{
+		byte[] input = new byte[message.remaining()];
+		message.get(input);
+
+		Deflater deflater = new Deflater();
+		try
+		{
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4 + 64);
+			byte[] chunk = new byte[CHUNK_SIZE];
+			while(!deflater.finished())
+			{
+				output.write(chunk, 0, deflater.deflate(chunk));
+			}
+			return ByteBuffer.wrap(output.toByteArray());
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return size of the message in bytes, once decompressed
+	 */
+	@Override
+	public int getLength()
+	{
+		return _length;
+	}
+
+	/**
+	 * @return bytes held by the frame
+	 */
+	public int getEncodedLength()
+	{
+		return _data.remaining();
+	}
+
+	public boolean isBinary()
+	{
+		return _binary;
+	}
+
+	/**
+	 * @return the message of a text frame
+	 * @throws IOException
+	 */
+	public String getText() throws IOException
+	{
+		StringBuilder text = new StringBuilder(_length);
+		Reader reader = new InputStreamReader(open(), UTF_8);
+		try
+		{
+			char[] chunk = new char[CHUNK_SIZE];
+			int read;
+			while((read = reader.read(chunk)) != -1)
+			{
+				text.append(chunk, 0, read);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return text.toString();
+	}
+
+	@Override
+	public void writeTo(WsOutbound outbound) throws IOException
+	{
+		// the message is handed whole to WsOutbound, which can't write a direct buffer and would otherwise take it a character or a byte at a time
+		if(_binary)
+		{
+			outbound.writeBinaryMessage(((ByteBuffer) getDecoded()).duplicate());
+		}
+		else
+		{
+			outbound.writeTextMessage(((CharBuffer) getDecoded()).duplicate());
+		}
+		outbound.flush();
+	}
+
+	/**
+	 * @return the message decoded in the heap, decoded by the first write only
+	 * @throws IOException
+	 */
+	private Buffer getDecoded() throws IOException
+	{
+		Buffer decoded = _decoded;
+		if(decoded == null)
+		{
+			synchronized(this)
+			{
+				decoded = _decoded;
+				if(decoded == null)
+				{
+					// not read only, WsOutbound writes the array behind a binary message
+					decoded = _binary ? ByteBuffer.wrap(getBytes()) : decodeText();
+					_decoded = decoded;
+				}
+			}
+		}
+		return decoded;
+	}
+
+	private CharBuffer decodeText() throws IOException
+	{
+		if(!_deflated)
+		{
+			return UTF_8.decode(_data.duplicate());
+		}
+		char[] text = new char[_length];
+		int length = 0;
+		Reader reader = new InputStreamReader(open(), UTF_8);
+		try
+		{
+			int read;
+			while(length < text.length && (read = reader.read(text, length, text.length - length)) != -1)
+			{
+				length += read;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return CharBuffer.wrap(text, 0, length);
+	}
+
+	/**
+	 * @return the message, decompressed
+	 * @throws IOException
+	 */
+	private byte[] getBytes() throws IOException
+	{
+		byte[] bytes = new byte[_length];
+		if(!_deflated)
+		{
+			_data.duplicate().get(bytes);
+			return bytes;
+		}
+		InputStream input = open();
+		try
+		{
+			int length = 0;
+			int read;
+			while(length < bytes.length && (read = input.read(bytes, length, bytes.length - length)) != -1)
+			{
+				length += read;
+			}
+			if(length < bytes.length)
+			{
+				throw new EOFException("Frame truncated");
+			}
+		}
+		finally
+		{
+			input.close();
+		}
+		return bytes;
+	}
+
+	private InputStream open()
+	{
+		InputStream input = new ByteBufferInputStream(_data.duplicate());
+		return _deflated ? new InflaterInputStream(input) : input;
+	}
+
+	/**
+	 * Reads the bytes of a buffer, the buffer can be outside of the heap
+	 */
+	private static class ByteBufferInputStream extends InputStream
+	{
+
+		private final ByteBuffer _buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer)
+		{
+			this._buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return _buffer.hasRemaining() ? _buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if(len == 0)
+			{
+				return 0;
+			}
+			if(!_buffer.hasRemaining())
+			{
+				return -1;
+			}
+			len = Math.min(len, _buffer.remaining());
+			_buffer.get(b, off, len);
+			return len;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * A model split in chunks of entities, so that a large model is streamed to the client as a sequence of small messages the client can render as they arrive.
+ * 
+ * The entities are the properties of the first object of the model with more than one property, e.g. the properties of "scene" in {"scene":{"entity1":{...},"entity2":{...}}}. The
+ * client receives:
+ * 
+ * <pre>
+ * load_model_begin {"path":["scene"],"chunks":n}
+ * load_model_chunk {"index":0,"entities":{"entity1":{...},...}}
+ * ...
+ * load_model_chunk {"index":n-1,"entities":{...}}
+ * load_model_end   {"chunks":n}
+ * </pre>
+ * 
+ * and rebuilds the model merging the entities of each chunk in the object at path.
+ * 
+ */
+public class ModelChunks
+{
+
+	private final JsonArray _path;
+
+	private final List<String> _chunks;
+
+	private ModelChunks(JsonArray path, List<String> chunks)
+	{
+		this._path = path;
+		this._chunks = Collections.unmodifiableList(chunks);
+	}
+
+	/**
+	 * @param model
+	 *            - JSON model
+	 * @param chunkSize
+	 *            - Size in characters after which a chunk is closed, a chunk holds at least one entity
+	 * @return
+	 */
+	public static ModelChunks split(String model, int chunkSize)
+	{
+		JsonObject entities = new JsonParser().parse(model).getAsJsonObject();
+		JsonArray path = new JsonArray();
+		while(entities.entrySet().size() == 1)
+		{
+			Map.Entry<String, JsonElement> wrapper = entities.entrySet().iterator().next();
+			if(!wrapper.getValue().isJsonObject())
+			{
+				break;
+			}
+			path.add(new JsonPrimitive(wrapper.getKey()));
+			entities = wrapper.getValue().getAsJsonObject();
+		}
+
+		List<String> chunks = new ArrayList<String>();
+		StringBuilder chunk = null;
+		for(Map.Entry<String, JsonElement> entity : entities.entrySet())
+		{
+			if(chunk == null)
+			{
+				chunk = new StringBuilder(chunkSize + 64).append("{\"index\":").append(chunks.size()).append(",\"entities\":{");
+			}
+			else
+			{
+				chunk.append(',');
+			}
+			chunk.append(new JsonPrimitive(entity.getKey())).append(':').append(entity.getValue());
+			if(chunk.length() >= chunkSize)
+			{
+				chunks.add(chunk.append("}}").toString());
+				chunk = null;
+			}
+		}
+		if(chunk != null || chunks.isEmpty())
+		{
+			// last chunk, or an empty model
+			if(chunk == null)
+			{
+				chunk = new StringBuilder("{\"index\":0,\"entities\":{");
+			}
+			chunks.add(chunk.append("}}").toString());
+		}
+		return new ModelChunks(path, chunks);
+	}
+
+	/**
+	 * @return parameter of the load_model_begin message
+	 */
+	public String getBegin()
+	{
+		return "{\"path\":" + _path + ",\"chunks\":" + _chunks.size() + "}";
+	}
+
+	/**
+	 * @return parameters of the load_model_chunk messages, in order
+	 */
+	public List<String> getChunks()
+	{
+		return _chunks;
+	}
+
+	/**
+	 * @return parameter of the load_model_end message
+	 */
+	public String getEnd()
+	{
+		return "{\"chunks\":" + _chunks.size() + "}";
+	}
+}
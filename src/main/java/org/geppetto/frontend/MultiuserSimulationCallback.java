@@ -32,9 +32,7 @@
  *******************************************************************************/
 package org.geppetto.frontend;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Collections;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,6 +40,9 @@ import org.geppetto.core.common.GeppettoErrorCodes;
 import org.geppetto.core.simulation.ISimulationCallbackListener;
 import org.geppetto.frontend.controllers.GeppettoMessageInbound;
 import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.geppetto.frontend.controllers.TraceSampler;
+
+import com.google.gson.JsonObject;
 
 public class MultiuserSimulationCallback implements ISimulationCallbackListener
 {
@@ -62,11 +63,7 @@ public class MultiuserSimulationCallback implements ISimulationCallbackListener
 	@Override
 	public void updateReady(SimulationEvents event, String requestID, String sceneUpdate)
 	{
-		long start = System.currentTimeMillis();
-		Date date = new Date(start);
-		DateFormat formatter = new SimpleDateFormat("HH:mm:ss:SSS");
-		String dateFormatted = formatter.format(date);
-		logger.info("Simulation Frontend Update Starting: " + dateFormatted);
+		long start = System.nanoTime();
 
 		OUTBOUND_MESSAGE_TYPES action = null;
 		String update = "";
@@ -79,30 +76,31 @@ public class MultiuserSimulationCallback implements ISimulationCallbackListener
 				action = OUTBOUND_MESSAGE_TYPES.LOAD_MODEL;
 
 				_user.setIsSimulationLoaded(true);
-				sceneUpdate=sceneUpdate.substring(1, sceneUpdate.length()-1);
-				// pack sceneUpdate and variableWatchTree in the same JSON string
-				update = "{"+ sceneUpdate + "}";
+				// the scene is already a JSON object, it's sent as it is
+				update = sceneUpdate;
+				// scene deltas start again from the new model
+				GeppettoServletController.getInstance().resetScene(_user);
 
 				break;
 			}
 			case START_SIMULATION:
 				action = OUTBOUND_MESSAGE_TYPES.SIMULATION_STARTED;
 
-				sceneUpdate=sceneUpdate.substring(1, sceneUpdate.length()-1);
-				update = "{ "+sceneUpdate + "}";
+				update = sceneUpdate;
 
 				break;
 			case SCENE_UPDATE:
 			{	
 				action = OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE;
 
-				sceneUpdate=sceneUpdate.substring(1, sceneUpdate.length()-1);
-				update = "{ "+sceneUpdate + "}";
+				update = sceneUpdate;
 
 				break;
 			}
 			case SIMULATION_OVER:
 				action = OUTBOUND_MESSAGE_TYPES.SIMULATION_OVER;
+				// the last values of the watched variables go before the end of the simulation
+				GeppettoServletController.getInstance().flushWatchData(_user);
 				break;
 			default:
 			{
@@ -111,9 +109,28 @@ public class MultiuserSimulationCallback implements ISimulationCallbackListener
 
 		// Notify all connected clients about update either to load model or
 		// update current one.
-		GeppettoServletController.getInstance().messageClient(requestID, _user, action, update);
+		if(action == OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE)
+		{
+			GeppettoServletController.getInstance().sendSceneUpdate(requestID, Collections.singleton(_user), update);
+		}
+		else if(action == OUTBOUND_MESSAGE_TYPES.LOAD_MODEL)
+		{
+			GeppettoServletController.getInstance().sendModel(requestID, Collections.singleton(_user), update, _user.getLoadedSimulation());
+		}
+		else
+		{
+			GeppettoServletController.getInstance().messageClient(requestID, _user, action, update);
+		}
 
-		logger.info("Simulation Frontend Update Finished: Took:" + (System.currentTimeMillis() - start));
+		// runs for every update, only timed unless the trace is sampled
+		long elapsed = System.nanoTime() - start;
+		GeppettoServletController controller = GeppettoServletController.getInstance();
+		controller.getUpdateLatency().record(elapsed);
+		TraceSampler traceSampler = controller.getTraceSampler();
+		if(traceSampler.sample())
+		{
+			traceSampler.trace(logger, "Simulation update " + event + " handed to the clients in " + elapsed / 1000 + "us");
+		}
 	}
 
 	/*
@@ -124,21 +141,24 @@ public class MultiuserSimulationCallback implements ISimulationCallbackListener
 	@Override
 	public void error(GeppettoErrorCodes errorCode, String classSource, String errorMessage, Exception e)
 	{
-		String jsonExceptionMsg=e==null?"":e.toString();
-		String jsonErrorMsg=errorMessage==null?"":errorMessage;
-		String error = "{ \"error_code\": \"" + errorCode.toString() + "\", \"source\": \"" + classSource + "\", \"message\": \"" + jsonErrorMsg + "\", \"exception\": \"" + jsonExceptionMsg +"\"}";
+		JsonObject error = new JsonObject();
+		error.addProperty("error_code", errorCode.toString());
+		error.addProperty("source", classSource);
+		error.addProperty("message", errorMessage==null?"":errorMessage);
+		error.addProperty("exception", e==null?"":e.toString());
 		logger.error(errorMessage,e);
 		// Notify all connected clients about update either to load model or update current one.
-		GeppettoServletController.getInstance().messageClient(null, _user, OUTBOUND_MESSAGE_TYPES.ERROR, error);
+		GeppettoServletController.getInstance().messageClient(null, _user, OUTBOUND_MESSAGE_TYPES.ERROR, error.toString());
 	}
 
 	@Override
 	public void message(String message)
 	{
-		String info = "{ \"content\": \"" + message +"\"}";
+		JsonObject info = new JsonObject();
+		info.addProperty("content", message);
 		logger.info(message);
 		// Notify all connected clients about update either to load model or update current one.
-		GeppettoServletController.getInstance().messageClient(null, _user, OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, info);
+		GeppettoServletController.getInstance().messageClient(null, _user, OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, info.toString());
 	}
 
 }
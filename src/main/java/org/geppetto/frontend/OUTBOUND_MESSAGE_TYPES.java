@@ -33,7 +33,8 @@
 package org.geppetto.frontend;
 
 /*
- * Stores different types of messages that can be send to the clients
+ * Stores different types of messages that can be send to the clients.
+ * NOTE: the position of a type is its code in the binary protocol, add new types at the end
  */
 public enum OUTBOUND_MESSAGE_TYPES {
 	OBSERVER_MODE("observer_mode_alert"), 
@@ -68,7 +69,13 @@ public enum OUTBOUND_MESSAGE_TYPES {
 	CLIENT_ID("client_id"), 
 	FIRE_SIM_SCRIPTS("fire_sim_scripts"),
 	SIMULATION_OVER("simulation_over"),
-	GET_MODEL_TREE("get_model_tree");
+	GET_MODEL_TREE("get_model_tree"),
+	SCENE_DELTA("scene_delta"),
+	LOAD_MODEL_BEGIN("load_model_begin"),
+	LOAD_MODEL_CHUNK("load_model_chunk"),
+	LOAD_MODEL_END("load_model_end"),
+	SERVER_BUSY("server_busy"),
+	WATCH_DATA("watch_data");
 	
 	private OUTBOUND_MESSAGE_TYPES(final String text) {
 		this.text = text;
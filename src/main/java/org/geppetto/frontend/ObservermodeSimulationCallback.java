@@ -32,16 +32,14 @@
  *******************************************************************************/
 package org.geppetto.frontend;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geppetto.core.common.GeppettoErrorCodes;
 import org.geppetto.core.simulation.ISimulationCallbackListener;
-import org.geppetto.frontend.controllers.GeppettoMessageInbound;
 import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.geppetto.frontend.controllers.TraceSampler;
+
+import com.google.gson.JsonObject;
 
 public class ObservermodeSimulationCallback implements ISimulationCallbackListener
 {
@@ -74,11 +72,7 @@ public class ObservermodeSimulationCallback implements ISimulationCallbackListen
 	public void updateReady(SimulationEvents event, String requestID, String sceneUpdate)
 	{
 
-		long start = System.currentTimeMillis();
-		Date date = new Date(start);
-		DateFormat formatter = new SimpleDateFormat("HH:mm:ss:SSS");
-		String dateFormatted = formatter.format(date);
-		logger.info("Simulation Frontend Update Starting: " + dateFormatted);
+		long start = System.nanoTime();
 
 		OUTBOUND_MESSAGE_TYPES action = null;
 		String update = "";
@@ -98,8 +92,10 @@ public class ObservermodeSimulationCallback implements ISimulationCallbackListen
 
 				controller.getSimulationServerConfig().setLoadedScene(storedScene);
 
-				// pack sceneUpdate and variableWatchTree in the same JSON string
-				update = "{ \"entities\":" + sceneUpdate + "}";
+				// observers receive the same wrapped scene that is stored
+				update = storedScene;
+				// scene deltas start again from the new model
+				controller.resetScene(null);
 
 				break;
 			}
@@ -107,27 +103,45 @@ public class ObservermodeSimulationCallback implements ISimulationCallbackListen
 			{
 				action = OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE;
 
-				sceneUpdate=sceneUpdate.substring(1, sceneUpdate.length()-1);
-				update = "{ "+sceneUpdate + "}";
+				// the scene is already a JSON object, it's sent as it is
+				update = sceneUpdate;
 
 				break;
 			}
 			case SIMULATION_OVER:
 			{
 				action = OUTBOUND_MESSAGE_TYPES.SIMULATION_OVER;
+				// the last values of the watched variables go before the end of the simulation
+				controller.flushWatchData(null);
+				break;
 			}
 			default:
 			{
 			}
 		}
 
-		for(GeppettoMessageInbound connection : controller.getConnections())
+		// Notify all connected clients about update either to load model or update current one.
+		if(action == OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE)
+		{
+			controller.sendSceneUpdate(null, controller.getConnections(), update);
+		}
+		else if(action == OUTBOUND_MESSAGE_TYPES.LOAD_MODEL)
+		{
+			controller.sendModel(null, controller.getConnections(), update);
+		}
+		else
 		{
-			// Notify all connected clients about update either to load model or update current one.
-			controller.messageClient(null, connection, action, update);
+			controller.broadcast(null, controller.getConnections(), action, update);
 		}
 
-		logger.info("Simulation Frontend Update Finished: Took:" + (System.currentTimeMillis() - start));
+		// runs for every update, only timed unless the trace is sampled
+		long elapsed = System.nanoTime() - start;
+		controller.getUpdateLatency().record(elapsed);
+		TraceSampler traceSampler = controller.getTraceSampler();
+		if(traceSampler.sample())
+		{
+			traceSampler.trace(logger, "Simulation update " + event + " handed to the clients in " + elapsed / 1000 + "us");
+		}
 	}
 
 	/* (non-Javadoc)
@@ -136,16 +150,15 @@ public class ObservermodeSimulationCallback implements ISimulationCallbackListen
 	@Override
 	public void error(GeppettoErrorCodes errorCode, String classSource, String errorMessage, Exception e)
 	{
-		String jsonExceptionMsg=e==null?"":e.getMessage();
-		String jsonErrorMsg=errorMessage==null?"":errorMessage;
-		String error = "{ \"error_code\":" + errorCode.toString() + ", \"source\":" + classSource + ", \"message\": " + jsonErrorMsg + ", \"exception\": " + jsonExceptionMsg +"}";
+		JsonObject error = new JsonObject();
+		error.addProperty("error_code", errorCode.toString());
+		error.addProperty("source", classSource);
+		error.addProperty("message", errorMessage==null?"":errorMessage);
+		error.addProperty("exception", e==null?"":e.getMessage());
 		logger.error(errorMessage,e);
-		for(GeppettoMessageInbound connection : controller.getConnections())
-		{
-			// Notify all connected clients about update either to load model or update current one.
-			controller.messageClient(null, connection, OUTBOUND_MESSAGE_TYPES.ERROR, error);
-		}
-		
+		// Notify all connected clients about the error
+		controller.broadcast(null, controller.getConnections(), OUTBOUND_MESSAGE_TYPES.ERROR, error.toString());
+
 	}
 
 	@Override
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.io.IOException;
+
+import org.apache.catalina.websocket.WsOutbound;
+
+/**
+ * A message ready to be written to a client connection. Frames are immutable, the same frame can be queued for any number of connections and is only serialized once.
+ * 
+ */
+public abstract class OutboundFrame
+{
+
+	private final OUTBOUND_MESSAGE_TYPES _type;
+
+	/**
+	 * @param type
+	 *            - Type of message carried by the frame, null for frames that are not Geppetto messages (e.g. ping)
+	 */
+	protected OutboundFrame(OUTBOUND_MESSAGE_TYPES type)
+	{
+		this._type = type;
+	}
+
+	public OUTBOUND_MESSAGE_TYPES getType()
+	{
+		return _type;
+	}
+
+	/**
+	 * @return size of the frame, in characters for text frames and bytes for binary ones
+	 */
+	public abstract int getLength();
+
+	/**
+	 * Writes the frame to the web socket connection
+	 * 
+	 * @param outbound
+	 * @throws IOException
+	 */
+	public abstract void writeTo(WsOutbound outbound) throws IOException;
+}
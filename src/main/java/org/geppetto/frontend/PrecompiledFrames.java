@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.List;
+
+import org.geppetto.frontend.TransportMessageFactory.Parameter;
+
+import com.google.gson.Gson;
+
+/**
+ * Frames of the messages whose content doesn't depend on what they are sent for, e.g. SERVER_AVAILABLE or READ_URL_PARAMETERS. They are serialized once for every protocol when the
+ * application starts. A message without a request ID is sent as the precompiled frame itself, a message replying to a request gets a copy of the frame with the request ID
+ * spliced in.
+ * 
+ */
+public class PrecompiledFrames
+{
+
+	private static final char[] REQUEST_ID = "{\"requestID\":".toCharArray();
+
+	private final Gson _gson = new Gson();
+
+	// by protocol and type, null for the types whose content changes
+	private final OutboundFrame[][] _frames = new OutboundFrame[TRANSPORT_PROTOCOLS.values().length][];
+
+	public PrecompiledFrames()
+	{
+		for(TRANSPORT_PROTOCOLS protocol : TRANSPORT_PROTOCOLS.values())
+		{
+			OutboundFrame[] frames = new OutboundFrame[OUTBOUND_MESSAGE_TYPES.values().length];
+			for(OUTBOUND_MESSAGE_TYPES type : OUTBOUND_MESSAGE_TYPES.values())
+			{
+				if(isConstant(type))
+				{
+					frames[type.ordinal()] = compile(protocol, type);
+				}
+			}
+			_frames[protocol.ordinal()] = frames;
+		}
+	}
+
+	/**
+	 * @param type
+	 * @return true if the content of messages of the type is always the same, apart from the request ID
+	 */
+	public static boolean isConstant(OUTBOUND_MESSAGE_TYPES type)
+	{
+		List<Parameter> some = TransportMessageFactory.getParameters(type, "{}");
+		List<Parameter> other = TransportMessageFactory.getParameters(type, "[]");
+		if(some.size() != other.size())
+		{
+			return false;
+		}
+		for(int i = 0; i < some.size(); i++)
+		{
+			Parameter a = some.get(i);
+			Parameter b = other.get(i);
+			if(!a.getName().equals(b.getName()) || a.isJson() != b.isJson() || !(a.getValue() == null ? b.getValue() == null : a.getValue().equals(b.getValue())))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private OutboundFrame compile(TRANSPORT_PROTOCOLS protocol, OUTBOUND_MESSAGE_TYPES type)
+	{
+		switch(protocol)
+		{
+			case BINARY:
+				ByteBuffer message = TransportMessageFactory.getBinaryTransportMessage(null, type, null);
+				// the numeric arrays are aligned from the beginning of the message, a request ID would move them
+				if(message.getInt(message.limit() - 4) != 0)
+				{
+					return null;
+				}
+				return new BinaryOutboundFrame(type, message);
+			case JSON_V2:
+				return new TextOutboundFrame(type, TransportMessageFactory.getTransportMessageV2(null, type, null));
+			case JSON:
+			default:
+				return new TextOutboundFrame(type, _gson.toJson(TransportMessageFactory.getTransportMessage(null, type, null)));
+		}
+	}
+
+	/**
+	 * @param protocol
+	 *            - Protocol of the client
+	 * @param requestID
+	 *            - Request the message replies to, can be null
+	 * @param type
+	 *            - Type of message
+	 * @return the frame of the message, null if the content of the type isn't constant
+	 */
+	public OutboundFrame getFrame(TRANSPORT_PROTOCOLS protocol, String requestID, OUTBOUND_MESSAGE_TYPES type)
+	{
+		OutboundFrame frame = _frames[protocol.ordinal()][type.ordinal()];
+		if(frame == null || requestID == null)
+		{
+			return frame;
+		}
+		switch(protocol)
+		{
+			case BINARY:
+				return withRequestID((BinaryOutboundFrame) frame, requestID);
+			case JSON_V2:
+				StringWriter escaped = new StringWriter(requestID.length() + 2);
+				try
+				{
+					TransportMessageFactory.writeString(escaped, requestID);
+				}
+				catch(IOException e)
+				{
+					// writes to memory, it doesn't throw
+					throw new IllegalStateException(e);
+				}
+				return withRequestID((TextOutboundFrame) frame, escaped.toString());
+			case JSON:
+			default:
+				return withRequestID((TextOutboundFrame) frame, _gson.toJson(requestID));
+		}
+	}
+
+	/**
+	 * {"type":...} becomes {"requestID":"...","type":...}
+	 */
+	private static OutboundFrame withRequestID(TextOutboundFrame frame, String requestID)
+	{
+		CharBuffer template = frame.getBuffer();
+		CharBuffer message = CharBuffer.allocate(REQUEST_ID.length + requestID.length() + template.remaining());
+		message.put(REQUEST_ID);
+		message.put(requestID);
+		message.put(',');
+		template.position(template.position() + 1);
+		message.put(template);
+		message.flip();
+		return new TextOutboundFrame(frame.getType(), message);
+	}
+
+	/**
+	 * Replaces the empty request ID of the header with the given one
+	 */
+	private static OutboundFrame withRequestID(BinaryOutboundFrame frame, String requestID)
+	{
+		ByteBuffer template = frame.getBuffer();
+		byte[] requestBytes = requestID.getBytes(BinaryMessageEncoder.UTF_8);
+		ByteBuffer message = ByteBuffer.allocate(template.remaining() + requestBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+		message.put(template.get());
+		message.put(template.get());
+		message.putShort((short) requestBytes.length);
+		template.getShort();
+		message.put(requestBytes);
+		message.put(template);
+		message.flip();
+		return new BinaryOutboundFrame(frame.getType(), message);
+	}
+}
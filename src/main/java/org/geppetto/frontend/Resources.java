@@ -16,7 +16,10 @@ public enum Resources {
 						"instance of Geppetto does not support shared mode access" +
 						" - you can join the ongoing simulation as an observer "),
 	SERVER_AVAILABLE("The current operator left the control of Geppetto." +
-						" Refresh your browser to attempt to assume control (first come, first served).");
+						" Refresh your browser to attempt to assume control (first come, first served)."),
+	SERVER_BUSY("The server is busy, try again later."),
+	WAITLIST_POSITION("Simulation is full, you are number %d on the waitlist"),
+	WAITLIST_ESTIMATED_WAIT(", your turn should come in about %d minutes");
 	
 	private Resources(final String text) {
 		this.text = text;
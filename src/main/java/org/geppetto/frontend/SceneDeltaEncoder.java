@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Computes the difference between consecutive scene updates of a simulation, so that clients that already have the previous scene only receive the properties that changed.
+ * 
+ * Each scene passed to the encoder gets a version. The delta of a version only holds the properties whose value differs from the previous version: objects are compared property by property,
+ * any other value (numbers, strings, arrays) is replaced as a whole. Properties that are no longer in the scene are listed apart by their path, the names of the properties from the
+ * root of the scene, so that they can't be mistaken for properties set to null. A client applies a delta by merging it into the scene it has, then removing the listed properties.
+ * 
+ */
+public class SceneDeltaEncoder
+{
+
+	private final int _keyframeInterval;
+
+	private final JsonParser _parser = new JsonParser();
+
+	private JsonObject _scene;
+
+	private String _sceneJson;
+
+	private long _version = 0;
+
+	private long _lastKeyframe = 0;
+
+	/**
+	 * @param keyframeInterval
+	 *            - Number of versions after which the whole scene is sent to all the clients even if they are in sync, 0 to only send it when needed
+	 */
+	public SceneDeltaEncoder(int keyframeInterval)
+	{
+		this._keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Computes the next version of the scene
+	 * 
+	 * @param sceneJson
+	 *            - New scene, a JSON object
+	 * @return the delta from the previous version
+	 */
+	public synchronized SceneDelta update(String sceneJson)
+	{
+		JsonObject scene = _parser.parse(sceneJson).getAsJsonObject();
+		long baseVersion = (_scene != null) ? _version : -1;
+		_version++;
+
+		String delta = null;
+		String removed = null;
+		if(_scene != null && (_keyframeInterval <= 0 || _version - _lastKeyframe < _keyframeInterval))
+		{
+			JsonArray removedPaths = new JsonArray();
+			delta = diff(_scene, scene, new JsonArray(), removedPaths).toString();
+			if(removedPaths.size() > 0)
+			{
+				removed = removedPaths.toString();
+			}
+		}
+		else
+		{
+			_lastKeyframe = _version;
+		}
+
+		_scene = scene;
+		_sceneJson = sceneJson;
+		return new SceneDelta(_version, baseVersion, delta, removed, sceneJson);
+	}
+
+	/**
+	 * Forgets the current scene, e.g. when a new model is loaded. The next version is sent as a keyframe to all the clients.
+	 */
+	public synchronized void reset()
+	{
+		_scene = null;
+		_sceneJson = null;
+	}
+
+	/**
+	 * @return the latest version of the scene as a keyframe, null if there is none
+	 */
+	public synchronized SceneDelta getKeyframe()
+	{
+		if(_scene == null)
+		{
+			return null;
+		}
+		return new SceneDelta(_version, -1, null, null, _sceneJson);
+	}
+
+	/**
+	 * @param path
+	 *            - Names of the properties leading to the objects compared
+	 * @param removed
+	 *            - Receives the paths of the properties of previous that are not in scene
+	 * @return an object with the properties of scene that differ from the ones of previous
+	 */
+	private static JsonObject diff(JsonObject previous, JsonObject scene, JsonArray path, JsonArray removed)
+	{
+		JsonObject delta = new JsonObject();
+		for(Map.Entry<String, JsonElement> entry : scene.entrySet())
+		{
+			JsonElement previousValue = previous.get(entry.getKey());
+			JsonElement value = entry.getValue();
+			if(previousValue != null && previousValue.isJsonObject() && value.isJsonObject())
+			{
+				JsonObject childDelta = diff(previousValue.getAsJsonObject(), value.getAsJsonObject(), append(path, entry.getKey()), removed);
+				if(childDelta.entrySet().size() > 0)
+				{
+					delta.add(entry.getKey(), childDelta);
+				}
+			}
+			else if(!value.equals(previousValue))
+			{
+				delta.add(entry.getKey(), value);
+			}
+		}
+		for(Map.Entry<String, JsonElement> entry : previous.entrySet())
+		{
+			if(!scene.has(entry.getKey()))
+			{
+				removed.add(append(path, entry.getKey()));
+			}
+		}
+		return delta;
+	}
+
+	private static JsonArray append(JsonArray path, String name)
+	{
+		JsonArray childPath = new JsonArray();
+		childPath.addAll(path);
+		childPath.add(new JsonPrimitive(name));
+		return childPath;
+	}
+
+	/**
+	 * A version of the scene, as a delta from the previous version and as a whole
+	 */
+	public static class SceneDelta
+	{
+
+		private final long _version;
+
+		private final long _baseVersion;
+
+		private final String _delta;
+
+		// paths of the properties removed, null if there are none
+		private final String _removed;
+
+		private final String _keyframe;
+
+		SceneDelta(long version, long baseVersion, String delta, String removed, String keyframe)
+		{
+			this._version = version;
+			this._baseVersion = baseVersion;
+			this._delta = delta;
+			this._removed = removed;
+			this._keyframe = keyframe;
+		}
+
+		public long getVersion()
+		{
+			return _version;
+		}
+
+		/**
+		 * @return version the delta applies to, -1 if there is no delta
+		 */
+		public long getBaseVersion()
+		{
+			return _baseVersion;
+		}
+
+		/**
+		 * @return the delta message, {"version":n,"base":m,"delta":{...},"removed":[["entity","property"],...]}, null if the whole scene has to be sent. removed is only there if
+		 *         properties were removed
+		 */
+		public String getDelta()
+		{
+			if(_delta == null)
+			{
+				return null;
+			}
+			String removed = (_removed != null) ? ",\"removed\":" + _removed : "";
+			return "{\"version\":" + _version + ",\"base\":" + _baseVersion + ",\"delta\":" + _delta + removed + "}";
+		}
+
+		/**
+		 * @return the whole scene
+		 */
+		public String getKeyframe()
+		{
+			return _keyframe;
+		}
+
+		public boolean isKeyframe()
+		{
+			return _delta == null;
+		}
+	}
+}
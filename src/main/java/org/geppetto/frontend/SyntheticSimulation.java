@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.common.GeppettoInitializationException;
+import org.geppetto.core.data.model.VariableList;
+import org.geppetto.core.data.model.WatchList;
+import org.geppetto.core.simulation.ISimulation;
+import org.geppetto.core.simulation.ISimulationCallbackListener;
+import org.geppetto.core.simulation.ISimulationCallbackListener.SimulationEvents;
+import org.geppetto.frontend.controllers.GeppettoThreadFactory;
+
+/**
+ * Simulation generating its model and scenes instead of running a simulator, to load test the frontend on its own. It loads any simulation it's given and, once started, sends
+ * scene updates at a fixed rate. The size of the model and of the scenes is configured with the number of entities and the payload of each entity.
+ * 
+ * Selected with the "synthetic" Spring profile, e.g. -Dspring.profiles.active=synthetic, in place of the simulation service of the OSGi container. The bean is a prototype so that
+ * in multiuser mode the pool of the controller can create a simulation for every visitor, and reuse it once the visitor leaves.
+ * 
+ */
+public class SyntheticSimulation implements ISimulation
+{
+
+	private static Log _logger = LogFactory.getLog(SyntheticSimulation.class);
+
+	// shared by all the synthetic simulations, there is one per visitor
+	private static final ScheduledExecutorService _scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new GeppettoThreadFactory(
+			"synthetic-simulation"));
+
+	private int _updateRate = 20;
+
+	private int _entities = 100;
+
+	private int _payloadSize = 0;
+
+	private int _steps = 0;
+
+	private long _loadTime = 0;
+
+	private int _simulationCapacity = 100;
+
+	private ISimulationCallbackListener _listener;
+
+	private ScheduledFuture<?> _updates;
+
+	private int _step = 0;
+
+	private boolean _watching = false;
+
+	private List<WatchList> _watchLists = new ArrayList<WatchList>();
+
+	private String _padding = "";
+
+	@Override
+	public void init(URL simConfigURL, String requestID, ISimulationCallbackListener listener) throws GeppettoInitializationException
+	{
+		init(simConfigURL.toString(), requestID, listener);
+	}
+
+	@Override
+	public synchronized void init(String simulationConfig, String requestID, ISimulationCallbackListener listener) throws GeppettoInitializationException
+	{
+		cancelUpdates();
+		_listener = listener;
+		_step = 0;
+		_padding = padding(_payloadSize);
+		if(_loadTime > 0)
+		{
+			try
+			{
+				Thread.sleep(_loadTime);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new GeppettoInitializationException(e);
+			}
+		}
+		_logger.info("Synthetic simulation loaded with " + _entities + " entities");
+		_listener.updateReady(SimulationEvents.LOAD_MODEL, requestID, model());
+	}
+
+	@Override
+	public synchronized void start(final String requestID) throws GeppettoExecutionException
+	{
+		if(_listener == null)
+		{
+			throw new GeppettoExecutionException("Synthetic simulation started before being loaded");
+		}
+		if(_updates != null)
+		{
+			return;
+		}
+		_listener.updateReady(SimulationEvents.START_SIMULATION, requestID, scene());
+		_updates = _scheduler.scheduleAtFixedRate(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				step(requestID);
+			}
+		}, 0, Math.max(1, 1000000 / Math.max(1, _updateRate)), TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Sends the scene of the next step, or tells the simulation is over after the last one
+	 */
+	private synchronized void step(String requestID)
+	{
+		if(_updates == null)
+		{
+			// paused while the update was waiting to run
+			return;
+		}
+		if(_steps > 0 && _step >= _steps)
+		{
+			cancelUpdates();
+			_listener.updateReady(SimulationEvents.SIMULATION_OVER, requestID, null);
+			return;
+		}
+		_step++;
+		_listener.updateReady(SimulationEvents.SCENE_UPDATE, requestID, scene());
+	}
+
+	@Override
+	public synchronized void pause() throws GeppettoExecutionException
+	{
+		cancelUpdates();
+	}
+
+	@Override
+	public synchronized void stop() throws GeppettoExecutionException
+	{
+		cancelUpdates();
+		_step = 0;
+	}
+
+	private void cancelUpdates()
+	{
+		if(_updates != null)
+		{
+			_updates.cancel(false);
+			_updates = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isRunning()
+	{
+		return _updates != null;
+	}
+
+	/**
+	 * Generated variables aren't listed
+	 */
+	@Override
+	public VariableList listWatchableVariables()
+	{
+		return new VariableList();
+	}
+
+	@Override
+	public VariableList listForceableVariables()
+	{
+		return new VariableList();
+	}
+
+	@Override
+	public synchronized void addWatchLists(List<WatchList> lists) throws GeppettoExecutionException, GeppettoInitializationException
+	{
+		_watchLists.addAll(lists);
+	}
+
+	@Override
+	public synchronized void startWatch()
+	{
+		_watching = true;
+	}
+
+	@Override
+	public synchronized void stopWatch()
+	{
+		_watching = false;
+	}
+
+	@Override
+	public synchronized void clearWatchLists()
+	{
+		_watchLists.clear();
+	}
+
+	@Override
+	public synchronized List<WatchList> getWatchLists()
+	{
+		return new ArrayList<WatchList>(_watchLists);
+	}
+
+	@Override
+	public String getSimulationConfig(URL simURL) throws GeppettoInitializationException
+	{
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<simulation>\n\t<!-- synthetic simulation, " + _entities + " entities at " + _updateRate
+				+ " updates per second -->\n</simulation>\n";
+	}
+
+	@Override
+	public int getSimulationCapacity()
+	{
+		return _simulationCapacity;
+	}
+
+	@Override
+	public List<URL> getScripts()
+	{
+		return Collections.emptyList();
+	}
+
+	@Override
+	public String getModelTree(String aspectInstancePath)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"").append(aspectInstancePath).append("\":{\"ModelTree\":{");
+		for(int p = 0; p < 10; p++)
+		{
+			if(p > 0)
+			{
+				sb.append(',');
+			}
+			sb.append("\"p").append(p).append("\":{\"value\":").append(p * 0.5).append(",\"unit\":\"mS\"}");
+		}
+		sb.append("}}}");
+		return sb.toString();
+	}
+
+	/**
+	 * @return entities with their geometry
+	 */
+	private String model()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+		for(int e = 0; e < _entities; e++)
+		{
+			if(e > 0)
+			{
+				sb.append(',');
+			}
+			sb.append("\"entity").append(e).append("\":{\"id\":\"entity").append(e).append("\",\"VisualizationTree\":{\"geometry\":{\"type\":\"Cylinder\",\"position\":[");
+			sb.append(e).append(",0.5,-1.25],\"distal\":[").append(e + 1).append(",0.5,-1.25],\"radiusTop\":0.1,\"radiusBottom\":0.1}}");
+			sb.append(",\"payload\":\"").append(_padding).append("\"}");
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * @return state of the entities at the current step, and the watched variables if they are being watched
+	 */
+	private String scene()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"scene\":{\"time\":{\"value\":").append(_step * 0.05).append(",\"unit\":\"ms\"}");
+		for(int e = 0; e < _entities; e++)
+		{
+			sb.append(",\"entity").append(e).append("\":{\"id\":\"entity").append(e).append("\",\"electrical\":{\"SimulationTree\":{");
+			for(int v = 0; v < 5; v++)
+			{
+				if(v > 0)
+				{
+					sb.append(',');
+				}
+				sb.append("\"v").append(v).append("\":{\"value\":").append(value(e * 5 + v)).append(",\"unit\":\"mV\"}");
+			}
+			sb.append("}},\"payload\":\"").append(_padding).append("\"}");
+		}
+		if(_watching)
+		{
+			sb.append(",\"variables\":{");
+			int v = 0;
+			for(WatchList watchList : _watchLists)
+			{
+				for(String path : watchList.getVariablePaths())
+				{
+					if(v > 0)
+					{
+						sb.append(',');
+					}
+					sb.append('"').append(path).append("\":").append(value(v++));
+				}
+			}
+			sb.append('}');
+		}
+		sb.append("}}");
+		return sb.toString();
+	}
+
+	/**
+	 * @return membrane potential like value of a variable at the current step
+	 */
+	private String value(int variable)
+	{
+		return String.format(Locale.ENGLISH, "%.6f", -65 + 10 * Math.sin(_step * 0.1 + variable));
+	}
+
+	private static String padding(int size)
+	{
+		char[] padding = new char[size];
+		for(int i = 0; i < size; i++)
+		{
+			padding[i] = (char) ('a' + i % 26);
+		}
+		return new String(padding);
+	}
+
+	/**
+	 * @param updateRate
+	 *            - Scene updates sent per second while the simulation runs
+	 */
+	public void setUpdateRate(int updateRate)
+	{
+		this._updateRate = updateRate;
+	}
+
+	/**
+	 * @param entities
+	 *            - Number of entities in the model and the scenes
+	 */
+	public void setEntities(int entities)
+	{
+		this._entities = entities;
+	}
+
+	/**
+	 * @param payloadSize
+	 *            - Characters added to each entity of the model and the scenes, to make them larger
+	 */
+	public void setPayloadSize(int payloadSize)
+	{
+		this._payloadSize = payloadSize;
+	}
+
+	/**
+	 * @param steps
+	 *            - Scene updates after which the simulation is over, 0 to run until stopped
+	 */
+	public void setSteps(int steps)
+	{
+		this._steps = steps;
+	}
+
+	/**
+	 * @param loadTime
+	 *            - Milliseconds loading a simulation takes
+	 */
+	public void setLoadTime(long loadTime)
+	{
+		this._loadTime = loadTime;
+	}
+
+	/**
+	 * @param simulationCapacity
+	 *            - Visitors that can run a simulation at the same time in multiuser mode
+	 */
+	public void setSimulationCapacity(int simulationCapacity)
+	{
+		this._simulationCapacity = simulationCapacity;
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend;
+
+/*
+ * Formats a client can receive its messages in, negotiated when the web socket is opened using the sub protocol. Clients that don't ask for one get JSON.
+ */
+public enum TRANSPORT_PROTOCOLS {
+	JSON("geppetto-json"),
+	JSON_V2("geppetto-json-v2"),
+	BINARY("geppetto-binary");
+
+	private TRANSPORT_PROTOCOLS(final String text) {
+		this.text = text;
+	}
+
+	private final String text;
+
+	/**
+	 * @param subProtocol - web socket sub protocol requested by the client
+	 * @return protocol with the given sub protocol name, null if not supported
+	 */
+	public static TRANSPORT_PROTOCOLS fromSubProtocol(String subProtocol) {
+		for(TRANSPORT_PROTOCOLS protocol : values()) {
+			if(protocol.text.equals(subProtocol)) {
+				return protocol;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -32,8 +32,12 @@
  *******************************************************************************/
 package org.geppetto.frontend;
 
-import java.util.AbstractMap.SimpleEntry;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.google.gson.JsonObject;
@@ -61,89 +65,239 @@ public class TransportMessageFactory {
 
 		String messageType = type.toString();
 		
-		List<SimpleEntry<String, String>> params = new ArrayList<SimpleEntry<String, String>>();
+		List<Parameter> params = getParameters(type, update);
+		
+		return createTransportMessage(requestID,messageType, params);
+	}
+	
+	/**
+	 * Create message for version 2 of the JSON protocol. The envelope is the same of version 1 but data is a JSON object
+	 * instead of a string holding one, and the parameters that are JSON documents (e.g. the scene) are embedded as they
+	 * are, without being escaped as strings:
+	 * 
+	 * {"requestID":"Visitor1-3","type":"scene_update","data":{"update":{"scene":{...}}}}
+	 * 
+	 * The message is written straight into the buffer sent to the client.
+	 * 
+	 * @param type - Type of message of requested
+	 * @return read only buffer with the message, ready to be sent
+	 */
+	public static CharBuffer getTransportMessageV2(String requestID, OUTBOUND_MESSAGE_TYPES type, String update){
+		List<Parameter> params = getParameters(type, update);
+
+		int size = 64;
+		for(Parameter param : params)
+		{
+			size += param.getName().length() + ((param.getValue() != null) ? param.getValue().length() : 0) + 8;
+		}
+		MessageWriter out = new MessageWriter(size);
+		try
+		{
+			out.write("{");
+			if(requestID != null)
+			{
+				out.write("\"requestID\":");
+				writeString(out, requestID);
+				out.write(",");
+			}
+			out.write("\"type\":");
+			writeString(out, type.toString());
+			out.write(",\"data\":{");
+			for(int i = 0; i < params.size(); i++)
+			{
+				Parameter param = params.get(i);
+				if(i > 0)
+				{
+					out.write(",");
+				}
+				writeString(out, param.getName());
+				out.write(":");
+				if(param.getValue() == null)
+				{
+					out.write("null");
+				}
+				else if(param.isJson() && !param.getValue().isEmpty())
+				{
+					out.write(param.getValue());
+				}
+				else
+				{
+					writeString(out, param.getValue());
+				}
+			}
+			out.write("}}");
+		}
+		catch(IOException e)
+		{
+			// MessageWriter writes to memory, it doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return out.toCharBuffer();
+	}
+	
+	/**
+	 * Writes a JSON string, quoted and escaped
+	 */
+	static void writeString(Writer out, String value) throws IOException
+	{
+		out.write('"');
+		int last = 0;
+		int length = value.length();
+		for(int i = 0; i < length; i++)
+		{
+			char c = value.charAt(i);
+			String replacement;
+			if(c == '"')
+			{
+				replacement = "\\\"";
+			}
+			else if(c == '\\')
+			{
+				replacement = "\\\\";
+			}
+			else if(c == '\n')
+			{
+				replacement = "\\n";
+			}
+			else if(c == '\r')
+			{
+				replacement = "\\r";
+			}
+			else if(c == '\t')
+			{
+				replacement = "\\t";
+			}
+			else if(c < 0x20 || c == '\u2028' || c == '\u2029')
+			{
+				replacement = String.format("\\u%04x", (int) c);
+			}
+			else
+			{
+				continue;
+			}
+			out.write(value, last, i - last);
+			out.write(replacement);
+			last = i + 1;
+		}
+		out.write(value, last, length - last);
+		out.write('"');
+	}
+	
+	/**
+	 * Create message for the binary protocol, see {@link BinaryMessageEncoder}
+	 * 
+	 * @param type - Type of message of requested
+	 * @return encoded message, ready to be sent
+	 */
+	public static ByteBuffer getBinaryTransportMessage(String requestID, OUTBOUND_MESSAGE_TYPES type, String update){
+		return BinaryMessageEncoder.encode(requestID, type, getParameters(type, update));
+	}
+	
+	/**
+	 * Parameters carried by the message for its type
+	 * 
+	 * @param type - Type of message of requested
+	 * @return
+	 */
+	static List<Parameter> getParameters(OUTBOUND_MESSAGE_TYPES type, String update){
+
+		List<Parameter> params = new ArrayList<Parameter>();
 
 		switch(type){
 			case RELOAD_CANVAS:
 				break;	
 			case ERROR:
-				params.add(new SimpleEntry<String, String>("message", update));
+				params.add(new Parameter("message", update, true));
 				break;
 			case INFO_MESSAGE:
-				params.add(new SimpleEntry<String, String>("message", update));
+				params.add(new Parameter("message", update, true));
 				break;
 			case ERROR_LOADING_SIMULATION:
-				params.add(new SimpleEntry<String, String>("message", Resources.ERROR_LOADING_SIMULATION_MESSAGE.toString()));
+				params.add(new Parameter("message", Resources.ERROR_LOADING_SIMULATION_MESSAGE.toString()));
 				break;
 			case ERROR_ADDING_WATCH_LIST:
-				params.add(new SimpleEntry<String, String>("message", Resources.ERROR_ADDING_WATCH_MESSAGE.toString()));
+				params.add(new Parameter("message", Resources.ERROR_ADDING_WATCH_MESSAGE.toString()));
 				break;
 			case OBSERVER_MODE:
-				params.add(new SimpleEntry<String, String>("alertMessage", Resources.SIMULATION_CONTROLLED.toString()));
-				params.add(new SimpleEntry<String, String>("popoverMessage", Resources.GEPPETO_SIM_INFO.toString()));
+				params.add(new Parameter("alertMessage", Resources.SIMULATION_CONTROLLED.toString()));
+				params.add(new Parameter("popoverMessage", Resources.GEPPETO_SIM_INFO.toString()));
 				break;
 			case READ_URL_PARAMETERS:
 				break;
 			case SERVER_UNAVAILABLE:
-				params.add(new SimpleEntry<String, String>("message", Resources.SERVER_UNAVAILABLE.toString()));
+				params.add(new Parameter("message", Resources.SERVER_UNAVAILABLE.toString()));
 				break;
 			case SERVER_AVAILABLE:
-				params.add(new SimpleEntry<String, String>("message", Resources.SERVER_AVAILABLE.toString()));
+				params.add(new Parameter("message", Resources.SERVER_AVAILABLE.toString()));
 				break;
 			case SIMULATOR_FULL:
-				params.add(new SimpleEntry<String, String>("message",  (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter("message",  (update!=null) ? update : EMPTY_STRING));
 				break;
 			case SIMULATION_LOADED:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.SIMULATION_LOADED.toString(),  (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.SIMULATION_LOADED.toString(),  (update!=null) ? update : EMPTY_STRING));
 				break;
 			case SIMULATION_OVER:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.SIMULATION_OVER.toString(),  (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.SIMULATION_OVER.toString(),  (update!=null) ? update : EMPTY_STRING));
 				break;	
 			case FIRE_SIM_SCRIPTS:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.GET_SCRIPTS.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.GET_SCRIPTS.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case SIMULATION_STARTED:
-				params.add(new SimpleEntry<String, String>("update", (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter("update", (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case LOAD_MODEL:
 			case SCENE_UPDATE:
-				params.add(new SimpleEntry<String, String>("update", (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter("update", (update!=null) ? update : EMPTY_STRING, true));
+				break;
+			case SCENE_DELTA:
+				params.add(new Parameter("update", update, true));
+				break;
+			case LOAD_MODEL_BEGIN:
+			case LOAD_MODEL_CHUNK:
+			case LOAD_MODEL_END:
+				params.add(new Parameter("update", update, true));
+				break;
+			case SERVER_BUSY:
+				params.add(new Parameter("update", update, true));
+				break;
+			case WATCH_DATA:
+				params.add(new Parameter("update", update, true));
 				break;
 			case SIMULATION_CONFIGURATION:
-				params.add(new SimpleEntry<String, String>("configuration", (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter("configuration", (update!=null) ? update : EMPTY_STRING));
 				break;
 			case GEPPETTO_VERSION:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.GEPPETTO_VERSION.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.GEPPETTO_VERSION.toString(), (update!=null) ? update : EMPTY_STRING));
 				break;
 			case RUN_SCRIPT:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.RUN_SCRIPT.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.RUN_SCRIPT.toString(), (update!=null) ? update : EMPTY_STRING));
 				break;
 			case LIST_WATCH_VARS:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.LIST_WATCH_VARS.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.LIST_WATCH_VARS.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case LIST_FORCE_VARS:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.LIST_FORCE_VARS.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.LIST_FORCE_VARS.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case GET_WATCH_LISTS:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.GET_WATCH_LISTS.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.GET_WATCH_LISTS.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case START_WATCH:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.GET_WATCH_LISTS.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.GET_WATCH_LISTS.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case SET_WATCH_LISTS:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.GET_WATCH_LISTS.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.GET_WATCH_LISTS.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case GET_MODEL_TREE:
-				params.add(new SimpleEntry<String, String>(OUTBOUND_MESSAGE_TYPES.GET_MODEL_TREE.toString(), (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter(OUTBOUND_MESSAGE_TYPES.GET_MODEL_TREE.toString(), (update!=null) ? update : EMPTY_STRING, true));
 				break;
 			case CLIENT_ID:
-				params.add(new SimpleEntry<String, String>("clientID", (update!=null) ? update : EMPTY_STRING));
+				params.add(new Parameter("clientID", (update!=null) ? update : EMPTY_STRING));
 				break;
 			default:
 				break;
 		}
 		
-		return createTransportMessage(requestID,messageType, params);
+		return params;
 	}
 	
 	/**
@@ -153,14 +307,14 @@ public class TransportMessageFactory {
 	 * @param params - list of name-value pairs representing parameter names and values
 	 * @return
 	 */
-	private static GeppettoTransportMessage createTransportMessage(String requestID,String type, List<SimpleEntry<String, String>> params){
+	private static GeppettoTransportMessage createTransportMessage(String requestID,String type, List<Parameter> params){
 		GeppettoTransportMessage msg = new GeppettoTransportMessage();
 		
 		// JSON nested object stored in the data field of the transport message
 		JsonObject json = new JsonObject();
-		for(SimpleEntry<String, String> param : params)
+		for(Parameter param : params)
 		{
-			json.addProperty(param.getKey(), param.getValue());
+			json.addProperty(param.getName(), param.getValue());
 		}
 
 		msg.requestID = requestID;
@@ -170,4 +324,91 @@ public class TransportMessageFactory {
 		
 		return msg;
 	}
+	
+	/**
+	 * Writer collecting a message in a char array that is then sent as it is, without copying it to a String first
+	 */
+	private static class MessageWriter extends Writer {
+		
+		private char[] buffer;
+		
+		private int count = 0;
+		
+		MessageWriter(int capacity){
+			buffer = new char[capacity];
+		}
+		
+		private void ensureCapacity(int additional){
+			if(count + additional > buffer.length){
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + additional));
+			}
+		}
+		
+		@Override
+		public void write(int c){
+			ensureCapacity(1);
+			buffer[count++] = (char) c;
+		}
+		
+		@Override
+		public void write(char[] chars, int offset, int length){
+			ensureCapacity(length);
+			System.arraycopy(chars, offset, buffer, count, length);
+			count += length;
+		}
+		
+		@Override
+		public void write(String string, int offset, int length){
+			ensureCapacity(length);
+			string.getChars(offset, offset + length, buffer, count);
+			count += length;
+		}
+		
+		@Override
+		public void flush(){
+		}
+		
+		@Override
+		public void close(){
+		}
+		
+		CharBuffer toCharBuffer(){
+			return CharBuffer.wrap(buffer, 0, count).asReadOnlyBuffer();
+		}
+	}
+	
+	/**
+	 * Name-value pair of a message parameter. The value of JSON parameters is a JSON document, protocols able to
+	 * embed it in the message as it is don't need to escape it as a string.
+	 */
+	static class Parameter {
+		
+		private final String name;
+		
+		private final String value;
+		
+		private final boolean json;
+		
+		Parameter(String name, String value){
+			this(name, value, false);
+		}
+		
+		Parameter(String name, String value, boolean json){
+			this.name = name;
+			this.value = value;
+			this.json = json;
+		}
+		
+		String getName(){
+			return name;
+		}
+		
+		String getValue(){
+			return value;
+		}
+		
+		boolean isJson(){
+			return json;
+		}
+	}
 }
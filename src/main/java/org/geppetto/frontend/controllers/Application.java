@@ -1,11 +1,19 @@
 package org.geppetto.frontend.controllers;
 
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
 import org.geppetto.core.auth.IAuthService;
 import org.osgi.framework.BundleContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 
 @Controller
 public class Application {
@@ -34,4 +42,48 @@ public class Application {
         return "dist/geppettotests";
     }
 
+    /**
+     * Exports as CSV the values of the watched variables recorded for the
+     * whole run of a simulation, streamed from the recording one chunk at a
+     * time. Only the session that opened the connection gets its recording.
+     * 
+     * @param connection - ID of the connection running the simulation, not
+     *            needed in observer mode
+     * @param from - time of the first sample exported, the start of the run
+     *            if missing
+     * @param to - time of the last sample exported, the end of the run if
+     *            missing
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/watchdata", method = RequestMethod.GET)
+    public void exportWatchData(@RequestParam(value = "connection", required = false) String connection,
+            @RequestParam(value = "from", required = false) Double from,
+            @RequestParam(value = "to", required = false) Double to, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        if (authService != null && !authService.isAuthenticated()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        HttpSession session = request.getSession(false);
+        WatchRecorder recorder = GeppettoServletController.getInstance().getWatchRecorder(connection,
+                session != null ? session.getId() : null);
+        if (recorder == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        if (recorder.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No watched variables recorded");
+            return;
+        }
+        response.setContentType("text/csv;charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"watchdata.csv\"");
+        Writer out = response.getWriter();
+        recorder.export(from != null ? from : Double.NEGATIVE_INFINITY,
+                to != null ? to : Double.POSITIVE_INFINITY, out);
+        out.flush();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded thread pool dedicated to a class of heavy operations (e.g. loading models), so that they can't take all the threads and hold up the other messages of the clients. When
+ * all the threads are busy and the queue is full new operations are rejected rather than waiting.
+ * 
+ */
+public class Bulkhead implements BulkheadMBean
+{
+
+	private static Log _logger = LogFactory.getLog(Bulkhead.class);
+
+	// minimum delay suggested to clients, also used when there are no statistics yet
+	private static final long MIN_RETRY_AFTER = 1000;
+
+	private final String _name;
+
+	private final ThreadPoolExecutor _pool;
+
+	private final int _queueCapacity;
+
+	private final long _creationTime = System.nanoTime();
+
+	private final AtomicLong _busyNanos = new AtomicLong();
+
+	private final AtomicLong _completed = new AtomicLong();
+
+	private final AtomicLong _rejected = new AtomicLong();
+
+	/**
+	 * @param name
+	 *            - Name of the class of operations, sent to the clients when they are rejected
+	 * @param threads
+	 *            - Number of operations run at the same time
+	 * @param queueCapacity
+	 *            - Number of operations waiting for a thread
+	 */
+	public Bulkhead(String name, int threads, int queueCapacity)
+	{
+		this._name = name;
+		this._queueCapacity = queueCapacity;
+		BlockingQueue<Runnable> queue = (queueCapacity > 0) ? new ArrayBlockingQueue<Runnable>(queueCapacity) : new SynchronousQueue<Runnable>();
+		this._pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, new GeppettoThreadFactory(name));
+		this._pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs an operation on the bulkhead
+	 * 
+	 * @param operation
+	 * @throws RejectedExecutionException
+	 *             if the bulkhead is saturated
+	 */
+	public void execute(final Runnable operation)
+	{
+		try
+		{
+			_pool.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					long start = System.nanoTime();
+					try
+					{
+						operation.run();
+					}
+					catch(RuntimeException e)
+					{
+						_logger.error("Operation on bulkhead " + _name + " failed", e);
+					}
+					finally
+					{
+						_busyNanos.addAndGet(System.nanoTime() - start);
+						_completed.incrementAndGet();
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			_rejected.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return suggested delay in milliseconds before retrying a rejected operation, the time needed to run the operations waiting
+	 */
+	public long getRetryAfter()
+	{
+		long wait = (long) (getAverageDuration() * (_pool.getQueue().size() + 1) / _pool.getMaximumPoolSize());
+		return Math.max(MIN_RETRY_AFTER, wait);
+	}
+
+	public void shutdown()
+	{
+		_pool.shutdownNow();
+	}
+
+	@Override
+	public String getName()
+	{
+		return _name;
+	}
+
+	@Override
+	public int getThreads()
+	{
+		return _pool.getMaximumPoolSize();
+	}
+
+	@Override
+	public int getActiveCount()
+	{
+		return _pool.getActiveCount();
+	}
+
+	@Override
+	public int getQueueSize()
+	{
+		return _pool.getQueue().size();
+	}
+
+	@Override
+	public int getQueueCapacity()
+	{
+		return _queueCapacity;
+	}
+
+	@Override
+	public long getCompletedCount()
+	{
+		return _completed.get();
+	}
+
+	@Override
+	public long getRejectedCount()
+	{
+		return _rejected.get();
+	}
+
+	@Override
+	public double getUtilization()
+	{
+		long elapsed = System.nanoTime() - _creationTime;
+		return (double) _busyNanos.get() / ((double) elapsed * getThreads());
+	}
+
+	@Override
+	public double getAverageDuration()
+	{
+		long completed = _completed.get();
+		return (completed == 0) ? 0 : _busyNanos.get() / 1000000.0 / completed;
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+/**
+ * Exports a client connection through JMX, registered while the connection is open
+ * 
+ */
+public class ConnectionMonitor implements ConnectionMonitorMBean
+{
+
+	private final GeppettoMessageInbound _connection;
+
+	private final GeppettoServletController _controller;
+
+	public ConnectionMonitor(GeppettoMessageInbound connection, GeppettoServletController controller)
+	{
+		this._connection = connection;
+		this._controller = controller;
+	}
+
+	@Override
+	public String getConnectionID()
+	{
+		return _connection.getConnectionID();
+	}
+
+	@Override
+	public String getRunMode()
+	{
+		return String.valueOf(_connection.getCurrentRunMode());
+	}
+
+	@Override
+	public String getTransportProtocol()
+	{
+		return String.valueOf(_connection.getTransportProtocol());
+	}
+
+	@Override
+	public boolean isSceneDeltaEnabled()
+	{
+		return _connection.isSceneDeltaEnabled();
+	}
+
+	@Override
+	public long getMessagesSent()
+	{
+		return _connection.getOutboundQueue().getFramesWritten();
+	}
+
+	@Override
+	public long getBytesSent()
+	{
+		return _connection.getOutboundQueue().getBytesWritten();
+	}
+
+	@Override
+	public long getMessagesDropped()
+	{
+		return _connection.getOutboundQueue().getFramesDropped();
+	}
+
+	@Override
+	public long getMessagesConflated()
+	{
+		return _connection.getOutboundQueue().getFramesConflated();
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+		return _connection.getOutboundQueue().getDepth();
+	}
+
+	@Override
+	public double getOutboundLatencyMean()
+	{
+		return _connection.getOutboundQueue().getLatency().getMean();
+	}
+
+	@Override
+	public double getOutboundLatencyP99()
+	{
+		return _connection.getOutboundQueue().getLatency().getP99();
+	}
+
+	@Override
+	public double getOutboundLatencyMax()
+	{
+		return _connection.getOutboundQueue().getLatency().getMax();
+	}
+
+	@Override
+	public void disconnect()
+	{
+		_controller.disconnect(_connection);
+	}
+
+	@Override
+	public boolean demote()
+	{
+		return _controller.demote(_connection);
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+/**
+ * State of a client connection and of the messages sent to it, exported through JMX. Latencies are in milliseconds.
+ * 
+ */
+public interface ConnectionMonitorMBean
+{
+
+	String getConnectionID();
+
+	String getRunMode();
+
+	String getTransportProtocol();
+
+	boolean isSceneDeltaEnabled();
+
+	/**
+	 * @return number of messages written to the client
+	 */
+	long getMessagesSent();
+
+	/**
+	 * @return length of the messages written to the client, characters for text messages and bytes for binary ones
+	 */
+	long getBytesSent();
+
+	long getMessagesDropped();
+
+	long getMessagesConflated();
+
+	/**
+	 * @return number of messages waiting to be written
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return average time from a message being queued to it being written
+	 */
+	double getOutboundLatencyMean();
+
+	double getOutboundLatencyP99();
+
+	double getOutboundLatencyMax();
+
+	/**
+	 * Closes the connection, the messages waiting to be written are discarded
+	 */
+	void disconnect();
+
+	/**
+	 * Takes the control of the simulation away from the client, which keeps observing it
+	 * 
+	 * @return false if the client wasn't controlling the simulation
+	 */
+	boolean demote();
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geppetto.frontend.controllers.GeppettoMessageInbound.VisitorRunMode;
+
+/**
+ * Exports the connections of the servlet controller, the waitlist and the observers through JMX
+ * 
+ */
+public class ConnectionRegistry implements ConnectionRegistryMBean
+{
+
+	private final GeppettoServletController _controller;
+
+	public ConnectionRegistry(GeppettoServletController controller)
+	{
+		this._controller = controller;
+	}
+
+	@Override
+	public int getConnectionCount()
+	{
+		return _controller.getConnections().size();
+	}
+
+	@Override
+	public int getControllingCount()
+	{
+		return count(VisitorRunMode.CONTROLLING);
+	}
+
+	@Override
+	public int getObservingCount()
+	{
+		return count(VisitorRunMode.OBSERVING);
+	}
+
+	@Override
+	public int getWaitingCount()
+	{
+		return count(VisitorRunMode.WAITING);
+	}
+
+	private int count(VisitorRunMode mode)
+	{
+		int count = 0;
+		for(GeppettoMessageInbound connection : _controller.getConnections())
+		{
+			if(connection.getCurrentRunMode() == mode)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int getWaitlistLength()
+	{
+		return _controller.getWaitlistLength();
+	}
+
+	@Override
+	public int getObserverCount()
+	{
+		return _controller.getObserverCount();
+	}
+
+	@Override
+	public boolean isSimulationInUse()
+	{
+		return _controller.isSimulationInUse();
+	}
+
+	@Override
+	public String getControllingVisitor()
+	{
+		for(GeppettoMessageInbound connection : _controller.getConnections())
+		{
+			if(connection.getCurrentRunMode() == VisitorRunMode.CONTROLLING)
+			{
+				return connection.getConnectionID();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String[] getConnectionIDs()
+	{
+		List<String> ids = new ArrayList<String>();
+		for(GeppettoMessageInbound connection : _controller.getConnections())
+		{
+			ids.add(connection.getConnectionID());
+		}
+		return ids.toArray(new String[ids.size()]);
+	}
+
+	@Override
+	public boolean disconnect(String connectionID)
+	{
+		GeppettoMessageInbound connection = _controller.getConnection(connectionID);
+		if(connection == null)
+		{
+			return false;
+		}
+		_controller.disconnect(connection);
+		return true;
+	}
+
+	@Override
+	public boolean demote(String connectionID)
+	{
+		GeppettoMessageInbound connection = _controller.getConnection(connectionID);
+		return connection != null && _controller.demote(connection);
+	}
+}
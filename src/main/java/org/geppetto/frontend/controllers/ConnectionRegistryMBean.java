@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+/**
+ * Connections of the servlet controller, exported through JMX to size the servers
+ * 
+ */
+public interface ConnectionRegistryMBean
+{
+
+	int getConnectionCount();
+
+	int getControllingCount();
+
+	int getObservingCount();
+
+	int getWaitingCount();
+
+	/**
+	 * @return number of visitors waiting for the simulator to have room for them
+	 */
+	int getWaitlistLength();
+
+	/**
+	 * @return number of visitors receiving the updates of the simulation run by another visitor
+	 */
+	int getObserverCount();
+
+	boolean isSimulationInUse();
+
+	/**
+	 * @return ID of the connection of the visitor controlling the simulation, null if nobody is
+	 */
+	String getControllingVisitor();
+
+	String[] getConnectionIDs();
+
+	/**
+	 * Closes a connection, the messages waiting to be written are discarded
+	 * 
+	 * @param connectionID
+	 * @return false if there is no such connection
+	 */
+	boolean disconnect(String connectionID);
+
+	/**
+	 * Takes the control of the simulation away from a visitor, which keeps observing it
+	 * 
+	 * @param connectionID
+	 * @return false if there is no such connection or the visitor wasn't controlling the simulation
+	 */
+	boolean demote(String connectionID);
+}
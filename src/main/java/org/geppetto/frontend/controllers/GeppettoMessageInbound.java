@@ -37,19 +37,26 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.apache.catalina.websocket.Constants;
 import org.apache.catalina.websocket.MessageInbound;
 import org.apache.catalina.websocket.WsOutbound;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.geppetto.core.common.GeppettoExecutionException;
 import org.geppetto.core.common.GeppettoInitializationException;
 import org.geppetto.core.simulation.ISimulation;
 import org.geppetto.frontend.GeppettoTransportMessage;
 import org.geppetto.frontend.INBOUND_MESSAGE_TYPES;
 import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.SceneDeltaEncoder;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
 import org.geppetto.frontend.controllers.GeppettoServletController;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
-import org.springframework.web.context.support.SpringBeanAutowiringSupport;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.gson.Gson;
@@ -61,6 +68,14 @@ import com.google.gson.Gson;
 public class GeppettoMessageInbound extends MessageInbound
 {
 
+	private static Log _logger = LogFactory.getLog(GeppettoMessageInbound.class);
+
+	// Gson instances are thread safe, no need to create one per message
+	private static final Gson _gson = new Gson();
+
+	// delay suggested to a client sending messages faster than they can be handled, in milliseconds
+	private static final long INBOUND_RETRY_AFTER = 1000;
+
 	/*
 	 * Keeps track of mode visitor is in, either observing or controlling the simulation
 	 */
@@ -69,7 +84,7 @@ public class GeppettoMessageInbound extends MessageInbound
 		OBSERVING, CONTROLLING, WAITING
 	}
 
-	@Autowired
+	// leased from the pool of the controller the first time the visitor needs it
 	private ISimulation _simulationService;
 
 	private GeppettoServletController _servletController;
@@ -78,14 +93,67 @@ public class GeppettoMessageInbound extends MessageInbound
 	protected ApplicationContext applicationContext;
 
 	private VisitorRunMode currentMode = VisitorRunMode.OBSERVING;
-	private boolean _isSimulationLoaded;
+	private volatile boolean _isSimulationLoaded;
+
+	private final OutboundMessageQueue _outboundQueue;
+
+	// handles the messages of this client in order
+	private final SerialExecutor _inboundExecutor;
+
+	// versions of the scene of the simulation of the visitor sent to the client, in multiuser mode
+	private final SceneDeltaEncoder _sceneDeltaEncoder;
+
+	// values of the watched variables not sent yet, for clients receiving them as WATCH_DATA messages
+	private final WatchDataStream _watchDataStream;
+
+	// recent values of the watched variables of the simulation of the visitor, in multiuser mode
+	private final WatchHistory _watchHistory;
+
+	// values of the watched variables of the simulation of the visitor for the whole run, in multiuser mode
+	private final WatchRecorder _watchRecorder;
+
+	private TRANSPORT_PROTOCOLS _transportProtocol = TRANSPORT_PROTOCOLS.JSON;
+
+	// set while handling the messages of the client, read by the simulation callbacks and the broadcasts
+	private volatile boolean _sceneDeltaEnabled = false;
+
+	private volatile boolean _chunkedLoadEnabled = false;
+
+	private volatile boolean _watchDataEnabled = false;
+
+	// resolution in points of the plots of the client, by watch list
+	private final Map<String, Integer> _watchResolutions = new ConcurrentHashMap<String, Integer>();
+
+	// simulation being loaded by the visitor, if it comes from the cache of the controller
+	private volatile SimulationCache.Entry _loadedSimulation;
+
+	// HTTP session of the page that opened the connection, the only one the data recorded for the visitor is exported to
+	private volatile String _sessionID;
+
+	// version of the last scene queued for this client, -1 if the client needs the whole scene
+	private volatile long _sceneVersion = -1;
 
 	public GeppettoMessageInbound(String client_id)
+	{
+		this(client_id, null);
+	}
+
+	/**
+	 * @param client_id
+	 * @param outboundWriter
+	 *            - Executor writing the messages sent to this client, null to use the one shared by all the connections
+	 */
+	public GeppettoMessageInbound(String client_id, Executor outboundWriter)
 	{
 		super();
 		this._servletController = GeppettoServletController.getInstance();
 		this._client_id = client_id;
-		SpringBeanAutowiringSupport.processInjectionBasedOnCurrentContext(this);
+		this._outboundQueue = _servletController.createOutboundQueue(this, outboundWriter);
+		this._inboundExecutor = _servletController.createInboundExecutor(this);
+		this._sceneDeltaEncoder = _servletController.createSceneDeltaEncoder(this);
+		this._watchDataStream = _servletController.createWatchDataStream(this);
+		this._watchHistory = _servletController.createWatchHistory(this);
+		this._watchRecorder = _servletController.createWatchRecorder(this);
 	}
 
 	@Override
@@ -99,33 +167,74 @@ public class GeppettoMessageInbound extends MessageInbound
 	@Override
 	protected void onClose(int status)
 	{
+		_inboundExecutor.close();
+		_outboundQueue.close();
 		_servletController.removeConnection(this);
 	}
 
+	/**
+	 * The binary protocol is only used for the messages sent to the client, a client sending a binary frame is disconnected
+	 */
 	@Override
 	protected void onBinaryMessage(ByteBuffer message) throws IOException
 	{
-		throw new UnsupportedOperationException("Binary message not supported.");
+		_logger.warn("Binary message received from " + _client_id + ", disconnecting client");
+		_outboundQueue.disconnect(Constants.STATUS_UNEXPECTED_DATA_TYPE);
 	}
 
 	/**
-	 * Receives message(s) from client.
-	 * 
-	 * @throws JsonProcessingException
+	 * Receives message(s) from client. The messages are handled by the inbound workers, in the order they are received, so that the container thread is free to serve other
+	 * connections.
 	 */
 	@Override
-	protected void onTextMessage(CharBuffer message) throws JsonProcessingException
+	protected void onTextMessage(CharBuffer message)
 	{
 		String msg = message.toString();
 
 		// de-serialize JSON
-		GeppettoTransportMessage gmsg = new Gson().fromJson(msg, GeppettoTransportMessage.class);
+		final GeppettoTransportMessage gmsg = _gson.fromJson(msg, GeppettoTransportMessage.class);
+		final INBOUND_MESSAGE_TYPES type = INBOUND_MESSAGE_TYPES.valueOf(gmsg.type.toUpperCase());
 
-		String requestID = gmsg.requestID;
+		// the latency of the request is measured from here to the first reply
+		_servletController.getLatencyTracker().received(this, gmsg.requestID, type);
+
+		try
+		{
+			_inboundExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						handleMessage(type, gmsg);
+					}
+					catch(JsonProcessingException e)
+					{
+						_logger.error("Unable to process " + gmsg.type + " message from " + _client_id, e);
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			_logger.warn("Too many messages waiting for " + _client_id + ", " + gmsg.type + " message discarded");
+			_servletController.serverBusy(gmsg.requestID, this, gmsg.type, INBOUND_RETRY_AFTER);
+		}
+	}
+
+	/**
+	 * Handles a message from the client, runs on the inbound worker
+	 * 
+	 * @throws JsonProcessingException
+	 */
+	private void handleMessage(INBOUND_MESSAGE_TYPES type, GeppettoTransportMessage gmsg) throws JsonProcessingException
+	{
+		final String requestID = gmsg.requestID;
 
 		// switch on message type
 		// NOTE: each message handler knows how to interpret the GeppettoMessage data field
-		switch(INBOUND_MESSAGE_TYPES.valueOf(gmsg.type.toUpperCase()))
+		switch(type)
 		{
 			case GEPPETTO_VERSION:
 			{
@@ -134,12 +243,19 @@ public class GeppettoMessageInbound extends MessageInbound
 			}
 			case INIT_URL:
 			{
-				String urlString = gmsg.data;
+				final String urlString = gmsg.data;
 				URL url;
 				try
 				{
 					url = new URL(urlString);
-					_servletController.load(requestID, urlString, this);
+					runOn(_servletController.getLoadBulkhead(), requestID, new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							_servletController.load(requestID, urlString, GeppettoMessageInbound.this);
+						}
+					});
 				}
 				catch(MalformedURLException e)
 				{
@@ -149,20 +265,31 @@ public class GeppettoMessageInbound extends MessageInbound
 			}
 			case INIT_SIM:
 			{
-				String simulation = gmsg.data;
-				_servletController.load(requestID, simulation, this);
+				final String simulation = gmsg.data;
+				runOn(_servletController.getLoadBulkhead(), requestID, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						_servletController.load(requestID, simulation, GeppettoMessageInbound.this);
+					}
+				});
 				break;
 			}
 			case RUN_SCRIPT:
 			{
 				String urlString = gmsg.data;
-				URL url = null;
 				try
 				{
-					url = new URL(urlString);
-
-					_servletController.sendScriptData(requestID, url, this);
-
+					final URL url = new URL(urlString);
+					runOn(_servletController.getScriptBulkhead(), requestID, new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							_servletController.sendScriptData(requestID, url, GeppettoMessageInbound.this);
+						}
+					});
 				}
 				catch(MalformedURLException e)
 				{
@@ -172,8 +299,15 @@ public class GeppettoMessageInbound extends MessageInbound
 			}
 			case SIM:
 			{
-				String url = gmsg.data;
-				_servletController.getSimulationConfiguration(requestID, url, this);
+				final String url = gmsg.data;
+				runOn(_servletController.getLoadBulkhead(), requestID, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						_servletController.getSimulationConfiguration(requestID, url, GeppettoMessageInbound.this);
+					}
+				});
 				break;
 			}
 			case START:
@@ -232,7 +366,7 @@ public class GeppettoMessageInbound extends MessageInbound
 			}
 			case START_WATCH:
 			{
-				_servletController.startWatch(requestID, this);
+				_servletController.startWatch(requestID, gmsg.data, this);
 				break;
 			}
 			case STOP_WATCH:
@@ -252,9 +386,27 @@ public class GeppettoMessageInbound extends MessageInbound
 			}
 			case GET_MODEL_TREE:
 			{
-				String instancePath = gmsg.data;
-				
-				_servletController.getModelTree(requestID,instancePath,this);
+				final String instancePath = gmsg.data;
+
+				runOn(_servletController.getModelTreeBulkhead(), requestID, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						_servletController.getModelTree(requestID, instancePath, GeppettoMessageInbound.this);
+					}
+				});
+				break;
+			}
+			case CLIENT_CAPABILITIES:
+			{
+				_servletController.setClientCapabilities(requestID, gmsg.data, this);
+				break;
+			}
+			case REQUEST_KEYFRAME:
+			{
+				_servletController.sendSceneKeyframe(requestID, this);
+				break;
 			}
 			default:
 			{
@@ -263,11 +415,58 @@ public class GeppettoMessageInbound extends MessageInbound
 		}
 	}
 
+	/**
+	 * Runs an operation that can take long on its bulkhead, the client is told to retry if the bulkhead is saturated. The inbound worker is given back to the other connections, but
+	 * the next messages of the client wait for the operation to complete, e.g. START for the simulation loaded by INIT_URL.
+	 */
+	private void runOn(Bulkhead bulkhead, String requestID, final Runnable operation)
+	{
+		final Runnable done = _inboundExecutor.hold();
+		try
+		{
+			bulkhead.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						operation.run();
+					}
+					finally
+					{
+						done.run();
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			done.run();
+			_logger.warn("Bulkhead " + bulkhead.getName() + " saturated, request from " + _client_id + " rejected");
+			_servletController.serverBusy(requestID, this, bulkhead.getName(), bulkhead.getRetryAfter());
+		}
+	}
+
 	public String getConnectionID()
 	{
 		return _client_id;
 	}
 
+	public String getSessionID()
+	{
+		return _sessionID;
+	}
+
+	/**
+	 * @param sessionID
+	 *            - HTTP session of the page that opened the connection
+	 */
+	public void setSessionID(String sessionID)
+	{
+		this._sessionID = sessionID;
+	}
+
 	public VisitorRunMode getCurrentRunMode()
 	{
 		return currentMode;
@@ -278,11 +477,161 @@ public class GeppettoMessageInbound extends MessageInbound
 		currentMode = mode;
 	}
 
-	public ISimulation getSimulationService()
+	public synchronized ISimulation getSimulationService()
 	{
+		if(_simulationService == null)
+		{
+			_simulationService = _servletController.getSimulationPool().lease();
+		}
 		return this._simulationService;
 	}
 
+	/**
+	 * Gives the simulation service back to the pool, for the next visitor to use
+	 */
+	public synchronized void releaseSimulationService()
+	{
+		if(_simulationService != null)
+		{
+			_servletController.getSimulationPool().release(_simulationService);
+			_simulationService = null;
+		}
+	}
+
+	public TRANSPORT_PROTOCOLS getTransportProtocol()
+	{
+		return _transportProtocol;
+	}
+
+	/**
+	 * Format of the messages sent to this client, negotiated when the connection is opened
+	 * 
+	 * @param protocol
+	 */
+	public void setTransportProtocol(TRANSPORT_PROTOCOLS protocol)
+	{
+		this._transportProtocol = protocol;
+	}
+
+	public boolean isSceneDeltaEnabled()
+	{
+		return _sceneDeltaEnabled;
+	}
+
+	/**
+	 * Whether the client understands SCENE_DELTA messages, set by the client when it sends its capabilities
+	 * 
+	 * @param enabled
+	 */
+	public void setSceneDeltaEnabled(boolean enabled)
+	{
+		this._sceneDeltaEnabled = enabled;
+	}
+
+	public boolean isChunkedLoadEnabled()
+	{
+		return _chunkedLoadEnabled;
+	}
+
+	public boolean isWatchDataEnabled()
+	{
+		return _watchDataEnabled;
+	}
+
+	/**
+	 * Whether the client receives the values of the watched variables as WATCH_DATA messages, set by the client when it sends its capabilities
+	 * 
+	 * @param enabled
+	 */
+	public void setWatchDataEnabled(boolean enabled)
+	{
+		this._watchDataEnabled = enabled;
+	}
+
+	public WatchDataStream getWatchDataStream()
+	{
+		return _watchDataStream;
+	}
+
+	/**
+	 * @return recent values of the watched variables of the simulation of the visitor
+	 */
+	public WatchHistory getWatchHistory()
+	{
+		return _watchHistory;
+	}
+
+	/**
+	 * @return values of the watched variables of the simulation of the visitor for the whole run
+	 */
+	public WatchRecorder getWatchRecorder()
+	{
+		return _watchRecorder;
+	}
+
+	/**
+	 * @return resolution in points of the plots of the client, by watch list, for the watched variables sent as WATCH_DATA messages
+	 */
+	public Map<String, Integer> getWatchResolutions()
+	{
+		return _watchResolutions;
+	}
+
+	/**
+	 * @return the cached simulation loaded by the visitor, null if the simulation isn't cached
+	 */
+	public SimulationCache.Entry getLoadedSimulation()
+	{
+		return _loadedSimulation;
+	}
+
+	public void setLoadedSimulation(SimulationCache.Entry loadedSimulation)
+	{
+		this._loadedSimulation = loadedSimulation;
+	}
+
+	/**
+	 * Whether the client can receive the model in chunks, set by the client when it sends its capabilities
+	 * 
+	 * @param enabled
+	 */
+	public void setChunkedLoadEnabled(boolean enabled)
+	{
+		this._chunkedLoadEnabled = enabled;
+	}
+
+	public long getSceneVersion()
+	{
+		return _sceneVersion;
+	}
+
+	/**
+	 * Version of the last scene queued for this client, deltas are only sent to the client if they apply to this version
+	 * 
+	 * @param version
+	 *            - -1 to send the whole scene with the next update
+	 */
+	public void setSceneVersion(long version)
+	{
+		this._sceneVersion = version;
+	}
+
+	/**
+	 * @return versions of the scene of the simulation of the visitor
+	 */
+	public SceneDeltaEncoder getSceneDeltaEncoder()
+	{
+		return _sceneDeltaEncoder;
+	}
+
+	/**
+	 * @return messages waiting to be written to this connection
+	 */
+	public OutboundMessageQueue getOutboundQueue()
+	{
+		return _outboundQueue;
+	}
+
 	public boolean isSimulationLoaded()
 	{
 		return _isSimulationLoaded;
@@ -33,6 +33,7 @@
 
 package org.geppetto.frontend.controllers;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
@@ -40,6 +41,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.apache.catalina.websocket.StreamInbound;
 import org.apache.catalina.websocket.WebSocketServlet;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
 import org.springframework.beans.factory.annotation.Configurable;
 
 @Configurable
@@ -58,7 +60,31 @@ public class GeppettoServlet extends WebSocketServlet
 	protected StreamInbound createWebSocketInbound(String subProtocol, HttpServletRequest request)
 	{
 		String connectionID = "Visitor"+_connectionIds.incrementAndGet();
-		return new GeppettoMessageInbound(connectionID);
+		GeppettoMessageInbound inbound = new GeppettoMessageInbound(connectionID);
+		// the recorded data of the visitor is only exported to the same session
+		inbound.setSessionID(request.getSession(true).getId());
+		TRANSPORT_PROTOCOLS protocol = TRANSPORT_PROTOCOLS.fromSubProtocol(subProtocol);
+		if(protocol != null)
+		{
+			inbound.setTransportProtocol(protocol);
+		}
+		return inbound;
+	}
+
+	/**
+	 * Picks the first of the protocols requested by the client that is supported, clients not asking for any get JSON messages
+	 */
+	@Override
+	protected String selectSubProtocol(List<String> subProtocols)
+	{
+		for(String subProtocol : subProtocols)
+		{
+			if(TRANSPORT_PROTOCOLS.fromSubProtocol(subProtocol) != null)
+			{
+				return subProtocol;
+			}
+		}
+		return null;
 	}
 
 	@Override
@@ -32,29 +32,43 @@
  *******************************************************************************/
 package org.geppetto.frontend.controllers;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.catalina.websocket.Constants;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geppetto.core.common.GeppettoExecutionException;
 import org.geppetto.core.common.GeppettoInitializationException;
 import org.geppetto.core.data.model.VariableList;
 import org.geppetto.core.data.model.WatchList;
+import org.geppetto.core.simulation.ISimulation;
 import org.geppetto.core.simulation.ISimulationCallbackListener;
 import org.geppetto.frontend.*;
+import org.geppetto.frontend.SceneDeltaEncoder.SceneDelta;
 import org.geppetto.frontend.controllers.GeppettoMessageInbound.VisitorRunMode;
 import org.geppetto.frontend.controllers.SimulationServerConfig.ServerBehaviorModes;
+import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.context.support.SpringBeanAutowiringSupport;
 
@@ -63,7 +77,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 /**
  * Class that handles the Web Socket connections the servlet is receiving.
@@ -77,24 +93,214 @@ public class GeppettoServletController {
 	private static Log _logger = LogFactory
 			.getLog(GeppettoServletController.class);
 
+	// Gson instances are thread safe, no need to create one per message
+	private static final Gson _gson = new Gson();
+
 	@Autowired
 	private SimulationServerConfig _simulationServerConfig;
 
+	// creates the instances of the simulation service, null outside of a web application context
+	@Autowired(required = false)
+	private ObjectFactory<ISimulation> _simulationFactory;
+
 	private static GeppettoServletController _instance = null;
 
 	private ISimulationCallbackListener _simulationCallbackListener;
 
 	private final ConcurrentHashMap<String, GeppettoMessageInbound> _connections = new ConcurrentHashMap<String, GeppettoMessageInbound>();
 
-	private List<GeppettoMessageInbound> _queueUsers = new ArrayList<GeppettoMessageInbound>();
+	// visitors running a simulation in multiuser mode and the ones waiting for the simulator to have room
+	private final Waitlist<GeppettoMessageInbound> _waitlist = new Waitlist<GeppettoMessageInbound>();
 
-	private List<GeppettoMessageInbound> _observers = new ArrayList<GeppettoMessageInbound>();
+	// iterated by the simulation callbacks to broadcast updates while visitors join and leave
+	private List<GeppettoMessageInbound> _observers = new CopyOnWriteArrayList<GeppettoMessageInbound>();
 
 	private boolean _simulationInUse = false;
 
+	private ExecutorService _outboundWriter;
+
+	private ExecutorService _inboundWorker;
+
+	// pools for the operations that can take long, so they don't hold up the others
+	private final Bulkhead _loadBulkhead;
+
+	private final Bulkhead _modelTreeBulkhead;
+
+	private final Bulkhead _scriptBulkhead;
+
+	private final RequestLatencyTracker _latencyTracker = new RequestLatencyTracker();
+
+	// time the simulation callbacks take to hand an update to the clients
+	private final LatencyHistogram _updateLatency = new LatencyHistogram();
+
+	private final TraceSampler _traceSampler;
+
+	// instances of the simulation service reused across visitors
+	private final SimulationPool _simulationPool;
+
+	// simulations loaded from a URL, to load them again without fetching and serializing them
+	private final SimulationCache _simulationCache;
+
+	// values of the watched variables of the simulation shared in observer mode not sent yet
+	private final WatchDataStream _watchDataStream;
+
+	// recent values of the watched variables of the simulation shared in observer mode
+	private final WatchHistory _watchHistory;
+
+	// values of the watched variables of the simulation shared in observer mode, for the whole run
+	private final WatchRecorder _watchRecorder;
+
+	// scripts run by the clients
+	private final ScriptCache _scriptCache;
+
+	// messages whose content never changes, serialized once
+	private final PrecompiledFrames _precompiledFrames = new PrecompiledFrames();
+
+	// versions of the scene sent to the clients receiving deltas, of the simulation shared in observer mode
+	private final SceneDeltaEncoder _sceneDeltaEncoder;
+
 	protected GeppettoServletController() {
 		SpringBeanAutowiringSupport.processInjectionBasedOnCurrentContext(this);
 
+		// running outside of a web application context (e.g. tests), use the default configuration
+		if (_simulationServerConfig == null) {
+			_simulationServerConfig = new SimulationServerConfig();
+		}
+		_sceneDeltaEncoder = new SceneDeltaEncoder(_simulationServerConfig.getSceneKeyframeInterval());
+		_traceSampler = new TraceSampler(_simulationServerConfig.getTraceSampleRate());
+		_simulationPool = new SimulationPool(_simulationFactory);
+		_simulationCache = new SimulationCache(_simulationServerConfig.getSimulationCacheSize(),
+				_simulationServerConfig.getSimulationFetchTimeout());
+		_watchDataStream = new WatchDataStream(_simulationServerConfig.getWatchDataFlushInterval(),
+				_simulationServerConfig.getWatchDataMaxSamples());
+		_watchHistory = new WatchHistory(_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE
+				? _simulationServerConfig.getWatchHistorySize() : 0);
+		_watchRecorder = new WatchRecorder(_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE
+				? getWatchRecordingDirectory() : null, _simulationServerConfig.getWatchRecordingChunkSize());
+		_scriptCache = new ScriptCache(_simulationServerConfig.getScriptCacheSize(),
+				_simulationServerConfig.getScriptCacheMaxAge(), _simulationServerConfig.getScriptFetchTimeout());
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.MULTIUSER) {
+			_simulationPool.prewarm(_simulationServerConfig.getPrewarmedSimulations());
+		}
+
+		_loadBulkhead = new Bulkhead("load", _simulationServerConfig.getLoadThreads(),
+				_simulationServerConfig.getLoadQueueCapacity());
+		_modelTreeBulkhead = new Bulkhead("model-tree", _simulationServerConfig.getModelTreeThreads(),
+				_simulationServerConfig.getModelTreeQueueCapacity());
+		_scriptBulkhead = new Bulkhead("script", _simulationServerConfig.getScriptThreads(),
+				_simulationServerConfig.getScriptQueueCapacity());
+		for (Bulkhead bulkhead : new Bulkhead[] { _loadBulkhead, _modelTreeBulkhead, _scriptBulkhead }) {
+			registerMBean(bulkhead, "type=Bulkhead,name=" + bulkhead.getName());
+		}
+		for (INBOUND_MESSAGE_TYPES type : INBOUND_MESSAGE_TYPES.values()) {
+			registerMBean(_latencyTracker.getHistogram(type), "type=Latency,name=" + type);
+		}
+		registerMBean(new ConnectionRegistry(this), "type=Connections");
+		registerMBean(_updateLatency, "type=Latency,name=SIMULATION_UPDATE");
+		registerMBean(_traceSampler, "type=TraceSampler");
+		registerMBean(_simulationPool, "type=SimulationPool");
+		registerMBean(_simulationCache, "type=SimulationCache");
+		registerMBean(_scriptCache, "type=ScriptCache");
+	}
+
+	/**
+	 * Exports an MBean in the platform MBean server, replacing the one
+	 * registered with the same name by a previous instance of the application
+	 * 
+	 * @param mbean
+	 * @param name - key properties of the name, in the org.geppetto.frontend domain
+	 */
+	private void registerMBean(Object mbean, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("org.geppetto.frontend:" + name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(mbean, objectName);
+		} catch (JMException e) {
+			_logger.warn("Unable to register MBean " + name + " " + e.getMessage());
+		}
+	}
+
+	private void unregisterMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("org.geppetto.frontend:" + name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			_logger.warn("Unable to unregister MBean " + name + " " + e.getMessage());
+		}
+	}
+
+	private static String getMBeanName(GeppettoMessageInbound connection) {
+		return "type=Connection,name=" + ObjectName.quote(connection.getConnectionID());
+	}
+
+	/**
+	 * @return time the simulation callbacks take to hand an update to the
+	 *         clients
+	 */
+	public LatencyHistogram getUpdateLatency() {
+		return _updateLatency;
+	}
+
+	/**
+	 * @return decides which messages and updates are logged
+	 */
+	public TraceSampler getTraceSampler() {
+		return _traceSampler;
+	}
+
+	/**
+	 * @return instances of the simulation service reused across visitors
+	 */
+	public SimulationPool getSimulationPool() {
+		return _simulationPool;
+	}
+
+	/**
+	 * @return simulations loaded from a URL
+	 */
+	public SimulationCache getSimulationCache() {
+		return _simulationCache;
+	}
+
+	/**
+	 * @return scripts run by the clients
+	 */
+	public ScriptCache getScriptCache() {
+		return _scriptCache;
+	}
+
+	/**
+	 * @return latencies of the requests of the clients, by type of request
+	 */
+	public RequestLatencyTracker getLatencyTracker() {
+		return _latencyTracker;
+	}
+
+	/**
+	 * @return pool loading simulations and their configuration
+	 */
+	public Bulkhead getLoadBulkhead() {
+		return _loadBulkhead;
+	}
+
+	/**
+	 * @return pool building model trees
+	 */
+	public Bulkhead getModelTreeBulkhead() {
+		return _modelTreeBulkhead;
+	}
+
+	/**
+	 * @return pool fetching scripts
+	 */
+	public Bulkhead getScriptBulkhead() {
+		return _scriptBulkhead;
 	}
 
 	public static GeppettoServletController getInstance() {
@@ -112,6 +318,7 @@ public class GeppettoServletController {
 	 */
 	public void addConnection(GeppettoMessageInbound newVisitor) {
 		_connections.put(newVisitor.getConnectionID(), newVisitor);
+		registerMBean(new ConnectionMonitor(newVisitor, this), getMBeanName(newVisitor));
 
 		_logger.info("New connection " + newVisitor.getConnectionID());
 		
@@ -125,8 +332,10 @@ public class GeppettoServletController {
 	 *            - Connection to be removed
 	 */
 	public void removeConnection(GeppettoMessageInbound exitingVisitor) {
-		if (_connections.contains(exitingVisitor)) {
-			_connections.remove(exitingVisitor.getConnectionID());
+		// the client can be disconnected by the outbound writer and by the container at the same time
+		if (_connections.remove(exitingVisitor.getConnectionID(), exitingVisitor)) {
+			unregisterMBean(getMBeanName(exitingVisitor));
+			_latencyTracker.connectionClosed(exitingVisitor);
 			_logger.info("Removing connection " + exitingVisitor.getConnectionID());
 			// Handle operations after user closes connection
 			postClosingConnectionCheck(exitingVisitor);
@@ -141,15 +350,9 @@ public class GeppettoServletController {
 	 */
 	private void performStartUpCheck(GeppettoMessageInbound newVisitor) {
 
+		// clients that can't be reached are removed by the outbound writer
 		for(GeppettoMessageInbound client : this.getConnections()){
-			CharBuffer buffer = CharBuffer.wrap("ping");
-			try {
-				client.getWsOutbound().writeTextMessage(buffer);
-			} catch (IOException e) {
-				_logger.error("Unable to communicate with client "
-						+ e.getMessage() + ". Removing connection.");
-				this.removeConnection(client);
-			}
+			sendMessage(client, "ping");
 		}
 		
 		if (this._simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
@@ -159,19 +362,12 @@ public class GeppettoServletController {
 				simulationControlsUnavailable(newVisitor);
 			}
 		} else if (this._simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.MULTIUSER) {
-			int simulatorCapacity = newVisitor.getSimulationService().getSimulationCapacity();
+			int simulatorCapacity = _simulationPool.getCapacity();
 
-			if ((this.getConnections().size() > simulatorCapacity)
-					&& (simulatorCapacity > 1)) {
-
-				int position = (this.getConnections().size() - 
-						newVisitor.getSimulationService().getSimulationCapacity());
-				String update = "Simulation is full, you are number " + position + " on the" +
-						" waitlist";
-
-				_queueUsers.add(newVisitor);
-				messageClient(null, newVisitor,
-						OUTBOUND_MESSAGE_TYPES.SIMULATOR_FULL, update);
+			if ((simulatorCapacity > 1)
+					&& !_waitlist.join(newVisitor, simulatorCapacity)) {
+				newVisitor.setVisitorRunMode(VisitorRunMode.WAITING);
+				sendWaitlistPosition(newVisitor, _waitlist.getPosition(newVisitor));
 			} else {
 				messageClient(null, newVisitor,
 						OUTBOUND_MESSAGE_TYPES.READ_URL_PARAMETERS);
@@ -188,6 +384,91 @@ public class GeppettoServletController {
 		return Collections.unmodifiableCollection(_connections.values());
 	}
 
+	/**
+	 * @param connectionID
+	 * @return the connection with the given ID, null if it's not open
+	 */
+	public GeppettoMessageInbound getConnection(String connectionID) {
+		return _connections.get(connectionID);
+	}
+
+	/**
+	 * @return number of visitors waiting for the simulator to have room for them
+	 */
+	public int getWaitlistLength() {
+		return _waitlist.size();
+	}
+
+	/**
+	 * Tells a visitor waiting for the simulator its position in the line and
+	 * how long it should wait
+	 * 
+	 * @param visitor
+	 * @param position - position in the line, starting from 1
+	 */
+	private void sendWaitlistPosition(GeppettoMessageInbound visitor, int position) {
+		String update = String.format(Resources.WAITLIST_POSITION.toString(), position);
+		long estimatedWait = _waitlist.getEstimatedWait(position);
+		if (estimatedWait >= 0) {
+			update += String.format(Resources.WAITLIST_ESTIMATED_WAIT.toString(),
+					Math.max(1, Math.round(estimatedWait / 60000d)));
+		}
+		messageClient(null, visitor, OUTBOUND_MESSAGE_TYPES.SIMULATOR_FULL, update);
+	}
+
+	/**
+	 * Sends the visitors still waiting their new position after somebody left
+	 * the line
+	 */
+	private void sendWaitlistPositions() {
+		int position = 1;
+		for (GeppettoMessageInbound waiting : _waitlist.getWaiting()) {
+			sendWaitlistPosition(waiting, position++);
+		}
+	}
+
+	/**
+	 * @return number of visitors observing the simulation
+	 */
+	public int getObserverCount() {
+		return _observers.size();
+	}
+
+	/**
+	 * Closes the connection of a visitor, the messages waiting to be sent to
+	 * it are discarded
+	 * 
+	 * @param visitor
+	 */
+	public void disconnect(GeppettoMessageInbound visitor) {
+		_logger.info("Disconnecting " + visitor.getConnectionID());
+		visitor.getOutboundQueue().disconnect(Constants.STATUS_CLOSE_NORMAL);
+		removeConnection(visitor);
+	}
+
+	/**
+	 * Takes the control of the simulation away from a visitor, which becomes
+	 * an observer. The other visitors are told the simulation is available.
+	 * Only applies in observe mode, in multiuser mode each visitor controls
+	 * its own simulation.
+	 * 
+	 * @param visitor
+	 * @return false if the visitor wasn't controlling the simulation
+	 */
+	public boolean demote(GeppettoMessageInbound visitor) {
+		if (this._simulationServerConfig.getServerBehaviorMode() != ServerBehaviorModes.OBSERVE
+				|| visitor.getCurrentRunMode() != VisitorRunMode.CONTROLLING) {
+			return false;
+		}
+		_logger.info("Demoting " + visitor.getConnectionID() + " to observer");
+		visitor.setVisitorRunMode(VisitorRunMode.OBSERVING);
+		if (!_observers.contains(visitor)) {
+			_observers.add(visitor);
+		}
+		releaseControl(visitor);
+		return true;
+	}
+
 	/**
 	 * Attempt to load simulation
 	 * 
@@ -247,11 +528,9 @@ public class GeppettoServletController {
 			// user attempting load is already in control of simulation servlet
 			case CONTROLLING:
 				_simulationServerConfig.setIsSimulationLoaded(false);
+				_simulationServerConfig.setLoadedScene(null);
 				// Clear canvas of users connected for new model to be loaded
-				for (GeppettoMessageInbound observer : _observers) {
-					messageClient(null, observer,
-							OUTBOUND_MESSAGE_TYPES.RELOAD_CANVAS);
-				}
+				broadcast(null, _observers, OUTBOUND_MESSAGE_TYPES.RELOAD_CANVAS, null);
 				loadSimulation(requestID, simulation, visitor);
 				break;
 			case WAITING:
@@ -301,8 +580,15 @@ public class GeppettoServletController {
 		// attempt to convert simulation to URL
 		try {
 			url = new URL(simulation);
-			// simulation is URL, initialize simulation services
-			visitor.getSimulationService().init(url, requestID,_simulationCallbackListener);
+			// simulation is URL, initialize simulation services with the
+			// descriptor fetched by the cache, or revalidated if it was cached
+			SimulationCache.Entry cached = lookupSimulation(url);
+			visitor.setLoadedSimulation(cached);
+			if (cached != null) {
+				visitor.getSimulationService().init(cached.getDescriptor(), requestID,_simulationCallbackListener);
+			} else {
+				visitor.getSimulationService().init(url, requestID,_simulationCallbackListener);
+			}
 			postLoadSimulation(requestID, visitor);
 			loaded = true;
 		}
@@ -312,6 +598,7 @@ public class GeppettoServletController {
 		 */
 		catch (MalformedURLException e) {
 			try {
+				visitor.setLoadedSimulation(null);
 				visitor.getSimulationService().init(simulation, requestID,_simulationCallbackListener);
 				postLoadSimulation(requestID, visitor);
 				loaded = true;
@@ -332,6 +619,22 @@ public class GeppettoServletController {
 		return loaded;
 	}
 
+	/**
+	 * @param url - URL of the simulation descriptor
+	 * @return the cached simulation, null if the cache is disabled or the
+	 *         descriptor can't be fetched
+	 */
+	private SimulationCache.Entry lookupSimulation(URL url) {
+		try {
+			return _simulationCache.lookup(url);
+		} catch (IOException e) {
+			// the simulation reports the error when it fails to fetch the
+			// descriptor itself
+			_logger.warn("Unable to fetch simulation " + url + " " + e.getMessage());
+			return null;
+		}
+	}
+
 	public SimulationServerConfig getSimulationServerConfig() {
 		return _simulationServerConfig;
 	}
@@ -347,22 +650,33 @@ public class GeppettoServletController {
 		messageClient(requestID, visitor,
 				OUTBOUND_MESSAGE_TYPES.SIMULATION_LOADED);
 
-		JsonObject scriptsJSON = new JsonObject();
+		// the scripts of a cached simulation are only serialized once
+		SimulationCache.Entry loaded = visitor.getLoadedSimulation();
+		String scripts = loaded != null ? loaded.getScripts() : null;
+		if (scripts == null) {
+			JsonObject scriptsJSON = new JsonObject();
 
-		JsonArray scriptsArray = new JsonArray();
-		for (URL scriptURL : visitor.getSimulationService().getScripts()) {
-			JsonObject script = new JsonObject();
-			script.addProperty("script", scriptURL.toString());
+			JsonArray scriptsArray = new JsonArray();
+			List<URL> scriptURLs = visitor.getSimulationService().getScripts();
+			for (URL scriptURL : scriptURLs) {
+				JsonObject script = new JsonObject();
+				script.addProperty("script", scriptURL.toString());
+
+				scriptsArray.add(script);
+			}
+			scriptsJSON.add("scripts", scriptsArray);
 
-			scriptsArray.add(script);
+			scripts = scriptURLs.isEmpty() ? "" : scriptsJSON.toString();
+			if (loaded != null) {
+				loaded.setScripts(scripts);
+			}
 		}
-		scriptsJSON.add("scripts", scriptsArray);
 
 		// notify client if there are scripts
-		if (visitor.getSimulationService().getScripts().size() > 0) {
+		if (!scripts.isEmpty()) {
 			messageClient(requestID, visitor,
 					OUTBOUND_MESSAGE_TYPES.FIRE_SIM_SCRIPTS,
-					scriptsJSON.toString());
+					scripts);
 		}
 	}
 
@@ -383,6 +697,7 @@ public class GeppettoServletController {
 	public void pauseSimulation(String requestID,GeppettoMessageInbound controllingUser) {
 		try {
 			controllingUser.getSimulationService().pause();
+			flushWatchData(controllingUser);
 			// notify user simulation has been paused
 			messageClient(requestID, controllingUser,
 					OUTBOUND_MESSAGE_TYPES.SIMULATION_PAUSED);
@@ -397,6 +712,7 @@ public class GeppettoServletController {
 	public void stopSimulation(String requestID,GeppettoMessageInbound controllingUser) {
 		try {
 			controllingUser.getSimulationService().stop();
+			flushWatchData(controllingUser);
 			// notify user simulation has been stopped
 			messageClient(requestID, controllingUser,
 					OUTBOUND_MESSAGE_TYPES.SIMULATION_STOPPED);
@@ -417,13 +733,26 @@ public class GeppettoServletController {
 		observingVisitor.setVisitorRunMode(VisitorRunMode.OBSERVING);
 
 		if (!observingVisitor.getSimulationService().isRunning()) {
-			messageClient(requestID, observingVisitor,
-					OUTBOUND_MESSAGE_TYPES.LOAD_MODEL,
-					getSimulationServerConfig().getLoadedScene());
+			// the stored model is encoded once and shared by all the observers
+			OutboundFrame loadedScene = getSimulationServerConfig().getLoadedSceneCache()
+					.getFrame(observingVisitor.getTransportProtocol());
+			if (loadedScene != null) {
+				sendMessage(observingVisitor, loadedScene);
+			} else {
+				messageClient(requestID, observingVisitor,
+						OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, null);
+			}
 		}
 		// Notify visitor they are now in Observe Mode
 		messageClient(requestID, observingVisitor,
 				OUTBOUND_MESSAGE_TYPES.OBSERVER_MODE);
+
+		// an observer joining while variables are watched starts receiving
+		// them, beginning with their recent values
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE
+				&& _watchHistory.isRecording()) {
+			sendWatchHistory(requestID, observingVisitor);
+		}
 	}
 
 	/**
@@ -474,7 +803,7 @@ public class GeppettoServletController {
 			GeppettoInitializationException {
 		List<WatchList> lists = null;
 
-		lists = fromJSON(new TypeReference<List<WatchList>>() {}, jsonLists);
+		lists = fromJSON(new TypeReference<List<WatchList>>() {}, takeWatchResolutions(jsonLists, visitor));
 		visitor.getSimulationService().addWatchLists(lists);
 
 		// serialize watch-lists
@@ -492,6 +821,37 @@ public class GeppettoServletController {
 
 	}
 
+	/**
+	 * Takes the resolution of the plots out of the watch lists sent by a
+	 * client, e.g. [{"name":"list1","variablePaths":[...],"resolution":200}],
+	 * the simulation doesn't know about it
+	 * 
+	 * @param jsonLists - watch lists sent by the client
+	 * @param visitor - client sending the watch lists
+	 * @return the watch lists without resolutions
+	 */
+	private String takeWatchResolutions(String jsonLists, GeppettoMessageInbound visitor) {
+		JsonArray lists;
+		try {
+			lists = new JsonParser().parse(jsonLists).getAsJsonArray();
+		} catch (RuntimeException e) {
+			// not a list, the simulation reports it
+			return jsonLists;
+		}
+		boolean found = false;
+		for (JsonElement list : lists) {
+			if (list.isJsonObject() && list.getAsJsonObject().has("resolution")) {
+				JsonObject watchList = list.getAsJsonObject();
+				JsonElement resolution = watchList.remove("resolution");
+				if (watchList.has("name") && resolution.isJsonPrimitive()) {
+					visitor.getWatchResolutions().put(watchList.get("name").getAsString(), resolution.getAsInt());
+				}
+				found = true;
+			}
+		}
+		return found ? lists.toString() : jsonLists;
+	}
+
 	/**
 	 * instructs simulation to start sending watched variables value to the
 	 * client
@@ -500,10 +860,52 @@ public class GeppettoServletController {
 	 * @throws JsonProcessingException
 	 */
 	public void startWatch(String requestID, GeppettoMessageInbound visitor) throws JsonProcessingException {
+		startWatch(requestID, null, visitor);
+	}
+
+	/**
+	 * instructs simulation to start sending watched variables value to the
+	 * client, downsampled to the resolution of the plots of the client
+	 * 
+	 * @param requestID
+	 * @param parameters - resolution in points of the plots, for all the watch
+	 *            lists and by watch list, e.g.
+	 *            {"resolution":500,"resolutions":{"list1":200}}. Can be null
+	 * @throws JsonProcessingException
+	 */
+	public void startWatch(String requestID, String parameters, GeppettoMessageInbound visitor) throws JsonProcessingException {
+		int resolution = 0;
+		if (parameters != null && !parameters.trim().isEmpty()) {
+			try {
+				JsonObject resolutions = new JsonParser().parse(parameters).getAsJsonObject();
+				if (resolutions.has("resolution")) {
+					resolution = resolutions.get("resolution").getAsInt();
+				}
+				if (resolutions.has("resolutions")) {
+					for (Map.Entry<String, JsonElement> list : resolutions.getAsJsonObject("resolutions").entrySet()) {
+						visitor.getWatchResolutions().put(list.getKey(), list.getValue().getAsInt());
+					}
+				}
+			} catch (RuntimeException e) {
+				_logger.warn("Invalid watch resolutions from " + visitor.getConnectionID() + " " + parameters);
+			}
+		}
+
 		visitor.getSimulationService().startWatch();
 
 		List<WatchList> watchLists = visitor.getSimulationService().getWatchLists();
 
+		Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+		for (WatchList watchList : watchLists) {
+			Integer listResolution = visitor.getWatchResolutions().get(watchList.getName());
+			for (String path : watchList.getVariablePaths()) {
+				variables.put(path, listResolution != null ? listResolution : resolution);
+			}
+		}
+		getWatchHistory(visitor).start(variables);
+		getWatchRecorder(visitor).start(variables.keySet());
+		setWatchDataVariables(visitor, variables);
+
 		// serialize watch-lists
 		ObjectMapper mapper = new ObjectMapper();
 		String serializedLists = mapper.writer().writeValueAsString(watchLists);
@@ -511,6 +913,9 @@ public class GeppettoServletController {
 		// message the client the watch lists were started
 		messageClient(requestID, visitor, OUTBOUND_MESSAGE_TYPES.START_WATCH,
 				serializedLists);
+
+		// kept if the same variables were watched before, e.g. by a plot opened later
+		sendWatchHistory(requestID, visitor);
 	}
 
 	/**
@@ -519,6 +924,9 @@ public class GeppettoServletController {
 	 */
 	public void stopWatch(String requestID, GeppettoMessageInbound visitor) {
 		visitor.getSimulationService().stopWatch();
+		getWatchHistory(visitor).stop();
+		getWatchRecorder(visitor).stop();
+		setWatchDataVariables(visitor, Collections.<String, Integer> emptyMap());
 
 		// message the client the watch lists were stopped
 		messageClient(requestID, visitor, OUTBOUND_MESSAGE_TYPES.STOP_WATCH);
@@ -529,6 +937,10 @@ public class GeppettoServletController {
 	 */
 	public void clearWatchLists(String requestID, GeppettoMessageInbound visitor) {
 		visitor.getSimulationService().clearWatchLists();
+		visitor.getWatchResolutions().clear();
+		getWatchHistory(visitor).clear();
+		getWatchRecorder(visitor).clear();
+		setWatchDataVariables(visitor, Collections.<String, Integer> emptyMap());
 
 		// message the client the watch lists were cleared
 		messageClient(requestID, visitor, OUTBOUND_MESSAGE_TYPES.CLEAR_WATCH);
@@ -576,22 +988,21 @@ public class GeppettoServletController {
 		if (this._simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.MULTIUSER) {
 
 			// Controlling user is leaving, but simulation might still be
-			// running.
-			try {
-				// Pause running simulation upon controlling user's exit
-				exitingVisitor.getSimulationService().stop();
-			} catch (GeppettoExecutionException e) {
-				_logger.error("Unable to stop simulation for exiting user");
-			}
-
-			int simulatorCapacity = exitingVisitor.getSimulationService().getSimulationCapacity();
-
-			int connectionsSize = this.getConnections().size(); 
-			if (connectionsSize >= simulatorCapacity) {
-				GeppettoMessageInbound nextVisitorInLine = this._queueUsers.get(0);
+			// running. The pool stops it, and resets it before giving it to the
+			// next visitor unless all the visitors share the same instance.
+			exitingVisitor.releaseSimulationService();
+			exitingVisitor.getWatchRecorder().clear();
+
+			// the place of the visitor goes to the next one in line, if any
+			boolean wasWaiting = _waitlist.isWaiting(exitingVisitor);
+			GeppettoMessageInbound nextVisitorInLine = _waitlist.leave(exitingVisitor);
+			if (nextVisitorInLine != null) {
+				nextVisitorInLine.setVisitorRunMode(VisitorRunMode.OBSERVING);
 				messageClient(null, nextVisitorInLine,
 						OUTBOUND_MESSAGE_TYPES.SERVER_AVAILABLE);
-				this._queueUsers.remove(nextVisitorInLine);
+			}
+			if (wasWaiting || nextVisitorInLine != null) {
+				sendWaitlistPositions();
 			}
 		}
 
@@ -602,27 +1013,7 @@ public class GeppettoServletController {
 			 * available
 			 */
 			if (exitingVisitor.getCurrentRunMode() == GeppettoMessageInbound.VisitorRunMode.CONTROLLING) {
-
-				// Controlling user is leaving, but simulation might still be
-				// running.
-				try {
-					if (exitingVisitor.getSimulationService().isRunning()) {
-						// Pause running simulation upon controlling user's exit
-						exitingVisitor.getSimulationService().stop();
-					}
-				} catch (GeppettoExecutionException e) {
-					_logger.error("Unable to stop simulation for exiting user");
-				}
-
-				// Notify all observers
-				for (GeppettoMessageInbound visitor : _observers) {
-					// visitor.setVisitorRunMode(VisitorRunMode.DEFAULT);
-					// send message to alert client of server availability
-					messageClient(null, visitor,OUTBOUND_MESSAGE_TYPES.SERVER_AVAILABLE);
-				}
-
-				_simulationInUse = false;
-
+				releaseControl(exitingVisitor);
 			}
 
 			/*
@@ -635,12 +1026,8 @@ public class GeppettoServletController {
 					// Remove user from observers list
 					_observers.remove(exitingVisitor);
 				}
-				// User observing simulation is closing the connection
-				if (_queueUsers.contains(exitingVisitor)) {
-					// Remove user from observers list
-					_queueUsers.remove(exitingVisitor);
-				}
 			}
+			exitingVisitor.releaseSimulationService();
 		}
 	}
 
@@ -656,12 +1043,8 @@ public class GeppettoServletController {
 	 */
 	public void messageClient(String requestID,
 			GeppettoMessageInbound connection, OUTBOUND_MESSAGE_TYPES type) {
-		// get transport message to be sent to the client
-		GeppettoTransportMessage transportMsg = TransportMessageFactory.getTransportMessage(requestID, type, null);
-		String msg = new Gson().toJson(transportMsg);
-
 		// Send the message to the client
-		sendMessage(connection, msg);
+		sendMessage(requestID, connection, createFrame(connection.getTransportProtocol(), requestID, type, null));
 	}
 
 	/**
@@ -675,11 +1058,528 @@ public class GeppettoServletController {
 	public void messageClient(String requestID,
 			GeppettoMessageInbound connection, OUTBOUND_MESSAGE_TYPES type,
 			String update) {
-		// get transport message to be sent to the client
-		GeppettoTransportMessage transportMsg = TransportMessageFactory.getTransportMessage(requestID, type, update);
-		String msg = new Gson().toJson(transportMsg);
+		sendMessage(requestID, connection, createFrame(connection.getTransportProtocol(), requestID, type, update));
+	}
+
+	/**
+	 * Sends the same message to several clients. The message is serialized
+	 * once per protocol used by the recipients and the resulting frame is
+	 * shared by all of them, so the cost for the caller doesn't depend on the
+	 * number of recipients.
+	 * 
+	 * @param requestID
+	 * @param connections - clients to receive the message
+	 * @param type - type of message to be send
+	 * @param update - update to be sent, can be null
+	 */
+	public void broadcast(String requestID,
+			Collection<GeppettoMessageInbound> connections,
+			OUTBOUND_MESSAGE_TYPES type, String update) {
+		OutboundFrame[] frames = new OutboundFrame[TRANSPORT_PROTOCOLS.values().length];
+		for (GeppettoMessageInbound connection : connections) {
+			TRANSPORT_PROTOCOLS protocol = connection.getTransportProtocol();
+			if (frames[protocol.ordinal()] == null) {
+				frames[protocol.ordinal()] = createFrame(protocol, requestID, type, update);
+			}
+			sendMessage(requestID, connection, frames[protocol.ordinal()]);
+		}
+	}
+
+	/**
+	 * Sends a scene update to several clients. Clients that support scene
+	 * deltas and have the previous version of the scene only receive the
+	 * properties that changed, the others receive the whole scene.
+	 * 
+	 * @param requestID
+	 * @param connections - clients to receive the update
+	 * @param scene - the new scene, a JSON object
+	 */
+	public void sendSceneUpdate(String requestID,
+			Collection<GeppettoMessageInbound> connections, String scene) {
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			sendSceneUpdate(requestID, connections, scene, _sceneDeltaEncoder);
+			return;
+		}
+		// in multiuser mode every visitor runs a simulation of its own
+		for (GeppettoMessageInbound connection : connections) {
+			sendSceneUpdate(requestID, Collections.singleton(connection), scene,
+					connection.getSceneDeltaEncoder());
+		}
+	}
+
+	/**
+	 * Sends a scene update to clients watching the same simulation
+	 * 
+	 * @param requestID
+	 * @param connections - clients to receive the update
+	 * @param scene - the new scene, a JSON object
+	 * @param sceneDeltaEncoder - versions of the scene of the simulation
+	 */
+	private void sendSceneUpdate(String requestID,
+			Collection<GeppettoMessageInbound> connections, String scene,
+			SceneDeltaEncoder sceneDeltaEncoder) {
+		boolean deltas = false;
+		for (GeppettoMessageInbound connection : connections) {
+			deltas |= connection.isSceneDeltaEnabled();
+		}
+		if (!deltas) {
+			// nobody to compute the delta for, the next delta client starts with the whole scene
+			sceneDeltaEncoder.reset();
+			broadcast(requestID, connections, OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, scene);
+			collectWatchData(requestID, connections, scene);
+			return;
+		}
 
-		sendMessage(connection, msg);
+		// versions have to be queued in the order they are computed
+		synchronized (sceneDeltaEncoder) {
+			SceneDelta sceneDelta = sceneDeltaEncoder.update(scene);
+			OutboundFrame[] keyframes = new OutboundFrame[TRANSPORT_PROTOCOLS.values().length];
+			OutboundFrame[] deltaFrames = new OutboundFrame[TRANSPORT_PROTOCOLS.values().length];
+			for (GeppettoMessageInbound connection : connections) {
+				int protocol = connection.getTransportProtocol().ordinal();
+				OutboundFrame frame;
+				// a client still waiting for the previous scene skips to the whole new one
+				if (connection.isSceneDeltaEnabled() && !sceneDelta.isKeyframe()
+						&& connection.getSceneVersion() == sceneDelta.getBaseVersion()
+						&& !connection.getOutboundQueue().hasPendingScene()) {
+					if (deltaFrames[protocol] == null) {
+						deltaFrames[protocol] = createFrame(connection.getTransportProtocol(), requestID,
+								OUTBOUND_MESSAGE_TYPES.SCENE_DELTA, sceneDelta.getDelta());
+					}
+					frame = deltaFrames[protocol];
+				} else {
+					if (keyframes[protocol] == null) {
+						keyframes[protocol] = createFrame(connection.getTransportProtocol(), requestID,
+								OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, sceneDelta.getKeyframe());
+					}
+					frame = keyframes[protocol];
+				}
+				if (connection.isSceneDeltaEnabled()) {
+					connection.setSceneVersion(sceneDelta.getVersion());
+				}
+				sendMessage(requestID, connection, frame);
+			}
+		}
+		collectWatchData(requestID, connections, scene);
+	}
+
+	/**
+	 * Collects the values of the watched variables in a scene update, in the
+	 * history of the simulation and for the clients receiving them as
+	 * WATCH_DATA messages, sending the batches that are due. The scene is
+	 * parsed once for all of them.
+	 * 
+	 * @param requestID
+	 * @param connections - clients receiving the scene update
+	 * @param scene - the scene update
+	 */
+	private void collectWatchData(String requestID,
+			Collection<GeppettoMessageInbound> connections, String scene) {
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			// the batches are the same for everybody, they are serialized once and broadcast
+			boolean streaming = _watchDataStream.isCollecting();
+			if (!streaming && !_watchHistory.isRecording() && !_watchRecorder.isRecording()) {
+				return;
+			}
+			JsonObject parsedScene = parseWatchedScene(scene);
+			if (parsedScene == null) {
+				return;
+			}
+			_watchHistory.add(parsedScene);
+			_watchRecorder.add(parsedScene);
+			if (streaming) {
+				sendWatchData(requestID, null, _watchDataStream.add(parsedScene));
+			}
+			return;
+		}
+
+		JsonObject parsedScene = null;
+		for (GeppettoMessageInbound connection : connections) {
+			// in multiuser mode every visitor runs a simulation of its own
+			WatchHistory history = connection.getWatchHistory();
+			WatchRecorder recorder = connection.getWatchRecorder();
+			boolean recording = history.isRecording() || recorder.isRecording();
+			WatchDataStream stream = connection.getWatchDataStream();
+			boolean streaming = connection.isWatchDataEnabled() && stream.isCollecting();
+			if (!recording && !streaming) {
+				continue;
+			}
+			if (parsedScene == null) {
+				parsedScene = parseWatchedScene(scene);
+				if (parsedScene == null) {
+					return;
+				}
+			}
+			if (recording) {
+				history.add(parsedScene);
+				recorder.add(parsedScene);
+			}
+			if (streaming) {
+				for (String batch : stream.add(parsedScene)) {
+					messageClient(requestID, connection, OUTBOUND_MESSAGE_TYPES.WATCH_DATA, batch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param scene - the scene update
+	 * @return the scene to take the watched variables from, null if it can't
+	 *         be read
+	 */
+	private JsonObject parseWatchedScene(String scene) {
+		try {
+			return WatchDataStream.parseScene(scene);
+		} catch (RuntimeException e) {
+			_logger.warn("Unable to read the watched variables of a scene " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param visitor
+	 * @return recent values of the watched variables of the simulation of the
+	 *         visitor, the one shared by everybody in observer mode
+	 */
+	private WatchHistory getWatchHistory(GeppettoMessageInbound visitor) {
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			return _watchHistory;
+		}
+		return visitor.getWatchHistory();
+	}
+
+	/**
+	 * @param visitor
+	 * @return values of the watched variables of the simulation of the visitor
+	 *         for the whole run, the one shared by everybody in observer mode
+	 */
+	private WatchRecorder getWatchRecorder(GeppettoMessageInbound visitor) {
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			return _watchRecorder;
+		}
+		return visitor.getWatchRecorder();
+	}
+
+	/**
+	 * Finds the recording to export to an HTTP session. Connection IDs are
+	 * easy to guess, so the connection has to be one opened by the same
+	 * session; in observer mode any session with a connection open gets the
+	 * recording of the shared simulation.
+	 * 
+	 * @param connectionID
+	 * @param sessionID - HTTP session asking for the recording
+	 * @return values of the watched variables recorded for the whole run of
+	 *         the simulation of a connection, the one shared by everybody in
+	 *         observer mode, null if the session has no such connection open
+	 */
+	public WatchRecorder getWatchRecorder(String connectionID, String sessionID) {
+		if (sessionID == null) {
+			return null;
+		}
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			for (GeppettoMessageInbound connection : getConnections()) {
+				if (sessionID.equals(connection.getSessionID())) {
+					return _watchRecorder;
+				}
+			}
+			return null;
+		}
+		GeppettoMessageInbound connection = connectionID != null ? getConnection(connectionID) : null;
+		if (connection == null || !sessionID.equals(connection.getSessionID())) {
+			return null;
+		}
+		return connection.getWatchRecorder();
+	}
+
+	/**
+	 * @return directory the watched variables are recorded in, null to record
+	 *         none
+	 */
+	private File getWatchRecordingDirectory() {
+		String directory = _simulationServerConfig.getWatchRecordingDirectory();
+		return directory == null || directory.trim().isEmpty() ? null : new File(directory.trim());
+	}
+
+	/**
+	 * Sends the recent values of the watched variables, in a single WATCH_DATA
+	 * message, to a client that starts receiving them while the simulation
+	 * runs
+	 * 
+	 * @param requestID
+	 * @param visitor
+	 */
+	private void sendWatchHistory(String requestID, GeppettoMessageInbound visitor) {
+		if (!visitor.isWatchDataEnabled()) {
+			return;
+		}
+		String history = getWatchHistory(visitor).getHistory();
+		if (history != null) {
+			messageClient(requestID, visitor, OUTBOUND_MESSAGE_TYPES.WATCH_DATA, history);
+		}
+	}
+
+	/**
+	 * Sends the values of the watched variables collected so far, e.g. when
+	 * the simulation stops and no more scene updates will push them out
+	 * 
+	 * @param visitor - client whose simulation stopped, ignored in observer
+	 *            mode where the simulation is shared
+	 */
+	public void flushWatchData(GeppettoMessageInbound visitor) {
+		sendWatchData(null, visitor, getWatchDataStream(visitor).flush());
+	}
+
+	/**
+	 * Changes the variables collected for the clients receiving WATCH_DATA
+	 * messages, after sending what was collected for the previous ones
+	 * 
+	 * @param visitor - visitor changing what is watched
+	 * @param resolutions - resolution in points of every watched variable, 0
+	 *            to send all its samples. Empty to stop collecting
+	 */
+	private void setWatchDataVariables(GeppettoMessageInbound visitor, Map<String, Integer> resolutions) {
+		flushWatchData(visitor);
+		getWatchDataStream(visitor).setVariables(resolutions);
+	}
+
+	/**
+	 * @param visitor
+	 * @return values of the watched variables of the simulation of the visitor
+	 *         not sent yet, the ones of the simulation shared by everybody in
+	 *         observer mode
+	 */
+	private WatchDataStream getWatchDataStream(GeppettoMessageInbound visitor) {
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			return _watchDataStream;
+		}
+		return visitor.getWatchDataStream();
+	}
+
+	/**
+	 * Sends batches of watched variables to the clients receiving the scene
+	 * updates of the simulation of a visitor, all of them in observer mode,
+	 * that asked for WATCH_DATA messages. Every batch is serialized once.
+	 * 
+	 * @param requestID
+	 * @param visitor - client whose simulation the variables belong to,
+	 *            ignored in observer mode
+	 * @param batches - WATCH_DATA messages
+	 */
+	private void sendWatchData(String requestID, GeppettoMessageInbound visitor, List<String> batches) {
+		if (batches.isEmpty()) {
+			return;
+		}
+		List<GeppettoMessageInbound> recipients = new ArrayList<GeppettoMessageInbound>();
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			for (GeppettoMessageInbound connection : getConnections()) {
+				if (connection.isWatchDataEnabled()) {
+					recipients.add(connection);
+				}
+			}
+		} else if (visitor.isWatchDataEnabled()) {
+			recipients.add(visitor);
+		}
+		for (String batch : batches) {
+			broadcast(requestID, recipients, OUTBOUND_MESSAGE_TYPES.WATCH_DATA, batch);
+		}
+	}
+
+	/**
+	 * Sends a model to several clients. Clients that can receive the model in
+	 * chunks get it as a sequence of small messages, so that they can render
+	 * it as it arrives and other messages can be sent in between; the others
+	 * get a single LOAD_MODEL message.
+	 * 
+	 * @param requestID
+	 * @param connections - clients to receive the model
+	 * @param model - the model, a JSON object
+	 */
+	public void sendModel(String requestID,
+			Collection<GeppettoMessageInbound> connections, String model) {
+		sendModel(requestID, connections, model, null);
+	}
+
+	/**
+	 * Sends the model of a simulation to several clients, reusing the
+	 * messages built the last time the same model of a cached simulation was
+	 * loaded. The messages of a cached simulation are shared by all the
+	 * requests loading it, so they don't carry the request ID.
+	 * 
+	 * @param requestID
+	 * @param connections - clients to receive the model
+	 * @param model - the model, a JSON object
+	 * @param loaded - cached simulation the model comes from, null if the
+	 *            simulation isn't cached
+	 */
+	public void sendModel(String requestID,
+			Collection<GeppettoMessageInbound> connections, String model,
+			SimulationCache.Entry loaded) {
+		int chunkSize = _simulationServerConfig.getLoadModelChunkSize();
+		String modelDigest = loaded != null ? SimulationCache.digest(model) : null;
+		String frameRequestID = loaded != null ? null : requestID;
+		ModelChunks chunks = null;
+		Map<TRANSPORT_PROTOCOLS, List<OutboundFrame>> whole = new EnumMap<TRANSPORT_PROTOCOLS, List<OutboundFrame>>(TRANSPORT_PROTOCOLS.class);
+		Map<TRANSPORT_PROTOCOLS, List<OutboundFrame>> chunked = new EnumMap<TRANSPORT_PROTOCOLS, List<OutboundFrame>>(TRANSPORT_PROTOCOLS.class);
+		for (GeppettoMessageInbound connection : connections) {
+			boolean inChunks = chunkSize > 0 && connection.isChunkedLoadEnabled();
+			TRANSPORT_PROTOCOLS protocol = connection.getTransportProtocol();
+			Map<TRANSPORT_PROTOCOLS, List<OutboundFrame>> frames = inChunks ? chunked : whole;
+			List<OutboundFrame> protocolFrames = frames.get(protocol);
+			if (protocolFrames == null && loaded != null) {
+				protocolFrames = loaded.getModelFrames(modelDigest, protocol, inChunks);
+			}
+			if (protocolFrames == null) {
+				if (!inChunks) {
+					protocolFrames = Collections.singletonList(createFrame(protocol, frameRequestID, OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, model));
+				} else {
+					if (chunks == null) {
+						chunks = ModelChunks.split(model, chunkSize);
+					}
+					protocolFrames = new ArrayList<OutboundFrame>(chunks.getChunks().size() + 2);
+					protocolFrames.add(createFrame(protocol, frameRequestID, OUTBOUND_MESSAGE_TYPES.LOAD_MODEL_BEGIN, chunks.getBegin()));
+					for (String chunk : chunks.getChunks()) {
+						protocolFrames.add(createFrame(protocol, frameRequestID, OUTBOUND_MESSAGE_TYPES.LOAD_MODEL_CHUNK, chunk));
+					}
+					protocolFrames.add(createFrame(protocol, frameRequestID, OUTBOUND_MESSAGE_TYPES.LOAD_MODEL_END, chunks.getEnd()));
+				}
+				if (loaded != null) {
+					loaded.putModelFrames(modelDigest, protocol, inChunks, protocolFrames);
+				}
+			}
+			frames.put(protocol, protocolFrames);
+			for (OutboundFrame frame : protocolFrames) {
+				sendMessage(requestID, connection, frame);
+			}
+		}
+	}
+
+	/**
+	 * Sends the whole current scene to a client receiving scene deltas, e.g.
+	 * when the client lost track of the updates
+	 * 
+	 * @param requestID
+	 * @param visitor - client requesting the scene
+	 */
+	public void sendSceneKeyframe(String requestID, GeppettoMessageInbound visitor) {
+		SceneDeltaEncoder sceneDeltaEncoder = getSceneDeltaEncoder(visitor);
+		synchronized (sceneDeltaEncoder) {
+			SceneDelta keyframe = sceneDeltaEncoder.getKeyframe();
+			if (keyframe == null) {
+				// no scene yet, the client gets the whole scene with the first update
+				visitor.setSceneVersion(-1);
+				return;
+			}
+			visitor.setSceneVersion(keyframe.getVersion());
+			messageClient(requestID, visitor, OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, keyframe.getKeyframe());
+		}
+	}
+
+	/**
+	 * Forgets the scene sent to the clients, the next scene update is sent as
+	 * a whole to everybody. Called when a new model is loaded.
+	 * 
+	 * @param visitor - client whose simulation loaded the model, ignored in
+	 *            observer mode where the simulation is shared
+	 */
+	public void resetScene(GeppettoMessageInbound visitor) {
+		getSceneDeltaEncoder(visitor).reset();
+	}
+
+	/**
+	 * @param visitor
+	 * @return versions of the scene of the simulation of the visitor, the one
+	 *         shared by everybody in observer mode
+	 */
+	private SceneDeltaEncoder getSceneDeltaEncoder(GeppettoMessageInbound visitor) {
+		if (_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.OBSERVE) {
+			return _sceneDeltaEncoder;
+		}
+		return visitor.getSceneDeltaEncoder();
+	}
+
+	/**
+	 * Creates the versions of the scene of the simulation of a connection, not
+	 * used in observer mode where the simulation is shared
+	 * 
+	 * @param visitor - Connection the encoder belongs to
+	 * @return
+	 */
+	public SceneDeltaEncoder createSceneDeltaEncoder(GeppettoMessageInbound visitor) {
+		return new SceneDeltaEncoder(_simulationServerConfig.getSceneKeyframeInterval());
+	}
+
+	/**
+	 * Stores the optional features supported by a client, sent by the client
+	 * as a JSON object e.g. {"sceneDelta":true,"chunkedLoad":true}
+	 * 
+	 * @param requestID
+	 * @param capabilities - JSON object with the features supported
+	 * @param visitor - client sending its capabilities
+	 */
+	public void setClientCapabilities(String requestID, String capabilities, GeppettoMessageInbound visitor) {
+		try {
+			JsonObject features = new JsonParser().parse(capabilities).getAsJsonObject();
+			if (features.has("sceneDelta")) {
+				visitor.setSceneVersion(-1);
+				visitor.setSceneDeltaEnabled(features.get("sceneDelta").getAsBoolean());
+			}
+			if (features.has("chunkedLoad")) {
+				visitor.setChunkedLoadEnabled(features.get("chunkedLoad").getAsBoolean());
+			}
+			if (features.has("watchData")) {
+				visitor.setWatchDataEnabled(features.get("watchData").getAsBoolean());
+			}
+		} catch (RuntimeException e) {
+			_logger.warn("Invalid capabilities from " + visitor.getConnectionID() + " " + capabilities);
+		}
+	}
+
+	/**
+	 * Serializes the transport message for the given type and update
+	 * 
+	 * @param protocol - protocol used by the recipient
+	 * @param requestID
+	 * @param type - type of message to be send
+	 * @param update - update to be sent, can be null
+	 * @return
+	 */
+	public OutboundFrame createFrame(TRANSPORT_PROTOCOLS protocol,
+			String requestID, OUTBOUND_MESSAGE_TYPES type, String update) {
+		OutboundFrame precompiled = _precompiledFrames.getFrame(protocol, requestID, type);
+		if (precompiled != null) {
+			return precompiled;
+		}
+		switch (protocol) {
+		case BINARY:
+			return new BinaryOutboundFrame(type,
+					TransportMessageFactory.getBinaryTransportMessage(requestID, type, update));
+		case JSON_V2:
+			return new TextOutboundFrame(type,
+					TransportMessageFactory.getTransportMessageV2(requestID, type, update));
+		case JSON:
+		default:
+			// get transport message to be sent to the client
+			GeppettoTransportMessage transportMsg = TransportMessageFactory.getTransportMessage(requestID, type, update);
+			return new TextOutboundFrame(type, _gson.toJson(transportMsg));
+		}
+	}
+
+	/**
+	 * Tells a client the server can't process its request right now and it
+	 * should try again later
+	 * 
+	 * @param requestID
+	 * @param visitor - client sending the request
+	 * @param operation - operation that was rejected
+	 * @param retryAfter - suggested delay before retrying, in milliseconds
+	 */
+	public void serverBusy(String requestID, GeppettoMessageInbound visitor,
+			String operation, long retryAfter) {
+		JsonObject busy = new JsonObject();
+		busy.addProperty("operation", operation);
+		busy.addProperty("retryAfter", retryAfter);
+		busy.addProperty("message", Resources.SERVER_BUSY.toString());
+		messageClient(requestID, visitor, OUTBOUND_MESSAGE_TYPES.SERVER_BUSY, busy.toString());
 	}
 
 	/**
@@ -690,19 +1590,158 @@ public class GeppettoServletController {
 	 * @param msg - The message the user will be receiving
 	 */
 	public void sendMessage(GeppettoMessageInbound visitor, String msg) {
+		sendMessage(visitor, new TextOutboundFrame(null, msg));
+	}
+
+	/**
+	 * Queues a message replying to a request of a specific user
+	 * 
+	 * @param requestID - Request the message replies to, can be null
+	 * @param visitor - Connection that will be sent the message
+	 * @param frame - The message the user will be receiving
+	 */
+	public void sendMessage(String requestID, GeppettoMessageInbound visitor, OutboundFrame frame) {
+		_latencyTracker.replied(visitor, requestID);
+		sendMessage(visitor, frame);
+	}
+
+	/**
+	 * Queues a message for a specific user, the message is written to the
+	 * WebSocket connection by the outbound writer.
+	 * 
+	 * @param visitor - Connection that will be sent the message
+	 * @param frame - The message the user will be receiving
+	 */
+	public void sendMessage(GeppettoMessageInbound visitor, OutboundFrame frame) {
+		visitor.getOutboundQueue().offer(frame);
+	}
+
+	/**
+	 * Creates the queue holding the messages waiting to be written to a
+	 * connection
+	 * 
+	 * @param visitor - Connection the queue belongs to
+	 * @param writer - Executor writing the messages, null to use the thread
+	 *            pool shared by all the connections
+	 * @return
+	 */
+	public OutboundMessageQueue createOutboundQueue(GeppettoMessageInbound visitor, Executor writer) {
+		return new OutboundMessageQueue(visitor,
+				(writer != null) ? writer : getOutboundWriter(),
+				_simulationServerConfig.getOutboundQueueCapacity(),
+				_simulationServerConfig.getOutboundQueueOverflowPolicy(),
+				_traceSampler);
+	}
+
+	/**
+	 * Creates the executor handling the messages received from a connection,
+	 * in order, on the inbound worker pool shared by all the connections
+	 * 
+	 * @param visitor - Connection the executor belongs to
+	 * @return
+	 */
+	public SerialExecutor createInboundExecutor(GeppettoMessageInbound visitor) {
+		return new SerialExecutor(getInboundWorker(),
+				_simulationServerConfig.getInboundQueueCapacity());
+	}
+
+	/**
+	 * Creates the buffer of the values of the watched variables of the
+	 * simulation of a connection, not used in observer mode where the
+	 * simulation is shared
+	 * 
+	 * @param visitor - Connection the buffer belongs to
+	 * @return
+	 */
+	public WatchDataStream createWatchDataStream(GeppettoMessageInbound visitor) {
+		return new WatchDataStream(_simulationServerConfig.getWatchDataFlushInterval(),
+				_simulationServerConfig.getWatchDataMaxSamples());
+	}
+
+	/**
+	 * Creates the history of the watched variables of the simulation of a
+	 * connection, empty in observer mode where the simulation is shared
+	 * 
+	 * @param visitor - Connection the history belongs to
+	 * @return
+	 */
+	public WatchHistory createWatchHistory(GeppettoMessageInbound visitor) {
+		return new WatchHistory(_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.MULTIUSER
+				? _simulationServerConfig.getWatchHistorySize() : 0);
+	}
+
+	/**
+	 * Creates the recorder of the watched variables of the simulation of a
+	 * connection, recording nothing in observer mode where the simulation is
+	 * shared
+	 * 
+	 * @param visitor - Connection the recorder belongs to
+	 * @return
+	 */
+	public WatchRecorder createWatchRecorder(GeppettoMessageInbound visitor) {
+		return new WatchRecorder(_simulationServerConfig.getServerBehaviorMode() == ServerBehaviorModes.MULTIUSER
+				? getWatchRecordingDirectory() : null, _simulationServerConfig.getWatchRecordingChunkSize());
+	}
+
+	/**
+	 * Returns the thread pool handling the messages received from the
+	 * connections, shared by all of them.
+	 * 
+	 * @return
+	 */
+	private synchronized ExecutorService getInboundWorker() {
+		if (_inboundWorker == null) {
+			int threads = _simulationServerConfig.getInboundWorkerThreads();
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			_inboundWorker = Executors.newFixedThreadPool(threads,
+					new GeppettoThreadFactory("inbound-worker"));
+		}
+		return _inboundWorker;
+	}
+
+	/**
+	 * Returns the thread pool writing queued messages to the connections,
+	 * shared by all of them.
+	 * 
+	 * @return
+	 */
+	private synchronized ExecutorService getOutboundWriter() {
+		if (_outboundWriter == null) {
+			int threads = _simulationServerConfig.getOutboundWriterThreads();
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			_outboundWriter = Executors.newFixedThreadPool(threads,
+					new GeppettoThreadFactory("outbound-writer"));
+		}
+		return _outboundWriter;
+	}
+
+	/**
+	 * Stops the simulation of the visitor that was controlling it and tells
+	 * the observers the simulation is available
+	 * 
+	 * @param controllingVisitor
+	 */
+	private void releaseControl(GeppettoMessageInbound controllingVisitor) {
+		// Controlling user is leaving, but simulation might still be
+		// running.
 		try {
-			long startTime = System.currentTimeMillis();
-			CharBuffer buffer = CharBuffer.wrap(msg);
-			visitor.getWsOutbound().writeTextMessage(buffer);
-			String debug = ((long) System.currentTimeMillis() - startTime)
-					+ "ms were spent sending a message of " + msg.length()
-					/ 1024 + "KB to the client";
-			_logger.info(debug);
-		} catch (IOException ignore) {
-			_logger.error("Unable to communicate with client "
-					+ ignore.getMessage());
-			this.removeConnection(visitor);
+			if (controllingVisitor.getSimulationService().isRunning()) {
+				// Pause running simulation upon controlling user's exit
+				controllingVisitor.getSimulationService().stop();
+			}
+		} catch (GeppettoExecutionException e) {
+			_logger.error("Unable to stop simulation for exiting user");
 		}
+
+		// Notify all observers, send message to alert client of
+		// server availability
+		broadcast(null, _observers, OUTBOUND_MESSAGE_TYPES.SERVER_AVAILABLE, null);
+
+		_simulationInUse = false;
 	}
 
 	/**
@@ -763,15 +1802,7 @@ public class GeppettoServletController {
 	public void sendScriptData(String requestID, URL url,
 			GeppettoMessageInbound visitor) {
 		try {
-			String line = null;
-			StringBuilder sb = new StringBuilder();
-
-			BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()));
-
-			while ((line = br.readLine()) != null) {
-				sb.append(line + "\n");
-			}
-			String script = sb.toString();
+			String script = _scriptCache.get(url);
 
 			messageClient(requestID, visitor,OUTBOUND_MESSAGE_TYPES.RUN_SCRIPT, script);
 		} catch (IOException e) {
@@ -791,8 +1822,13 @@ public class GeppettoServletController {
 		return data;
 	}
 
+	/**
+	 * Drops an idle visitor as if it closed its connection
+	 * 
+	 * @param requestID
+	 * @param visitor
+	 */
 	public void disableUser(String requestID, GeppettoMessageInbound visitor) {
-		_connections.remove(visitor.getConnectionID());
-		postClosingConnectionCheck(visitor);
+		removeConnection(visitor);
 	}
 }
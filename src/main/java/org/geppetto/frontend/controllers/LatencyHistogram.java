@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies that can be recorded by any number of threads without locking. Latencies are counted in buckets of microseconds: one bucket per microsecond up to 16, then
+ * 16 buckets per power of two, so a percentile is within 1/16th of the actual latency.
+ * 
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong _count = new AtomicLong();
+
+	private final AtomicLong _total = new AtomicLong();
+
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 *            - Latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		long micros = Math.max(0, nanos / 1000);
+		_buckets.incrementAndGet(getBucket(micros));
+		_count.incrementAndGet();
+		_total.addAndGet(micros);
+		long max;
+		while(micros > (max = _max.get()) && !_max.compareAndSet(max, micros))
+		{
+			// retry, another thread recorded a latency in the meantime
+		}
+	}
+
+	private static int getBucket(long micros)
+	{
+		if(micros < SUB_BUCKETS)
+		{
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return smallest latency in microseconds counted in a bucket
+	 */
+	private static long getLowerBound(int bucket)
+	{
+		if(bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * @param percentile
+	 *            - Between 0 and 1, e.g. 0.99
+	 * @return latency in microseconds below which the given fraction of the latencies falls, 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = _buckets.get(i);
+			total += counts[i];
+		}
+		if(total == 0)
+		{
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank)
+			{
+				long upperBound = (i + 1 < BUCKETS) ? getLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+				return Math.min(upperBound, _max.get());
+			}
+		}
+		return _max.get();
+	}
+
+	@Override
+	public long getCount()
+	{
+		return _count.get();
+	}
+
+	@Override
+	public double getMean()
+	{
+		long count = _count.get();
+		return (count == 0) ? 0 : _total.get() / 1000.0 / count;
+	}
+
+	@Override
+	public double getMax()
+	{
+		return _max.get() / 1000.0;
+	}
+
+	@Override
+	public double getP50()
+	{
+		return getPercentile(0.5) / 1000.0;
+	}
+
+	@Override
+	public double getP99()
+	{
+		return getPercentile(0.99) / 1000.0;
+	}
+
+	@Override
+	public double getP999()
+	{
+		return getPercentile(0.999) / 1000.0;
+	}
+
+	@Override
+	public void reset()
+	{
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			_buckets.set(i, 0);
+		}
+		_count.set(0);
+		_total.set(0);
+		_max.set(0);
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.frontend.EncodedOutboundFrame;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.OutboundFrame;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
+import org.geppetto.frontend.TextOutboundFrame;
+
+/**
+ * The model loaded in observer mode, sent to every visitor that starts observing the simulation. The model is kept encoded, outside of the Java heap, and the LOAD_MODEL message for each
+ * protocol is serialized the first time an observer using that protocol joins, then the same frame is sent to all of them.
+ * 
+ */
+public class LoadedSceneCache
+{
+
+	private static Log _logger = LogFactory.getLog(LoadedSceneCache.class);
+
+	private EncodedOutboundFrame _scene;
+
+	private boolean _deflate;
+
+	private final OutboundFrame[] _frames = new OutboundFrame[TRANSPORT_PROTOCOLS.values().length];
+
+	/**
+	 * Replaces the loaded model
+	 * 
+	 * @param scene
+	 *            - JSON model, null if no model is loaded
+	 * @param deflate
+	 *            - true to keep the model compressed
+	 */
+	public synchronized void setScene(String scene, boolean deflate)
+	{
+		clear();
+		if(scene != null)
+		{
+			_scene = EncodedOutboundFrame.encode(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, scene), deflate);
+			_deflate = deflate;
+		}
+	}
+
+	/**
+	 * @return the loaded model, null if there is none
+	 */
+	public synchronized String getScene()
+	{
+		if(_scene == null)
+		{
+			return null;
+		}
+		try
+		{
+			return _scene.getText();
+		}
+		catch(IOException e)
+		{
+			// the model is in memory, this is not expected
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Forgets the loaded model and the messages built from it
+	 */
+	public synchronized void clear()
+	{
+		_scene = null;
+		for(int i = 0; i < _frames.length; i++)
+		{
+			_frames[i] = null;
+		}
+	}
+
+	/**
+	 * @param protocol
+	 *            - Protocol used by the client
+	 * @return the LOAD_MODEL message for the loaded model, null if there is none
+	 */
+	public synchronized OutboundFrame getFrame(TRANSPORT_PROTOCOLS protocol)
+	{
+		if(_scene == null)
+		{
+			return null;
+		}
+		if(_frames[protocol.ordinal()] == null)
+		{
+			OutboundFrame frame = GeppettoServletController.getInstance().createFrame(protocol, null, OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, getScene());
+			EncodedOutboundFrame encoded = EncodedOutboundFrame.encode(frame, _deflate);
+			_frames[protocol.ordinal()] = encoded;
+			_logger.info("Loaded model for " + protocol + " clients encoded, " + encoded.getLength() / 1024 + "KB stored in " + encoded.getEncodedLength() / 1024 + "KB");
+		}
+		return _frames[protocol.ordinal()];
+	}
+}
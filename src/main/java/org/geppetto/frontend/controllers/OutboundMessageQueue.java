@@ -0,0 +1,596 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.websocket.Constants;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.OutboundFrame;
+
+/**
+ * Bounded queue of messages waiting to be written to a single client connection. Threads producing messages (simulation callbacks, container threads) only enqueue, the frames are
+ * written to the web socket by the shared outbound writer so that a slow client can't stall the producer or the other clients.
+ * 
+ */
+public class OutboundMessageQueue implements Runnable
+{
+
+	/*
+	 * What to do when a message is added to a queue that is already full
+	 */
+	public enum OverflowPolicy
+	{
+		/*
+		 * Discard the oldest message that can be dropped, a scene or a batch of watched values whatever the type of the new message. Other messages are never discarded, if there are
+		 * none that can be dropped the client is disconnected
+		 */
+		DROP_OLDEST,
+		/*
+		 * Discard the oldest message of the same type of the new one, a newer scene or batch of watched values replaces the stale one. Falls back on DROP_OLDEST if the new message
+		 * can't be dropped or there are no messages of its type
+		 */
+		CONFLATE,
+		/*
+		 * The client can't keep up, close the connection
+		 */
+		DISCONNECT
+	}
+
+	private static Log _logger = LogFactory.getLog(OutboundMessageQueue.class);
+
+	// maximum number of frames written in one go before giving the writer thread to another connection
+	private static final int MAX_FRAMES_PER_DRAIN = 16;
+
+	private final GeppettoMessageInbound _connection;
+
+	private final Executor _writer;
+
+	private final int _capacity;
+
+	private final OverflowPolicy _overflowPolicy;
+
+	private final TraceSampler _traceSampler;
+
+	private final ArrayDeque<QueuedFrame> _frames = new ArrayDeque<QueuedFrame>();
+
+	// chunks of a model being streamed and the scenes that depend on it. Written after the other messages so those can go out between chunks, not bounded by the capacity
+	private final ArrayDeque<QueuedFrame> _bulk = new ArrayDeque<QueuedFrame>();
+
+	// true when a drain of this queue is scheduled or running on the writer, guarded by this
+	private boolean _draining = false;
+
+	private boolean _closed = false;
+
+	// status of the close frame the drain sends after the message being written, null if the web socket stays open
+	private Integer _closeStatus = null;
+
+	private final AtomicLong _framesWritten = new AtomicLong();
+
+	private final AtomicLong _framesDropped = new AtomicLong();
+
+	private final AtomicLong _framesConflated = new AtomicLong();
+
+	private final AtomicLong _writeTimeNanos = new AtomicLong();
+
+	private final AtomicLong _bytesWritten = new AtomicLong();
+
+	// time from a message being queued to it being written
+	private final LatencyHistogram _latency = new LatencyHistogram();
+
+	/*
+	 * A frame waiting in the queue, with the time it was queued. Frames are shared by the connections a message is broadcast to, so the time is kept here
+	 */
+	private static final class QueuedFrame
+	{
+		private final OutboundFrame _frame;
+
+		private final long _queuedTime;
+
+		private QueuedFrame(OutboundFrame frame, long queuedTime)
+		{
+			this._frame = frame;
+			this._queuedTime = queuedTime;
+		}
+
+		private OUTBOUND_MESSAGE_TYPES getType()
+		{
+			return _frame.getType();
+		}
+	}
+
+	/**
+	 * @param connection
+	 *            - Connection the messages are written to
+	 * @param writer
+	 *            - Executor running the writes
+	 * @param capacity
+	 *            - Maximum number of messages waiting to be written
+	 * @param overflowPolicy
+	 *            - What to do when the queue is full
+	 */
+	public OutboundMessageQueue(GeppettoMessageInbound connection, Executor writer, int capacity, OverflowPolicy overflowPolicy)
+	{
+		this(connection, writer, capacity, overflowPolicy, new TraceSampler(0));
+	}
+
+	/**
+	 * @param connection
+	 *            - Connection the messages are written to
+	 * @param writer
+	 *            - Executor running the writes
+	 * @param capacity
+	 *            - Maximum number of messages waiting to be written
+	 * @param overflowPolicy
+	 *            - What to do when the queue is full
+	 * @param traceSampler
+	 *            - Decides which writes are logged
+	 */
+	public OutboundMessageQueue(GeppettoMessageInbound connection, Executor writer, int capacity, OverflowPolicy overflowPolicy, TraceSampler traceSampler)
+	{
+		this._connection = connection;
+		this._writer = writer;
+		this._capacity = capacity;
+		this._overflowPolicy = overflowPolicy;
+		this._traceSampler = traceSampler;
+	}
+
+	/**
+	 * Adds a message to the queue and schedules it to be written. Never blocks.
+	 * 
+	 * A newer scene replaces the scenes still waiting to be written, so a client that falls behind skips to the latest scene instead of receiving all the intermediate ones. Other
+	 * messages are only dropped by the overflow policy, when the queue is full.
+	 * 
+	 * @param frame
+	 *            - Message to be sent
+	 * @return false if the message was not queued because the connection is closed, was disconnected for being too slow or the message is a scene delta that no longer applies
+	 */
+	public boolean offer(OutboundFrame frame)
+	{
+		boolean disconnect = false;
+		boolean schedule = false;
+		synchronized(this)
+		{
+			if(_closed)
+			{
+				return false;
+			}
+			if(frame.getType() == OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE)
+			{
+				// the whole scene supersedes the scenes and deltas waiting to be written
+				removeScenes(_framesConflated);
+			}
+			else if(frame.getType() == OUTBOUND_MESSAGE_TYPES.SCENE_DELTA && _connection.getSceneVersion() < 0)
+			{
+				// a scene the delta depends on was dropped
+				_framesDropped.incrementAndGet();
+				return false;
+			}
+			ArrayDeque<QueuedFrame> lane = getLane(frame.getType());
+			if(lane == _frames && _frames.size() >= _capacity)
+			{
+				OutboundFrame stale = null;
+				switch(_overflowPolicy)
+				{
+					case CONFLATE:
+						stale = removeOldest(frame.getType());
+						if(stale == null)
+						{
+							stale = removeOldestDroppable();
+						}
+						break;
+					case DROP_OLDEST:
+						stale = removeOldestDroppable();
+						break;
+					case DISCONNECT:
+						break;
+				}
+				if(stale != null)
+				{
+					dropped(stale);
+				}
+				else
+				{
+					// only messages that can't be dropped are waiting
+					_framesDropped.addAndGet(_frames.size() + _bulk.size() + 1);
+					_frames.clear();
+					_bulk.clear();
+					_closed = true;
+					disconnect = true;
+				}
+			}
+			if(!disconnect && frame.getType() == OUTBOUND_MESSAGE_TYPES.SCENE_DELTA && _connection.getSceneVersion() < 0)
+			{
+				// dropping the stale frame made the delta useless
+				_framesDropped.incrementAndGet();
+				return false;
+			}
+			if(!disconnect)
+			{
+				lane.addLast(new QueuedFrame(frame, System.nanoTime()));
+				if(!_draining)
+				{
+					_draining = true;
+					schedule = true;
+				}
+			}
+		}
+
+		if(disconnect)
+		{
+			_logger.warn("Outbound queue of " + _connection.getConnectionID() + " is full, disconnecting client");
+			closeConnection(Constants.STATUS_POLICY_VIOLATION);
+			return false;
+		}
+		if(schedule)
+		{
+			_writer.execute(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Chunks of a model go to the bulk lane, and so do the messages that depend on the model while chunks are waiting. Everything else overtakes the chunks.
+	 */
+	private ArrayDeque<QueuedFrame> getLane(OUTBOUND_MESSAGE_TYPES type)
+	{
+		if(type == null)
+		{
+			return _frames;
+		}
+		switch(type)
+		{
+			case LOAD_MODEL_BEGIN:
+			case LOAD_MODEL_CHUNK:
+			case LOAD_MODEL_END:
+				return _bulk;
+			case LOAD_MODEL:
+			case SIMULATION_STARTED:
+			case SCENE_UPDATE:
+			case SCENE_DELTA:
+				return _bulk.isEmpty() ? _frames : _bulk;
+			default:
+				return _frames;
+		}
+	}
+
+	/**
+	 * @return true if a scene or a scene delta is waiting to be written
+	 */
+	public synchronized boolean hasPendingScene()
+	{
+		return hasScene(_frames) || hasScene(_bulk);
+	}
+
+	private static boolean hasScene(ArrayDeque<QueuedFrame> lane)
+	{
+		for(QueuedFrame frame : lane)
+		{
+			if(isScene(frame.getType()))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isScene(OUTBOUND_MESSAGE_TYPES type)
+	{
+		return type == OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE || type == OUTBOUND_MESSAGE_TYPES.SCENE_DELTA;
+	}
+
+	/**
+	 * @return true if messages of this type can be dropped when the queue is full: scenes and batches of watched values, the following ones carry newer values
+	 */
+	private static boolean isDroppable(OUTBOUND_MESSAGE_TYPES type)
+	{
+		return isScene(type) || type == OUTBOUND_MESSAGE_TYPES.WATCH_DATA;
+	}
+
+	/**
+	 * Removes the scenes and scene deltas waiting to be written
+	 * 
+	 * @param counter
+	 *            - Incremented for each frame removed
+	 */
+	private void removeScenes(AtomicLong counter)
+	{
+		removeScenes(_frames, counter);
+		removeScenes(_bulk, counter);
+	}
+
+	private static void removeScenes(ArrayDeque<QueuedFrame> lane, AtomicLong counter)
+	{
+		Iterator<QueuedFrame> iterator = lane.iterator();
+		while(iterator.hasNext())
+		{
+			if(isScene(iterator.next().getType()))
+			{
+				iterator.remove();
+				counter.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest queued frame that can be dropped, whatever its type
+	 * 
+	 * @return the frame removed, null if there are none
+	 */
+	private OutboundFrame removeOldestDroppable()
+	{
+		Iterator<QueuedFrame> iterator = _frames.iterator();
+		while(iterator.hasNext())
+		{
+			QueuedFrame queued = iterator.next();
+			if(isDroppable(queued.getType()))
+			{
+				iterator.remove();
+				return queued._frame;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the oldest queued frame of the given type, only the types that can be dropped are removed
+	 * 
+	 * @return the frame removed, null if there are no frames of that type
+	 */
+	private OutboundFrame removeOldest(OUTBOUND_MESSAGE_TYPES type)
+	{
+		if(!isDroppable(type))
+		{
+			return null;
+		}
+		Iterator<QueuedFrame> iterator = _frames.iterator();
+		while(iterator.hasNext())
+		{
+			QueuedFrame queued = iterator.next();
+			if(queued.getType() == type)
+			{
+				iterator.remove();
+				return queued._frame;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Accounts for a frame removed from the queue without being written. If a scene is dropped and the client receives scene deltas the following deltas don't apply anymore: they
+	 * are discarded too and the client gets the whole scene with the next update.
+	 */
+	private void dropped(OutboundFrame frame)
+	{
+		_framesDropped.incrementAndGet();
+		if(isScene(frame.getType()) && _connection.isSceneDeltaEnabled())
+		{
+			removeScenes(_framesDropped);
+			_connection.setSceneVersion(-1);
+		}
+	}
+
+	/**
+	 * Writes the queued frames to the client, runs on the outbound writer
+	 */
+	@Override
+	public void run()
+	{
+		for(int written = 0; written < MAX_FRAMES_PER_DRAIN; written++)
+		{
+			QueuedFrame queued;
+			Integer closeStatus = null;
+			synchronized(this)
+			{
+				queued = _frames.pollFirst();
+				if(queued == null)
+				{
+					queued = _bulk.pollFirst();
+				}
+				if(queued == null)
+				{
+					if(_closeStatus == null)
+					{
+						_draining = false;
+						return;
+					}
+					// nothing is written after the close frame, the queue is left draining so that it's never scheduled again
+					closeStatus = _closeStatus;
+					_closeStatus = null;
+				}
+			}
+			if(closeStatus != null)
+			{
+				closeWebSocket(closeStatus);
+				return;
+			}
+			OutboundFrame frame = queued._frame;
+
+			long startTime = System.nanoTime();
+			try
+			{
+				frame.writeTo(_connection.getWsOutbound());
+			}
+			catch(IOException e)
+			{
+				_logger.error("Unable to communicate with client " + e.getMessage());
+				close();
+				GeppettoServletController.getInstance().removeConnection(_connection);
+				return;
+			}
+			long endTime = System.nanoTime();
+			_writeTimeNanos.addAndGet(endTime - startTime);
+			_latency.record(endTime - queued._queuedTime);
+			_bytesWritten.addAndGet(frame.getLength());
+			_framesWritten.incrementAndGet();
+
+			if(_traceSampler.sample())
+			{
+				_traceSampler.trace(_logger, ((endTime - startTime) / 1000) + "us were spent sending a " + frame.getType() + " message of " + frame.getLength() / 1024 + "KB to "
+						+ _connection.getConnectionID() + ", " + getDepth() + " messages waiting");
+			}
+		}
+
+		// give other connections a chance to be written, the remaining frames are picked up on the next run
+		_writer.execute(this);
+	}
+
+	/**
+	 * Stops accepting messages and discards the ones waiting to be written
+	 */
+	public void close()
+	{
+		synchronized(this)
+		{
+			_closed = true;
+			_frames.clear();
+			_bulk.clear();
+		}
+	}
+
+	/**
+	 * Discards the messages waiting to be written and closes the web socket of the client. The web socket is closed by the drain, after the message being written if any, so that
+	 * the close frame is never written at the same time as another frame.
+	 * 
+	 * @param status
+	 *            - Status code sent to the client with the close frame
+	 */
+	public void disconnect(int status)
+	{
+		close();
+		closeConnection(status);
+	}
+
+	private void closeConnection(int status)
+	{
+		boolean schedule = false;
+		synchronized(this)
+		{
+			_closeStatus = status;
+			if(!_draining)
+			{
+				_draining = true;
+				schedule = true;
+			}
+		}
+		if(schedule)
+		{
+			_writer.execute(this);
+		}
+	}
+
+	/**
+	 * Sends the close frame, runs on the drain
+	 */
+	private void closeWebSocket(int status)
+	{
+		try
+		{
+			_connection.getWsOutbound().close(status, null);
+		}
+		catch(IOException e)
+		{
+			_logger.error("Unable to close connection " + _connection.getConnectionID() + " " + e.getMessage());
+		}
+		GeppettoServletController.getInstance().removeConnection(_connection);
+	}
+
+	/**
+	 * @return number of messages waiting to be written
+	 */
+	public synchronized int getDepth()
+	{
+		return _frames.size() + _bulk.size();
+	}
+
+	public int getCapacity()
+	{
+		return _capacity;
+	}
+
+	public OverflowPolicy getOverflowPolicy()
+	{
+		return _overflowPolicy;
+	}
+
+	public long getFramesWritten()
+	{
+		return _framesWritten.get();
+	}
+
+	/**
+	 * @return number of messages discarded because the queue was full
+	 */
+	public long getFramesDropped()
+	{
+		return _framesDropped.get();
+	}
+
+	/**
+	 * @return number of scenes skipped because a newer scene was queued before they were written
+	 */
+	public long getFramesConflated()
+	{
+		return _framesConflated.get();
+	}
+
+	/**
+	 * @return total time spent writing messages to the client, in nanoseconds
+	 */
+	public long getWriteTimeNanos()
+	{
+		return _writeTimeNanos.get();
+	}
+
+	/**
+	 * @return length of the messages written to the client, characters for text messages and bytes for binary ones
+	 */
+	public long getBytesWritten()
+	{
+		return _bytesWritten.get();
+	}
+
+	/**
+	 * @return time the messages waited in the queue and took to be written
+	 */
+	public LatencyHistogram getLatency()
+	{
+		return _latency;
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geppetto.frontend.INBOUND_MESSAGE_TYPES;
+
+/**
+ * Measures, for each type of message received from the clients, the time between the reception of a message and the first message sent back to the same client with the same
+ * requestID.
+ * 
+ */
+public class RequestLatencyTracker
+{
+
+	// requests waiting for a reply are not tracked beyond this, e.g. if clients send requests that are never answered
+	private static final int MAX_PENDING_REQUESTS = 10000;
+
+	private final Map<INBOUND_MESSAGE_TYPES, LatencyHistogram> _histograms = new EnumMap<INBOUND_MESSAGE_TYPES, LatencyHistogram>(INBOUND_MESSAGE_TYPES.class);
+
+	private final ConcurrentHashMap<String, PendingRequest> _pending = new ConcurrentHashMap<String, PendingRequest>();
+
+	public RequestLatencyTracker()
+	{
+		for(INBOUND_MESSAGE_TYPES type : INBOUND_MESSAGE_TYPES.values())
+		{
+			_histograms.put(type, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * A message was received from a client
+	 * 
+	 * @param connection
+	 *            - Client sending the message
+	 * @param requestID
+	 *            - ID of the request, messages without one are not tracked
+	 * @param type
+	 *            - Type of the message
+	 */
+	public void received(GeppettoMessageInbound connection, String requestID, INBOUND_MESSAGE_TYPES type)
+	{
+		if(requestID != null && _pending.size() < MAX_PENDING_REQUESTS)
+		{
+			_pending.put(getKey(connection, requestID), new PendingRequest(type, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * A message was sent to a client, if it's the first reply to a request the latency of the request is recorded
+	 * 
+	 * @param connection
+	 *            - Client receiving the message
+	 * @param requestID
+	 *            - ID of the request the message replies to, can be null
+	 */
+	public void replied(GeppettoMessageInbound connection, String requestID)
+	{
+		if(requestID == null || _pending.isEmpty())
+		{
+			return;
+		}
+		PendingRequest request = _pending.remove(getKey(connection, requestID));
+		if(request != null)
+		{
+			_histograms.get(request._type).record(System.nanoTime() - request._receptionTime);
+		}
+	}
+
+	/**
+	 * Forgets the requests of a client that disconnected
+	 */
+	public void connectionClosed(GeppettoMessageInbound connection)
+	{
+		String prefix = connection.getConnectionID() + "/";
+		Iterator<String> keys = _pending.keySet().iterator();
+		while(keys.hasNext())
+		{
+			if(keys.next().startsWith(prefix))
+			{
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return latencies of the messages of the given type
+	 */
+	public LatencyHistogram getHistogram(INBOUND_MESSAGE_TYPES type)
+	{
+		return _histograms.get(type);
+	}
+
+	/**
+	 * @return number of requests waiting for a reply
+	 */
+	public int getPendingCount()
+	{
+		return _pending.size();
+	}
+
+	private static String getKey(GeppettoMessageInbound connection, String requestID)
+	{
+		return connection.getConnectionID() + "/" + requestID;
+	}
+
+	private static class PendingRequest
+	{
+
+		private final INBOUND_MESSAGE_TYPES _type;
+
+		private final long _receptionTime;
+
+		PendingRequest(INBOUND_MESSAGE_TYPES type, long receptionTime)
+		{
+			this._type = type;
+			this._receptionTime = receptionTime;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Scripts run by the clients, so that a script run again, in the same session or in another one, is served from memory. A script is served without asking the server for a while
+ * after it was fetched, then it's revalidated with a conditional request. Concurrent requests for the same script wait for a single fetch. The least recently used scripts are
+ * dropped when the cache grows past its maximum size.
+ * 
+ */
+public class ScriptCache implements ScriptCacheMBean
+{
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static class Entry
+	{
+
+		private final String _script;
+
+		private final String _etag;
+
+		private final long _lastModified;
+
+		private volatile long _validated;
+
+		private Entry(String script, String etag, long lastModified, long validated)
+		{
+			this._script = script;
+			this._etag = etag;
+			this._lastModified = lastModified;
+			this._validated = validated;
+		}
+	}
+
+	// in access order, the first entry is the least recently used
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	// fetches in progress, by URL
+	private final ConcurrentHashMap<String, FutureTask<String>> _fetches = new ConcurrentHashMap<String, FutureTask<String>>();
+
+	private final long _maxAge;
+
+	private final int _timeout;
+
+	private volatile long _maxSize;
+
+	private long _size = 0;
+
+	private long _hits = 0;
+
+	private long _misses = 0;
+
+	private long _revalidations = 0;
+
+	private long _coalescedRequests = 0;
+
+	private long _evictions = 0;
+
+	/**
+	 * @param maxSize
+	 *            - characters the cached scripts can take, 0 to cache none
+	 * @param maxAge
+	 *            - milliseconds a script is served before it's revalidated with the server
+	 * @param timeout
+	 *            - milliseconds to wait to connect to the server, and then for its data
+	 */
+	public ScriptCache(long maxSize, long maxAge, int timeout)
+	{
+		this._maxSize = maxSize;
+		this._maxAge = maxAge;
+		this._timeout = timeout;
+	}
+
+	/**
+	 * @param url
+	 *            - URL of the script
+	 * @return the script, one line after the other
+	 * @throws IOException
+	 *             if the script can't be fetched
+	 */
+	public String get(final URL url) throws IOException
+	{
+		final String key = url.toString();
+		synchronized(this)
+		{
+			Entry cached = _entries.get(key);
+			if(cached != null && System.currentTimeMillis() - cached._validated < _maxAge)
+			{
+				_hits++;
+				return cached._script;
+			}
+		}
+
+		FutureTask<String> fetch = new FutureTask<String>(new Callable<String>()
+		{
+			@Override
+			public String call() throws IOException
+			{
+				return fetch(url, key);
+			}
+		});
+		FutureTask<String> running = _fetches.putIfAbsent(key, fetch);
+		if(running == null)
+		{
+			running = fetch;
+			try
+			{
+				fetch.run();
+			}
+			finally
+			{
+				_fetches.remove(key, fetch);
+			}
+		}
+		else
+		{
+			synchronized(this)
+			{
+				_coalescedRequests++;
+			}
+		}
+
+		try
+		{
+			return running.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while fetching " + url);
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private String fetch(URL url, String key) throws IOException
+	{
+		Entry cached;
+		synchronized(this)
+		{
+			cached = _entries.get(key);
+		}
+
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(_timeout);
+		connection.setReadTimeout(_timeout);
+		if(cached != null && connection instanceof HttpURLConnection)
+		{
+			if(cached._etag != null)
+			{
+				connection.setRequestProperty("If-None-Match", cached._etag);
+			}
+			if(cached._lastModified > 0)
+			{
+				connection.setIfModifiedSince(cached._lastModified);
+			}
+			if(((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+			{
+				((HttpURLConnection) connection).disconnect();
+				cached._validated = System.currentTimeMillis();
+				synchronized(this)
+				{
+					_hits++;
+					_revalidations++;
+				}
+				return cached._script;
+			}
+		}
+
+		StringBuilder script = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF8));
+		try
+		{
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				script.append(line).append('\n');
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		Entry entry = new Entry(script.toString(), connection.getHeaderField("ETag"), connection.getLastModified(), System.currentTimeMillis());
+		synchronized(this)
+		{
+			_misses++;
+			Entry previous = _entries.remove(key);
+			if(previous != null)
+			{
+				_size -= previous._script.length();
+			}
+			if(entry._script.length() <= _maxSize)
+			{
+				_entries.put(key, entry);
+				_size += entry._script.length();
+				evict();
+			}
+		}
+		return entry._script;
+	}
+
+	private void evict()
+	{
+		Iterator<Entry> entries = _entries.values().iterator();
+		while(_size > _maxSize && entries.hasNext())
+		{
+			Entry eldest = entries.next();
+			entries.remove();
+			_size -= eldest._script.length();
+			_evictions++;
+		}
+	}
+
+	@Override
+	public synchronized long getHits()
+	{
+		return _hits;
+	}
+
+	@Override
+	public synchronized long getMisses()
+	{
+		return _misses;
+	}
+
+	@Override
+	public synchronized long getRevalidations()
+	{
+		return _revalidations;
+	}
+
+	@Override
+	public synchronized long getCoalescedRequests()
+	{
+		return _coalescedRequests;
+	}
+
+	@Override
+	public synchronized long getEvictions()
+	{
+		return _evictions;
+	}
+
+	@Override
+	public synchronized int getEntryCount()
+	{
+		return _entries.size();
+	}
+
+	@Override
+	public synchronized long getSize()
+	{
+		return _size;
+	}
+
+	@Override
+	public long getMaxSize()
+	{
+		return _maxSize;
+	}
+
+	@Override
+	public synchronized void setMaxSize(long maxSize)
+	{
+		this._maxSize = maxSize;
+		evict();
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		_entries.clear();
+		_size = 0;
+	}
+}
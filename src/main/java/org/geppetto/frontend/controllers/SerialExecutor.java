@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs tasks one at a time, in the order they are submitted, on a pool shared with other serial executors. Used to handle the messages of a client connection in order while the
+ * messages of different connections are handled in parallel.
+ * 
+ */
+public class SerialExecutor implements Executor
+{
+
+	private static Log _logger = LogFactory.getLog(SerialExecutor.class);
+
+	private final Executor _pool;
+
+	private final int _capacity;
+
+	private final ArrayDeque<Runnable> _tasks = new ArrayDeque<Runnable>();
+
+	// true when a task of this executor is scheduled or running on the pool, guarded by this
+	private boolean _running = false;
+
+	private boolean _closed = false;
+
+	// what the next task waits for: the task running, plus the work it handed to other threads, guarded by this
+	private int _holds = 0;
+
+	/**
+	 * @param pool
+	 *            - Executor running the tasks
+	 * @param capacity
+	 *            - Maximum number of tasks waiting to be run
+	 */
+	public SerialExecutor(Executor pool, int capacity)
+	{
+		this._pool = pool;
+		this._capacity = capacity;
+	}
+
+	/**
+	 * Queues a task, it's run after the tasks submitted before it have completed
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if too many tasks are waiting or the executor is closed
+	 */
+	@Override
+	public void execute(Runnable task)
+	{
+		synchronized(this)
+		{
+			if(_closed)
+			{
+				throw new RejectedExecutionException("Executor closed");
+			}
+			if(_tasks.size() >= _capacity)
+			{
+				throw new RejectedExecutionException(_tasks.size() + " tasks waiting");
+			}
+			_tasks.addLast(task);
+			if(_running)
+			{
+				return;
+			}
+			_running = true;
+		}
+		schedule();
+	}
+
+	private void schedule()
+	{
+		try
+		{
+			_pool.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					runNext();
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			// the pool is shutting down, nothing else will run
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the oldest task, then gives the thread back to the pool so that the tasks of the other executors are not held up
+	 */
+	private void runNext()
+	{
+		Runnable task;
+		synchronized(this)
+		{
+			task = _tasks.pollFirst();
+			if(task == null)
+			{
+				_running = false;
+				return;
+			}
+			_holds = 1;
+		}
+		try
+		{
+			task.run();
+		}
+		catch(RuntimeException e)
+		{
+			_logger.error("Task failed", e);
+		}
+		finally
+		{
+			// even if the task threw an Error, otherwise the next tasks would wait forever
+			release();
+		}
+	}
+
+	/**
+	 * Keeps the next tasks waiting after the running task returns, until the work it hands to another thread (e.g. a bulkhead) is done. Only called by the running task.
+	 * 
+	 * @return to be run once when the work is done, or if it's never going to run
+	 */
+	public Runnable hold()
+	{
+		synchronized(this)
+		{
+			_holds++;
+		}
+		return new Runnable()
+		{
+			private final AtomicBoolean _released = new AtomicBoolean();
+
+			@Override
+			public void run()
+			{
+				if(_released.compareAndSet(false, true))
+				{
+					release();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Schedules the next task, if any, once the current one and the work it handed over are done
+	 */
+	private void release()
+	{
+		synchronized(this)
+		{
+			if(--_holds > 0)
+			{
+				return;
+			}
+			if(_tasks.isEmpty())
+			{
+				_running = false;
+				return;
+			}
+		}
+		schedule();
+	}
+
+	/**
+	 * Stops accepting tasks and discards the ones waiting to be run
+	 */
+	public synchronized void close()
+	{
+		_closed = true;
+		_tasks.clear();
+	}
+
+	/**
+	 * @return number of tasks waiting to be run
+	 */
+	public synchronized int getDepth()
+	{
+		return _tasks.size();
+	}
+}
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.frontend.OutboundFrame;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
+
+/**
+ * Simulations loaded from a URL, so that loading the same simulation again doesn't fetch its descriptor and doesn't serialize its model again. Every load revalidates the cached
+ * descriptor, with a conditional request when the server gives an ETag or a modification time and comparing the hash of the content otherwise, so a changed simulation is never
+ * served from the cache. The least recently loaded simulations are dropped when the cache grows past its maximum size.
+ * 
+ */
+public class SimulationCache implements SimulationCacheMBean
+{
+
+	private static Log _logger = LogFactory.getLog(SimulationCache.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// in access order, the first entry is the least recently loaded
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long _size = 0;
+
+	private volatile long _maxSize;
+
+	private final int _timeout;
+
+	private long _hits = 0;
+
+	private long _misses = 0;
+
+	private long _evictions = 0;
+
+	/**
+	 * @param maxSize
+	 *            - approximate size the cached simulations can take, 0 to cache none
+	 * @param timeout
+	 *            - milliseconds to wait to connect to the server of a descriptor, and then for its data
+	 */
+	public SimulationCache(long maxSize, int timeout)
+	{
+		this._maxSize = maxSize;
+		this._timeout = timeout;
+	}
+
+	/**
+	 * A cached simulation: its descriptor, and the messages built when it was loaded
+	 * 
+	 */
+	public static class Entry
+	{
+
+		private final SimulationCache _cache;
+
+		private final URL _url;
+
+		private final String _descriptor;
+
+		private final String _digest;
+
+		private volatile String _etag;
+
+		private volatile long _lastModified;
+
+		private String _scripts;
+
+		private String _modelDigest;
+
+		private final Map<String, List<OutboundFrame>> _modelFrames = new HashMap<String, List<OutboundFrame>>();
+
+		// read by the cache when it evicts entries, without locking the entry
+		private volatile long _size;
+
+		private Entry(SimulationCache cache, URL url, String descriptor, String digest)
+		{
+			this._cache = cache;
+			this._url = url;
+			this._descriptor = descriptor;
+			this._digest = digest;
+			this._size = descriptor.length();
+		}
+
+		public URL getURL()
+		{
+			return _url;
+		}
+
+		/**
+		 * @return content of the simulation descriptor
+		 */
+		public String getDescriptor()
+		{
+			return _descriptor;
+		}
+
+		/**
+		 * @return the FIRE_SIM_SCRIPTS payload of the simulation, empty if it has no scripts, null if the simulation wasn't loaded yet
+		 */
+		public synchronized String getScripts()
+		{
+			return _scripts;
+		}
+
+		public synchronized void setScripts(String scripts)
+		{
+			resize(-length(_scripts) + length(scripts));
+			this._scripts = scripts;
+		}
+
+		/**
+		 * @param modelDigest
+		 *            - digest of the model the messages are needed for
+		 * @param protocol
+		 *            - protocol of the client
+		 * @param chunked
+		 *            - true for the messages of clients that load the model in chunks
+		 * @return the LOAD_MODEL messages built the last time the same model was loaded, null if there are none
+		 */
+		public synchronized List<OutboundFrame> getModelFrames(String modelDigest, TRANSPORT_PROTOCOLS protocol, boolean chunked)
+		{
+			if(!modelDigest.equals(_modelDigest))
+			{
+				return null;
+			}
+			return _modelFrames.get(protocol + (chunked ? "/chunked" : ""));
+		}
+
+		/**
+		 * Keeps the LOAD_MODEL messages of a model, forgetting the ones of a different model
+		 * 
+		 * @param modelDigest
+		 * @param protocol
+		 * @param chunked
+		 * @param frames
+		 */
+		public synchronized void putModelFrames(String modelDigest, TRANSPORT_PROTOCOLS protocol, boolean chunked, List<OutboundFrame> frames)
+		{
+			if(!modelDigest.equals(_modelDigest))
+			{
+				for(List<OutboundFrame> previous : _modelFrames.values())
+				{
+					resize(-length(previous));
+				}
+				_modelFrames.clear();
+				_modelDigest = modelDigest;
+			}
+			List<OutboundFrame> previous = _modelFrames.put(protocol + (chunked ? "/chunked" : ""), frames);
+			resize(-length(previous) + length(frames));
+		}
+
+		private void resize(long delta)
+		{
+			_size += delta;
+			_cache.resized(this, delta);
+		}
+
+		private static long length(String string)
+		{
+			return string == null ? 0 : string.length();
+		}
+
+		private static long length(List<OutboundFrame> frames)
+		{
+			long length = 0;
+			if(frames != null)
+			{
+				for(OutboundFrame frame : frames)
+				{
+					length += frame.getLength();
+				}
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Fetches the descriptor of a simulation, unless the cached one is still current
+	 * 
+	 * @param url
+	 *            - URL of the simulation descriptor
+	 * @return the cached simulation, null if the cache is disabled
+	 * @throws IOException
+	 *             if the descriptor can't be fetched
+	 */
+	public Entry lookup(URL url) throws IOException
+	{
+		if(_maxSize <= 0)
+		{
+			return null;
+		}
+		String key = url.toString();
+		Entry cached;
+		synchronized(this)
+		{
+			cached = _entries.get(key);
+		}
+
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(_timeout);
+		connection.setReadTimeout(_timeout);
+		if(cached != null && connection instanceof HttpURLConnection)
+		{
+			if(cached._etag != null)
+			{
+				connection.setRequestProperty("If-None-Match", cached._etag);
+			}
+			if(cached._lastModified > 0)
+			{
+				connection.setIfModifiedSince(cached._lastModified);
+			}
+			if(((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+			{
+				((HttpURLConnection) connection).disconnect();
+				return hit(cached);
+			}
+		}
+
+		String descriptor = read(connection);
+		String digest = digest(descriptor);
+		if(cached != null && cached._digest.equals(digest))
+		{
+			cached._etag = connection.getHeaderField("ETag");
+			cached._lastModified = connection.getLastModified();
+			return hit(cached);
+		}
+
+		Entry entry = new Entry(this, url, descriptor, digest);
+		entry._etag = connection.getHeaderField("ETag");
+		entry._lastModified = connection.getLastModified();
+		synchronized(this)
+		{
+			_misses++;
+			Entry previous = _entries.put(key, entry);
+			if(previous != null)
+			{
+				_size -= previous._size;
+			}
+			_size += entry._size;
+			evict();
+		}
+		return entry;
+	}
+
+	private synchronized Entry hit(Entry cached)
+	{
+		_hits++;
+		// refreshes the position of the entry, unless it was evicted in the meantime
+		_entries.get(cached._url.toString());
+		return cached;
+	}
+
+	private synchronized void resized(Entry entry, long delta)
+	{
+		if(_entries.get(entry._url.toString()) == entry)
+		{
+			_size += delta;
+			evict();
+		}
+	}
+
+	private void evict()
+	{
+		Iterator<Entry> entries = _entries.values().iterator();
+		while(_size > _maxSize && entries.hasNext())
+		{
+			Entry eldest = entries.next();
+			entries.remove();
+			_size -= eldest._size;
+			_evictions++;
+			_logger.info("Simulation " + eldest._url + " dropped from the cache");
+		}
+	}
+
+	private static String read(URLConnection connection) throws IOException
+	{
+		StringBuilder content = new StringBuilder();
+		Reader reader = new InputStreamReader(connection.getInputStream(), UTF8);
+		try
+		{
+			char[] buffer = new char[8192];
+			int read;
+			while((read = reader.read(buffer)) != -1)
+			{
+				content.append(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return content.toString();
+	}
+
+	/**
+	 * @param content
+	 * @return hex SHA-1 digest of the content
+	 */
+	public static String digest(String content)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// every Java platform has SHA-1
+			throw new IllegalStateException(e);
+		}
+		// hashed a block at a time, large models aren't copied whole
+		int block = 8192;
+		for(int i = 0; i < content.length(); i += block)
+		{
+			digest.update(content.substring(i, Math.min(content.length(), i + block)).getBytes(UTF8));
+		}
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for(int i = 0; i < hash.length; i++)
+		{
+			hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	@Override
+	public synchronized long getHits()
+	{
+		return _hits;
+	}
+
+	@Override
+	public synchronized long getMisses()
+	{
+		return _misses;
+	}
+
+	@Override
+	public synchronized long getEvictions()
+	{
+		return _evictions;
+	}
+
+	@Override
+	public synchronized int getEntryCount()
+	{
+		return _entries.size();
+	}
+
+	@Override
+	public synchronized long getSize()
+	{
+		return _size;
+	}
+
+	@Override
+	public long getMaxSize()
+	{
+		return _maxSize;
+	}
+
+	@Override
+	public synchronized void setMaxSize(long maxSize)
+	{
+		this._maxSize = maxSize;
+		evict();
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		_entries.clear();
+		_size = 0;
+	}
+}
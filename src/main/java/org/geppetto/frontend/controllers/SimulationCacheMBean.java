@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+/**
+ * Simulations kept by the cache, exported through JMX
+ * 
+ */
+public interface SimulationCacheMBean
+{
+
+	/**
+	 * @return loads of a simulation whose descriptor didn't change since it was cached
+	 */
+	long getHits();
+
+	/**
+	 * @return loads of a simulation that wasn't cached or whose descriptor changed
+	 */
+	long getMisses();
+
+	/**
+	 * @return simulations dropped to stay within the maximum size
+	 */
+	long getEvictions();
+
+	int getEntryCount();
+
+	/**
+	 * @return approximate size of the cached simulations, in characters for text and bytes for binary messages
+	 */
+	long getSize();
+
+	long getMaxSize();
+
+	/**
+	 * @param maxSize
+	 *            - approximate size the cached simulations can take, 0 to cache none
+	 */
+	void setMaxSize(long maxSize);
+
+	/**
+	 * Forgets all the cached simulations
+	 */
+	void clear();
+}
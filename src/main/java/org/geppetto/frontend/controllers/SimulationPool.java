@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.simulation.ISimulation;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * Simulation service instances reused across visitors, so that a new visitor doesn't wait for an instance to be created and visitors coming and going don't create garbage. An
+ * instance is leased when a visitor first needs one, reset and returned when the visitor leaves. At most as many instances as the capacity of the simulator are kept idle.
+ * 
+ * Instances come from the Spring bean of the simulation service, which has to be a prototype for the pool to create more than one. When the bean hands out a single instance, like
+ * the OSGi service does, that instance is shared by all the visitors. It's stopped when a visitor leaves, but never reset or kept idle by the pool.
+ * 
+ */
+public class SimulationPool implements SimulationPoolMBean
+{
+
+	private static Log _logger = LogFactory.getLog(SimulationPool.class);
+
+	private final ObjectFactory<ISimulation> _factory;
+
+	private final ArrayDeque<ISimulation> _idle = new ArrayDeque<ISimulation>();
+
+	// instances created and not discarded yet, idle or leased, to recognize a factory returning always the same one
+	private final Set<ISimulation> _created = Collections.newSetFromMap(new IdentityHashMap<ISimulation, Boolean>());
+
+	private ISimulation _shared = null;
+
+	private int _leased = 0;
+
+	private long _createdCount = 0;
+
+	private int _capacity = 0;
+
+	/**
+	 * @param factory
+	 *            - Creates the simulation service instances, null when running outside of Spring
+	 */
+	public SimulationPool(ObjectFactory<ISimulation> factory)
+	{
+		this._factory = factory;
+	}
+
+	/**
+	 * Creates instances ahead of time, up to the capacity of the simulator
+	 * 
+	 * @param instances
+	 *            - Number of idle instances wanted
+	 */
+	public synchronized void prewarm(int instances)
+	{
+		while(_factory != null && _shared == null && _idle.size() < instances && (_capacity == 0 || _idle.size() < _capacity))
+		{
+			ISimulation simulation = create();
+			if(simulation == null || simulation == _shared)
+			{
+				break;
+			}
+			_idle.addLast(simulation);
+		}
+	}
+
+	/**
+	 * @return an instance for a visitor to use until it leaves, null when running outside of Spring
+	 */
+	public synchronized ISimulation lease()
+	{
+		if(_shared != null)
+		{
+			return _shared;
+		}
+		ISimulation simulation = _idle.pollFirst();
+		if(simulation == null)
+		{
+			simulation = create();
+			if(simulation == null || simulation == _shared)
+			{
+				return simulation;
+			}
+		}
+		_leased++;
+		return simulation;
+	}
+
+	/**
+	 * Resets an instance a visitor doesn't need anymore and keeps it for the next visitor. The instance shared by all the visitors is only stopped.
+	 * 
+	 * @param simulation
+	 */
+	public void release(ISimulation simulation)
+	{
+		boolean shared;
+		synchronized(this)
+		{
+			if(simulation == null)
+			{
+				return;
+			}
+			shared = simulation == _shared;
+			if(!shared)
+			{
+				_leased--;
+			}
+		}
+		if(shared)
+		{
+			stopShared(simulation);
+			return;
+		}
+		try
+		{
+			if(simulation.isRunning())
+			{
+				simulation.stop();
+			}
+			simulation.stopWatch();
+			simulation.clearWatchLists();
+		}
+		catch(GeppettoExecutionException e)
+		{
+			// don't give an instance in an unknown state to somebody else
+			_logger.warn("Unable to reset simulation, discarding it " + e.getMessage());
+			synchronized(this)
+			{
+				_created.remove(simulation);
+			}
+			return;
+		}
+		synchronized(this)
+		{
+			if(_idle.size() < Math.max(1, _capacity))
+			{
+				_idle.addLast(simulation);
+			}
+			else
+			{
+				// left to the garbage collector
+				_created.remove(simulation);
+			}
+		}
+	}
+
+	/**
+	 * Stops the simulation the leaving visitor may have left running, the next visitor gets the instance as it is
+	 * 
+	 * @param simulation
+	 */
+	private void stopShared(ISimulation simulation)
+	{
+		try
+		{
+			simulation.stop();
+		}
+		catch(GeppettoExecutionException e)
+		{
+			_logger.warn("Unable to stop the shared simulation " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return number of visitors that can run a simulation at the same time, 0 when running outside of Spring
+	 */
+	public synchronized int getCapacity()
+	{
+		if(_capacity == 0 && _shared == null && _idle.isEmpty())
+		{
+			prewarm(1);
+		}
+		return _capacity;
+	}
+
+	private ISimulation create()
+	{
+		if(_factory == null)
+		{
+			return null;
+		}
+		ISimulation simulation = _factory.getObject();
+		if(!_created.add(simulation))
+		{
+			_logger.info("The simulation service is a single instance, shared by all the visitors");
+			_shared = simulation;
+			_created.clear();
+			_idle.clear();
+			_leased = 0;
+			return simulation;
+		}
+		_createdCount++;
+		_capacity = simulation.getSimulationCapacity();
+		return simulation;
+	}
+
+	@Override
+	public synchronized int getIdleCount()
+	{
+		return _idle.size();
+	}
+
+	@Override
+	public synchronized int getLeasedCount()
+	{
+		return _leased;
+	}
+
+	@Override
+	public synchronized long getCreatedCount()
+	{
+		return _createdCount;
+	}
+
+	@Override
+	public synchronized boolean isShared()
+	{
+		return _shared != null;
+	}
+}
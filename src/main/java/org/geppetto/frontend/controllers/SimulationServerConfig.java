@@ -32,6 +32,8 @@
  *******************************************************************************/
 package org.geppetto.frontend.controllers;
 
+import org.geppetto.frontend.controllers.OutboundMessageQueue.OverflowPolicy;
+
 /**
  * Configuration class to keep track of simulation server mode
  * 
@@ -49,10 +51,62 @@ public class SimulationServerConfig {
 	
 	private ServerBehaviorModes serverBehaviorMode;
 	
-	private String loadedScene;
+	private final LoadedSceneCache loadedScene = new LoadedSceneCache();
+
+	private boolean loadedSceneCompressed = true;
 	
 	private boolean isSimulationLoaded;
 	
+	private int outboundQueueCapacity = 64;
+	
+	private OverflowPolicy outboundQueueOverflowPolicy = OverflowPolicy.CONFLATE;
+	
+	private int outboundWriterThreads = 0;
+
+	private int inboundQueueCapacity = 32;
+
+	private int inboundWorkerThreads = 0;
+
+	private int loadThreads = 2;
+
+	private int loadQueueCapacity = 4;
+
+	private int modelTreeThreads = 2;
+
+	private int modelTreeQueueCapacity = 16;
+
+	private int scriptThreads = 2;
+
+	private int scriptQueueCapacity = 16;
+
+	private int sceneKeyframeInterval = 100;
+
+	private int loadModelChunkSize = 256 * 1024;
+
+	private int traceSampleRate = 0;
+
+	private int prewarmedSimulations = 2;
+
+	private long simulationCacheSize = 64 * 1024 * 1024;
+
+	private long scriptCacheSize = 16 * 1024 * 1024;
+
+	private long scriptCacheMaxAge = 60000;
+
+	private int scriptFetchTimeout = 10000;
+
+	private int simulationFetchTimeout = 10000;
+
+	private long watchDataFlushInterval = 100;
+
+	private int watchDataMaxSamples = 1000;
+
+	private int watchHistorySize = 1000;
+
+	private String watchRecordingDirectory = "";
+
+	private int watchRecordingChunkSize = 4096;
+	
 	public boolean isSimulationLoaded() {
 		return isSimulationLoaded;
 	}
@@ -67,16 +121,38 @@ public class SimulationServerConfig {
 	}
 
 	public String getLoadedScene() {
-		return loadedScene;
+		return loadedScene.getScene();
 	}
 
 	/**
-	 * Stores the current simulation loaded as JSON string. 
+	 * Stores the current simulation loaded as JSON string. The string is
+	 * encoded and kept in the loaded scene cache, null clears it.
 	 * 
 	 * @param loadedScene
 	 */
 	public void setLoadedScene(String loadedScene) {
-		this.loadedScene = loadedScene;
+		this.loadedScene.setScene(loadedScene, loadedSceneCompressed);
+	}
+
+	/**
+	 * @return the current simulation loaded, encoded for the observers
+	 */
+	public LoadedSceneCache getLoadedSceneCache() {
+		return loadedScene;
+	}
+
+	public boolean isLoadedSceneCompressed() {
+		return loadedSceneCompressed;
+	}
+
+	/**
+	 * Whether the loaded scene is kept compressed, it's then decompressed
+	 * each time it's sent to an observer
+	 * 
+	 * @param loadedSceneCompressed
+	 */
+	public void setLoadedSceneCompressed(boolean loadedSceneCompressed) {
+		this.loadedSceneCompressed = loadedSceneCompressed;
 	}
 
 	/**
@@ -91,4 +167,351 @@ public class SimulationServerConfig {
 	public ServerBehaviorModes getServerBehaviorMode(){
 		return this.serverBehaviorMode;
 	}
+
+	public int getOutboundQueueCapacity() {
+		return outboundQueueCapacity;
+	}
+
+	/**
+	 * Maximum number of messages waiting to be written to a single client
+	 * 
+	 * @param outboundQueueCapacity
+	 */
+	public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+		this.outboundQueueCapacity = outboundQueueCapacity;
+	}
+
+	public OverflowPolicy getOutboundQueueOverflowPolicy() {
+		return outboundQueueOverflowPolicy;
+	}
+
+	/**
+	 * What to do when a client falls behind and its queue of messages is full
+	 * 
+	 * @param outboundQueueOverflowPolicy
+	 */
+	public void setOutboundQueueOverflowPolicy(OverflowPolicy outboundQueueOverflowPolicy) {
+		this.outboundQueueOverflowPolicy = outboundQueueOverflowPolicy;
+	}
+
+	public int getOutboundWriterThreads() {
+		return outboundWriterThreads;
+	}
+
+	/**
+	 * Number of threads writing messages to the clients, 0 to use one per
+	 * available processor
+	 * 
+	 * @param outboundWriterThreads
+	 */
+	public void setOutboundWriterThreads(int outboundWriterThreads) {
+		this.outboundWriterThreads = outboundWriterThreads;
+	}
+
+	public int getInboundQueueCapacity() {
+		return inboundQueueCapacity;
+	}
+
+	/**
+	 * Maximum number of messages from a single client waiting to be
+	 * processed, further messages are rejected
+	 * 
+	 * @param inboundQueueCapacity
+	 */
+	public void setInboundQueueCapacity(int inboundQueueCapacity) {
+		this.inboundQueueCapacity = inboundQueueCapacity;
+	}
+
+	public int getInboundWorkerThreads() {
+		return inboundWorkerThreads;
+	}
+
+	/**
+	 * Number of threads processing the messages received from the clients, 0
+	 * to use one per available processor
+	 * 
+	 * @param inboundWorkerThreads
+	 */
+	public void setInboundWorkerThreads(int inboundWorkerThreads) {
+		this.inboundWorkerThreads = inboundWorkerThreads;
+	}
+
+	public int getLoadThreads() {
+		return loadThreads;
+	}
+
+	/**
+	 * Number of simulations that can be loaded at the same time, loading
+	 * includes fetching the simulation and its configuration
+	 * 
+	 * @param loadThreads
+	 */
+	public void setLoadThreads(int loadThreads) {
+		this.loadThreads = loadThreads;
+	}
+
+	public int getLoadQueueCapacity() {
+		return loadQueueCapacity;
+	}
+
+	/**
+	 * Number of loads that can wait for a thread, further loads are rejected
+	 * and the client is told to retry
+	 * 
+	 * @param loadQueueCapacity
+	 */
+	public void setLoadQueueCapacity(int loadQueueCapacity) {
+		this.loadQueueCapacity = loadQueueCapacity;
+	}
+
+	public int getModelTreeThreads() {
+		return modelTreeThreads;
+	}
+
+	/**
+	 * Number of model trees that can be built at the same time
+	 * 
+	 * @param modelTreeThreads
+	 */
+	public void setModelTreeThreads(int modelTreeThreads) {
+		this.modelTreeThreads = modelTreeThreads;
+	}
+
+	public int getModelTreeQueueCapacity() {
+		return modelTreeQueueCapacity;
+	}
+
+	/**
+	 * Number of model tree requests that can wait for a thread
+	 * 
+	 * @param modelTreeQueueCapacity
+	 */
+	public void setModelTreeQueueCapacity(int modelTreeQueueCapacity) {
+		this.modelTreeQueueCapacity = modelTreeQueueCapacity;
+	}
+
+	public int getScriptThreads() {
+		return scriptThreads;
+	}
+
+	/**
+	 * Number of scripts that can be fetched at the same time
+	 * 
+	 * @param scriptThreads
+	 */
+	public void setScriptThreads(int scriptThreads) {
+		this.scriptThreads = scriptThreads;
+	}
+
+	public int getScriptQueueCapacity() {
+		return scriptQueueCapacity;
+	}
+
+	/**
+	 * Number of script requests that can wait for a thread
+	 * 
+	 * @param scriptQueueCapacity
+	 */
+	public void setScriptQueueCapacity(int scriptQueueCapacity) {
+		this.scriptQueueCapacity = scriptQueueCapacity;
+	}
+
+	public int getSceneKeyframeInterval() {
+		return sceneKeyframeInterval;
+	}
+
+	/**
+	 * Number of scene updates after which clients receiving scene deltas get
+	 * the whole scene again, 0 to send it only when a client is out of sync
+	 * 
+	 * @param sceneKeyframeInterval
+	 */
+	public void setSceneKeyframeInterval(int sceneKeyframeInterval) {
+		this.sceneKeyframeInterval = sceneKeyframeInterval;
+	}
+
+	public int getLoadModelChunkSize() {
+		return loadModelChunkSize;
+	}
+
+	/**
+	 * Approximate size in characters of the chunks a model is split in for
+	 * the clients that can receive it in chunks, 0 to always send the model
+	 * as a single message
+	 * 
+	 * @param loadModelChunkSize
+	 */
+	public void setLoadModelChunkSize(int loadModelChunkSize) {
+		this.loadModelChunkSize = loadModelChunkSize;
+	}
+
+	public int getTraceSampleRate() {
+		return traceSampleRate;
+	}
+
+	/**
+	 * One in how many messages sent and simulation updates is logged, 0 to
+	 * log none. Can be changed at runtime through JMX.
+	 * 
+	 * @param traceSampleRate
+	 */
+	public void setTraceSampleRate(int traceSampleRate) {
+		this.traceSampleRate = traceSampleRate;
+	}
+
+	public int getPrewarmedSimulations() {
+		return prewarmedSimulations;
+	}
+
+	/**
+	 * Simulation service instances created at startup in multiuser mode, so
+	 * the first visitors don't wait for them. Never more than the capacity of
+	 * the simulator.
+	 * 
+	 * @param prewarmedSimulations
+	 */
+	public void setPrewarmedSimulations(int prewarmedSimulations) {
+		this.prewarmedSimulations = prewarmedSimulations;
+	}
+
+	public long getSimulationCacheSize() {
+		return simulationCacheSize;
+	}
+
+	/**
+	 * Approximate size, in characters, of the simulations loaded from a URL
+	 * that are kept to be loaded again without fetching and serializing them,
+	 * 0 to cache none. Can be changed at runtime through JMX.
+	 * 
+	 * @param simulationCacheSize
+	 */
+	public void setSimulationCacheSize(long simulationCacheSize) {
+		this.simulationCacheSize = simulationCacheSize;
+	}
+
+	public long getScriptCacheSize() {
+		return scriptCacheSize;
+	}
+
+	/**
+	 * Characters the scripts run by the clients can take in memory, 0 to
+	 * fetch them every time. Can be changed at runtime through JMX.
+	 * 
+	 * @param scriptCacheSize
+	 */
+	public void setScriptCacheSize(long scriptCacheSize) {
+		this.scriptCacheSize = scriptCacheSize;
+	}
+
+	public long getScriptCacheMaxAge() {
+		return scriptCacheMaxAge;
+	}
+
+	/**
+	 * Milliseconds a cached script is served before asking the server whether
+	 * it changed
+	 * 
+	 * @param scriptCacheMaxAge
+	 */
+	public void setScriptCacheMaxAge(long scriptCacheMaxAge) {
+		this.scriptCacheMaxAge = scriptCacheMaxAge;
+	}
+
+	public int getScriptFetchTimeout() {
+		return scriptFetchTimeout;
+	}
+
+	/**
+	 * Milliseconds to wait to connect to the server of a script, and then for
+	 * its data
+	 * 
+	 * @param scriptFetchTimeout
+	 */
+	public void setScriptFetchTimeout(int scriptFetchTimeout) {
+		this.scriptFetchTimeout = scriptFetchTimeout;
+	}
+
+	public int getSimulationFetchTimeout() {
+		return simulationFetchTimeout;
+	}
+
+	/**
+	 * Milliseconds to wait to connect to the server of a simulation
+	 * descriptor, and then for its data
+	 * 
+	 * @param simulationFetchTimeout
+	 */
+	public void setSimulationFetchTimeout(int simulationFetchTimeout) {
+		this.simulationFetchTimeout = simulationFetchTimeout;
+	}
+
+	public long getWatchDataFlushInterval() {
+		return watchDataFlushInterval;
+	}
+
+	/**
+	 * Milliseconds the values of the watched variables are collected before
+	 * they are sent, to clients receiving them as WATCH_DATA messages
+	 * 
+	 * @param watchDataFlushInterval
+	 */
+	public void setWatchDataFlushInterval(long watchDataFlushInterval) {
+		this.watchDataFlushInterval = watchDataFlushInterval;
+	}
+
+	public int getWatchDataMaxSamples() {
+		return watchDataMaxSamples;
+	}
+
+	/**
+	 * Samples of the watched variables after which they are sent, even if the
+	 * flush interval didn't elapse
+	 * 
+	 * @param watchDataMaxSamples
+	 */
+	public void setWatchDataMaxSamples(int watchDataMaxSamples) {
+		this.watchDataMaxSamples = watchDataMaxSamples;
+	}
+
+	public int getWatchHistorySize() {
+		return watchHistorySize;
+	}
+
+	/**
+	 * Last samples of every watched variable kept for the clients that start
+	 * receiving them while the simulation runs, 0 to keep none
+	 * 
+	 * @param watchHistorySize
+	 */
+	public void setWatchHistorySize(int watchHistorySize) {
+		this.watchHistorySize = watchHistorySize;
+	}
+
+	public String getWatchRecordingDirectory() {
+		return watchRecordingDirectory;
+	}
+
+	/**
+	 * Directory the values of the watched variables are recorded in for the
+	 * whole run, to be exported, empty to record none
+	 * 
+	 * @param watchRecordingDirectory
+	 */
+	public void setWatchRecordingDirectory(String watchRecordingDirectory) {
+		this.watchRecordingDirectory = watchRecordingDirectory;
+	}
+
+	public int getWatchRecordingChunkSize() {
+		return watchRecordingChunkSize;
+	}
+
+	/**
+	 * Samples of every watched variable compressed and written to the
+	 * recording together
+	 * 
+	 * @param watchRecordingChunkSize
+	 */
+	public void setWatchRecordingChunkSize(int watchRecordingChunkSize) {
+		this.watchRecordingChunkSize = watchRecordingChunkSize;
+	}
 }
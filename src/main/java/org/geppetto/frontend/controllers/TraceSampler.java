@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Decides which of the events happening for every message are logged. Only one event in every rate is logged, when the rate is 0 nothing is logged and checking costs a volatile
+ * read, so the caller builds its message only when {@link #sample()} returns true:
+ * 
+ * <pre>
+ * if(sampler.sample())
+ * {
+ * 	sampler.trace(logger, &quot;...&quot;);
+ * }
+ * </pre>
+ * 
+ * The sampled events are logged at INFO, the rate alone turns the trace on.
+ * 
+ */
+public class TraceSampler implements TraceSamplerMBean
+{
+
+	private volatile int _rate;
+
+	private final AtomicLong _events = new AtomicLong();
+
+	private final AtomicLong _sampled = new AtomicLong();
+
+	private final AtomicLong _loggingNanos = new AtomicLong();
+
+	/**
+	 * @param rate
+	 *            - One in how many events is logged, 0 to log none
+	 */
+	public TraceSampler(int rate)
+	{
+		setRate(rate);
+	}
+
+	/**
+	 * @return true if the current event is to be logged
+	 */
+	public boolean sample()
+	{
+		int rate = _rate;
+		if(rate <= 0)
+		{
+			return false;
+		}
+		return _events.incrementAndGet() % rate == 0;
+	}
+
+	/**
+	 * Logs a sampled event, accounting for the time it takes
+	 * 
+	 * @param logger
+	 * @param message
+	 */
+	public void trace(Log logger, String message)
+	{
+		long start = System.nanoTime();
+		logger.info(message);
+		_loggingNanos.addAndGet(System.nanoTime() - start);
+		_sampled.incrementAndGet();
+	}
+
+	@Override
+	public int getRate()
+	{
+		return _rate;
+	}
+
+	@Override
+	public void setRate(int rate)
+	{
+		this._rate = Math.max(0, rate);
+	}
+
+	@Override
+	public long getSampledCount()
+	{
+		return _sampled.get();
+	}
+
+	@Override
+	public double getLoggingTime()
+	{
+		return _loggingNanos.get() / 1000000d;
+	}
+}
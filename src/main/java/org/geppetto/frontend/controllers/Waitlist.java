@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Visitors running a simulation and visitors waiting for the simulator to have room for them, first come first served. Joining, leaving and handing a freed place to the next
+ * visitor in line are atomic and take constant time, whatever the number of visitors waiting.
+ * 
+ * The time visitors keep their place is averaged to estimate how long the ones waiting will wait.
+ * 
+ * @param <T>
+ *            - Visitor
+ */
+public class Waitlist<T>
+{
+
+	// weight of the latest session in the average session duration
+	private static final double SESSION_WEIGHT = 0.2;
+
+	// visitors waiting, in order of arrival
+	private final LinkedHashSet<T> _waiting = new LinkedHashSet<T>();
+
+	// visitors holding a place, with the time they got it
+	private final Map<T, Long> _active = new HashMap<T, Long>();
+
+	private int _capacity = 1;
+
+	// average time a visitor holds a place, in milliseconds, 0 until a visitor left
+	private double _averageSession = 0;
+
+	/**
+	 * Gives a place to the visitor if there is room, otherwise puts it at the end of the line
+	 * 
+	 * @param visitor
+	 * @param capacity
+	 *            - Number of visitors that can hold a place at the same time
+	 * @return true if the visitor got a place, false if it has to wait
+	 */
+	public synchronized boolean join(T visitor, int capacity)
+	{
+		_capacity = Math.max(1, capacity);
+		if(_active.containsKey(visitor) || _waiting.contains(visitor))
+		{
+			return _active.containsKey(visitor);
+		}
+		if(_active.size() < _capacity && _waiting.isEmpty())
+		{
+			_active.put(visitor, System.currentTimeMillis());
+			return true;
+		}
+		_waiting.add(visitor);
+		return false;
+	}
+
+	/**
+	 * Removes a visitor, waiting or not. If the visitor was holding a place the place goes to the first visitor in line.
+	 * 
+	 * @param visitor
+	 * @return the visitor that got the place that was freed, null if there was none or the visitor leaving wasn't holding a place
+	 */
+	public synchronized T leave(T visitor)
+	{
+		if(_waiting.remove(visitor))
+		{
+			return null;
+		}
+		Long since = _active.remove(visitor);
+		if(since == null)
+		{
+			return null;
+		}
+		long session = System.currentTimeMillis() - since;
+		_averageSession = (_averageSession == 0) ? session : SESSION_WEIGHT * session + (1 - SESSION_WEIGHT) * _averageSession;
+
+		if(_waiting.isEmpty() || _active.size() >= _capacity)
+		{
+			return null;
+		}
+		T next = _waiting.iterator().next();
+		_waiting.remove(next);
+		_active.put(next, System.currentTimeMillis());
+		return next;
+	}
+
+	/**
+	 * @return the visitors waiting, in order
+	 */
+	public synchronized List<T> getWaiting()
+	{
+		return new ArrayList<T>(_waiting);
+	}
+
+	/**
+	 * @param visitor
+	 * @return position of the visitor in the line starting from 1, 0 if it's not waiting
+	 */
+	public synchronized int getPosition(T visitor)
+	{
+		int position = 1;
+		for(T waiting : _waiting)
+		{
+			if(waiting.equals(visitor))
+			{
+				return position;
+			}
+			position++;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param position
+	 *            - Position in the line, starting from 1
+	 * @return estimated time before a visitor at the given position gets a place, in milliseconds, -1 if it can't be estimated yet
+	 */
+	public synchronized long getEstimatedWait(int position)
+	{
+		if(_averageSession == 0)
+		{
+			return -1;
+		}
+		// places free up at a rate of capacity per average session
+		return Math.round(position * _averageSession / _capacity);
+	}
+
+	public synchronized boolean isWaiting(T visitor)
+	{
+		return _waiting.contains(visitor);
+	}
+
+	/**
+	 * @return number of visitors waiting
+	 */
+	public synchronized int size()
+	{
+		return _waiting.size();
+	}
+
+	/**
+	 * @return number of visitors holding a place
+	 */
+	public synchronized int getActiveCount()
+	{
+		return _active.size();
+	}
+}
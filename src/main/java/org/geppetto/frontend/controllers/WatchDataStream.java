@@ -0,0 +1,515 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Values of the watched variables of a client, taken out of the scene updates and sent in batches as WATCH_DATA messages, so that the client doesn't need to look for them in every
+ * scene. A batch holds the samples of several scene updates by column: the time of every sample and, for every variable, its value in every sample.
+ * 
+ * <pre>
+ * {"time":[0.05,0.1,...],"variables":{"hhcell.electrical.SimulationTree.v":[-65.0,-64.8,...],...}}
+ * </pre>
+ * 
+ * The value of a variable missing from a scene is null.
+ * 
+ * Variables can be downsampled to the resolution of the plot showing them, in points. Their samples are then grouped in buckets and only the minimum and the maximum of each
+ * bucket are sent, in the order they occurred, at the time the bucket starts and ends, so that spikes are never lost. Buckets start with a single sample and double in size every
+ * time as many points as the resolution were sent, so a run of N samples costs about resolution * log2(N / resolution) points per variable and nothing but the current bucket is
+ * kept. Variables with different resolutions are sent in different batches, each with its own time column.
+ * 
+ */
+public class WatchDataStream
+{
+
+	// element of an array in a variable path, e.g. hhpop[0]
+	private static final Pattern ARRAY_ELEMENT = Pattern.compile("(.+)\\[(\\d+)\\]");
+
+	private final long _flushInterval;
+
+	private final int _maxSamples;
+
+	private Series[] _series = new Series[0];
+
+	// samples added since the variables were set, the time of the scenes without one
+	private long _sequence = 0;
+
+	private long _firstSampleTime;
+
+	private boolean _pending = false;
+
+	/**
+	 * @param flushInterval
+	 *            - milliseconds after which the samples collected are sent
+	 * @param maxSamples
+	 *            - samples after which they are sent, whatever the time
+	 */
+	public WatchDataStream(long flushInterval, int maxSamples)
+	{
+		this._flushInterval = flushInterval;
+		this._maxSamples = Math.max(1, maxSamples);
+	}
+
+	/**
+	 * Variables sharing a resolution, sent in the same batches
+	 */
+	private static class Series
+	{
+
+		private final String[] _paths;
+
+		private final String[][] _segments;
+
+		// points after which the buckets double, 0 to send every sample
+		private final int _resolution;
+
+		private double[] _time = new double[64];
+
+		private final double[][] _values;
+
+		private int _count = 0;
+
+		private int _bucketSize = 1;
+
+		private int _bucketFill = 0;
+
+		private int _epochPoints = 0;
+
+		private double _bucketStart;
+
+		private double _bucketEnd;
+
+		private final double[] _sample;
+
+		private final double[] _min;
+
+		private final double[] _max;
+
+		private final int[] _minAt;
+
+		private final int[] _maxAt;
+
+		private Series(List<String> paths, int resolution)
+		{
+			_paths = paths.toArray(new String[paths.size()]);
+			_segments = new String[_paths.length][];
+			_values = new double[_paths.length][];
+			for(int i = 0; i < _paths.length; i++)
+			{
+				_segments[i] = _paths[i].split("\\.");
+				_values[i] = new double[_time.length];
+			}
+			_resolution = resolution;
+			_sample = new double[_paths.length];
+			_min = new double[_paths.length];
+			_max = new double[_paths.length];
+			_minAt = new int[_paths.length];
+			_maxAt = new int[_paths.length];
+		}
+
+		private void add(JsonObject scene, double time)
+		{
+			for(int i = 0; i < _paths.length; i++)
+			{
+				_sample[i] = valueAt(scene, _segments[i]);
+			}
+			if(_bucketSize == 1)
+			{
+				append(time, _sample);
+				sent(1);
+				return;
+			}
+			if(_bucketFill == 0)
+			{
+				_bucketStart = time;
+			}
+			_bucketEnd = time;
+			for(int i = 0; i < _paths.length; i++)
+			{
+				double value = _sample[i];
+				if(_bucketFill == 0 || (Double.isNaN(_min[i]) && !Double.isNaN(value)))
+				{
+					_min[i] = _max[i] = value;
+					_minAt[i] = _maxAt[i] = _bucketFill;
+				}
+				else if(value < _min[i])
+				{
+					_min[i] = value;
+					_minAt[i] = _bucketFill;
+				}
+				else if(value > _max[i])
+				{
+					_max[i] = value;
+					_maxAt[i] = _bucketFill;
+				}
+			}
+			_bucketFill++;
+			if(_bucketFill == _bucketSize)
+			{
+				closeBucket();
+			}
+		}
+
+		/**
+		 * Appends the minimum and the maximum of the current bucket, even if it isn't full
+		 */
+		private void closeBucket()
+		{
+			if(_bucketFill == 0)
+			{
+				return;
+			}
+			if(_bucketFill == 1)
+			{
+				append(_bucketStart, _min);
+				_bucketFill = 0;
+				sent(1);
+				return;
+			}
+			for(int i = 0; i < _paths.length; i++)
+			{
+				_sample[i] = _minAt[i] <= _maxAt[i] ? _min[i] : _max[i];
+			}
+			append(_bucketStart, _sample);
+			for(int i = 0; i < _paths.length; i++)
+			{
+				_sample[i] = _minAt[i] <= _maxAt[i] ? _max[i] : _min[i];
+			}
+			append(_bucketEnd, _sample);
+			_bucketFill = 0;
+			sent(2);
+		}
+
+		private void sent(int points)
+		{
+			_epochPoints += points;
+			if(_resolution > 0 && _epochPoints >= _resolution)
+			{
+				// a bucket of 2 samples would send 2 points, the first one that saves anything has 4
+				_bucketSize = _bucketSize == 1 ? 4 : _bucketSize * 2;
+				_epochPoints = 0;
+			}
+		}
+
+		private void append(double time, double[] values)
+		{
+			if(_count == _time.length)
+			{
+				_time = Arrays.copyOf(_time, _count * 2);
+				for(int i = 0; i < _values.length; i++)
+				{
+					_values[i] = Arrays.copyOf(_values[i], _count * 2);
+				}
+			}
+			_time[_count] = time;
+			for(int i = 0; i < _values.length; i++)
+			{
+				_values[i][_count] = values[i];
+			}
+			_count++;
+		}
+
+		/**
+		 * @return the batch of the points not sent yet, null if there are none
+		 */
+		private String batch()
+		{
+			if(_count == 0)
+			{
+				return null;
+			}
+			StringBuilder batch = new StringBuilder(32 + _count * 12 * (_paths.length + 1));
+			batch.append("{\"time\":");
+			append(batch, _time);
+			batch.append(",\"variables\":{");
+			for(int i = 0; i < _paths.length; i++)
+			{
+				if(i > 0)
+				{
+					batch.append(',');
+				}
+				appendPath(batch, _paths[i]);
+				append(batch, _values[i]);
+			}
+			batch.append("}}");
+			_count = 0;
+			return batch.toString();
+		}
+
+		private void append(StringBuilder batch, double[] column)
+		{
+			batch.append('[');
+			for(int i = 0; i < _count; i++)
+			{
+				if(i > 0)
+				{
+					batch.append(',');
+				}
+				appendValue(batch, column[i]);
+			}
+			batch.append(']');
+		}
+	}
+
+	/**
+	 * Starts collecting other variables, dropping the samples not sent yet. All the variables are sent at full resolution.
+	 * 
+	 * @param paths
+	 *            - paths of the watched variables, empty to stop collecting
+	 */
+	public void setVariables(List<String> paths)
+	{
+		Map<String, Integer> resolutions = new LinkedHashMap<String, Integer>();
+		for(String path : paths)
+		{
+			resolutions.put(path, 0);
+		}
+		setVariables(resolutions);
+	}
+
+	/**
+	 * Starts collecting other variables, dropping the samples not sent yet
+	 * 
+	 * @param resolutions
+	 *            - resolution of every watched variable in points, 0 to send all the samples. Empty to stop collecting
+	 */
+	public synchronized void setVariables(Map<String, Integer> resolutions)
+	{
+		Map<Integer, List<String>> byResolution = new LinkedHashMap<Integer, List<String>>();
+		for(Map.Entry<String, Integer> variable : resolutions.entrySet())
+		{
+			int resolution = Math.max(0, variable.getValue());
+			List<String> paths = byResolution.get(resolution);
+			if(paths == null)
+			{
+				paths = new ArrayList<String>();
+				byResolution.put(resolution, paths);
+			}
+			paths.add(variable.getKey());
+		}
+		_series = new Series[byResolution.size()];
+		int i = 0;
+		for(Map.Entry<Integer, List<String>> series : byResolution.entrySet())
+		{
+			_series[i++] = new Series(series.getValue(), series.getKey());
+		}
+		_sequence = 0;
+		_pending = false;
+	}
+
+	public synchronized boolean isCollecting()
+	{
+		return _series.length > 0;
+	}
+
+	/**
+	 * Takes the values of the watched variables out of a scene
+	 * 
+	 * @param scene
+	 *            - scene update, see {@link #parseScene(String)}
+	 * @return the batches to send if it's time to send them, empty otherwise
+	 */
+	public synchronized List<String> add(JsonObject scene)
+	{
+		if(_series.length == 0)
+		{
+			return Collections.emptyList();
+		}
+		if(!_pending)
+		{
+			_firstSampleTime = System.currentTimeMillis();
+			_pending = true;
+		}
+		double time = timeOf(scene, _sequence++);
+		boolean full = false;
+		for(Series series : _series)
+		{
+			series.add(scene, time);
+			full |= series._count >= _maxSamples;
+		}
+		if(full || System.currentTimeMillis() - _firstSampleTime >= _flushInterval)
+		{
+			return batches(false);
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return the batches of all the samples not sent yet, including the ones of buckets not full yet
+	 */
+	public synchronized List<String> flush()
+	{
+		return batches(true);
+	}
+
+	private List<String> batches(boolean closeBuckets)
+	{
+		List<String> batches = new ArrayList<String>(_series.length);
+		for(Series series : _series)
+		{
+			if(closeBuckets)
+			{
+				series.closeBucket();
+			}
+			String batch = series.batch();
+			if(batch != null)
+			{
+				batches.add(batch);
+			}
+		}
+		_pending = false;
+		return batches;
+	}
+
+	/**
+	 * @param scene
+	 *            - scene update sent by the simulation
+	 * @return the scene, without the object wrapping it if there is one
+	 */
+	public static JsonObject parseScene(String scene)
+	{
+		JsonObject parsed = new JsonParser().parse(scene).getAsJsonObject();
+		if(parsed.has("scene") && parsed.get("scene").isJsonObject())
+		{
+			return parsed.getAsJsonObject("scene");
+		}
+		return parsed;
+	}
+
+	/**
+	 * @param scene
+	 *            - scene update, see {@link #parseScene(String)}
+	 * @param defaultTime
+	 *            - time of the scenes without one
+	 * @return simulation time of the scene
+	 */
+	static double timeOf(JsonObject scene, double defaultTime)
+	{
+		return value(scene.get("time"), defaultTime);
+	}
+
+	/**
+	 * @param scene
+	 *            - scene update, see {@link #parseScene(String)}
+	 * @param segments
+	 *            - path of a variable, split at the dots
+	 * @return value of the variable in the scene, NaN if it's missing
+	 */
+	static double valueAt(JsonObject scene, String[] segments)
+	{
+		return value(resolve(scene, segments), Double.NaN);
+	}
+
+	/**
+	 * Appends the name of a variable in a batch
+	 */
+	static void appendPath(StringBuilder batch, String path)
+	{
+		// paths come from the watch lists of the client, quotes in them would break the batch
+		batch.append('"').append(path.replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+	}
+
+	/**
+	 * Appends a value in a batch, null if it's missing
+	 */
+	static void appendValue(StringBuilder batch, double value)
+	{
+		if(Double.isNaN(value) || Double.isInfinite(value))
+		{
+			batch.append("null");
+		}
+		else
+		{
+			batch.append(value);
+		}
+	}
+
+	/**
+	 * @return the node of the scene at the path, null if there is none
+	 */
+	private static JsonElement resolve(JsonObject scene, String[] segments)
+	{
+		JsonElement node = scene;
+		for(String segment : segments)
+		{
+			if(node == null || !node.isJsonObject())
+			{
+				return null;
+			}
+			JsonObject object = node.getAsJsonObject();
+			if(object.has(segment))
+			{
+				node = object.get(segment);
+				continue;
+			}
+			Matcher element = ARRAY_ELEMENT.matcher(segment);
+			if(!element.matches() || !object.has(element.group(1)) || !object.get(element.group(1)).isJsonArray())
+			{
+				return null;
+			}
+			JsonArray array = object.getAsJsonArray(element.group(1));
+			int index = Integer.parseInt(element.group(2));
+			node = index < array.size() ? array.get(index) : null;
+		}
+		return node;
+	}
+
+	/**
+	 * @return the number of a node, either a number or an object with a value, the default if there is none
+	 */
+	private static double value(JsonElement node, double defaultValue)
+	{
+		if(node != null && node.isJsonObject())
+		{
+			node = node.getAsJsonObject().get("value");
+		}
+		if(node != null && node.isJsonPrimitive() && node.getAsJsonPrimitive().isNumber())
+		{
+			return node.getAsDouble();
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Recent values of the watched variables of a simulation, for the clients that start receiving them while the simulation runs, e.g. an observer joining or a plot opened
+ * later. The last samples of every variable are kept in arrays allocated when the variables are set and written in a ring, so recording a sample doesn't allocate and the memory
+ * taken doesn't grow with the length of the run. The history is sent in the same columnar format of the WATCH_DATA messages, flagged as history:
+ * 
+ * <pre>
+ * {"history":true,"time":[...],"variables":{"hhcell.electrical.SimulationTree.v":[...],...}}
+ * </pre>
+ * 
+ */
+public class WatchHistory
+{
+
+	private final int _capacity;
+
+	// watched variables with the resolution of their plots
+	private Map<String, Integer> _variables = Collections.emptyMap();
+
+	private String[] _paths = new String[0];
+
+	private String[][] _segments = new String[0][];
+
+	private double[] _time = new double[0];
+
+	private double[][] _values = new double[0][];
+
+	// position of the next sample
+	private int _head = 0;
+
+	private int _count = 0;
+
+	// samples recorded since the variables were set, the time of the scenes without one
+	private long _sequence = 0;
+
+	private boolean _recording = false;
+
+	/**
+	 * @param capacity
+	 *            - samples kept for every variable, 0 to keep none
+	 */
+	public WatchHistory(int capacity)
+	{
+		this._capacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * Starts recording the watched variables. The history is kept if the variables didn't change, e.g. when watching starts again after being stopped.
+	 * 
+	 * @param variables
+	 *            - watched variables, with the resolution of their plots
+	 */
+	public synchronized void start(Map<String, Integer> variables)
+	{
+		if(!variables.keySet().equals(_variables.keySet()))
+		{
+			_paths = variables.keySet().toArray(new String[variables.size()]);
+			_segments = new String[_paths.length][];
+			_values = new double[_paths.length][];
+			for(int i = 0; i < _paths.length; i++)
+			{
+				_segments[i] = _paths[i].split("\\.");
+				_values[i] = new double[_capacity];
+			}
+			_time = new double[_paths.length > 0 ? _capacity : 0];
+			_head = 0;
+			_count = 0;
+			_sequence = 0;
+		}
+		_variables = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(variables));
+		_recording = _paths.length > 0 && _capacity > 0;
+	}
+
+	/**
+	 * Stops recording, keeping the history
+	 */
+	public synchronized void stop()
+	{
+		_recording = false;
+	}
+
+	/**
+	 * Stops recording and forgets the variables and their history
+	 */
+	public synchronized void clear()
+	{
+		start(Collections.<String, Integer> emptyMap());
+	}
+
+	public synchronized boolean isRecording()
+	{
+		return _recording;
+	}
+
+	/**
+	 * @return watched variables, with the resolution of their plots
+	 */
+	public synchronized Map<String, Integer> getVariables()
+	{
+		return _variables;
+	}
+
+	/**
+	 * Records the values of the watched variables in a scene
+	 * 
+	 * @param scene
+	 *            - scene update, see {@link WatchDataStream#parseScene(String)}
+	 */
+	public synchronized void add(JsonObject scene)
+	{
+		if(!_recording)
+		{
+			return;
+		}
+		_time[_head] = WatchDataStream.timeOf(scene, _sequence++);
+		for(int i = 0; i < _paths.length; i++)
+		{
+			_values[i][_head] = WatchDataStream.valueAt(scene, _segments[i]);
+		}
+		_head = (_head + 1) % _capacity;
+		if(_count < _capacity)
+		{
+			_count++;
+		}
+	}
+
+	/**
+	 * @return the samples kept, oldest first, null if there are none
+	 */
+	public synchronized String getHistory()
+	{
+		if(_count == 0)
+		{
+			return null;
+		}
+		StringBuilder history = new StringBuilder(48 + _count * 12 * (_paths.length + 1));
+		history.append("{\"history\":true,\"time\":");
+		append(history, _time);
+		history.append(",\"variables\":{");
+		for(int i = 0; i < _paths.length; i++)
+		{
+			if(i > 0)
+			{
+				history.append(',');
+			}
+			WatchDataStream.appendPath(history, _paths[i]);
+			append(history, _values[i]);
+		}
+		history.append("}}");
+		return history.toString();
+	}
+
+	private void append(StringBuilder history, double[] ring)
+	{
+		int oldest = (_head - _count + _capacity) % _capacity;
+		history.append('[');
+		for(int i = 0; i < _count; i++)
+		{
+			if(i > 0)
+			{
+				history.append(',');
+			}
+			WatchDataStream.appendValue(history, ring[(oldest + i) % _capacity]);
+		}
+		history.append(']');
+	}
+}
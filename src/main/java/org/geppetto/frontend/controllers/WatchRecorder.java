@@ -0,0 +1,474 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.controllers;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Values of the watched variables of a simulation for the whole run, to be exported once it's over. The samples are collected in chunks of columns, one for the time and one for
+ * every variable, and every full chunk is compressed and appended to a file on local disk through its channel, so the memory taken doesn't grow with the length of the run. An
+ * index of the chunks with the times they span is kept in memory, and an export reads back only the chunks in the requested time range, one at a time.
+ * 
+ * The file is deleted when the variables change or the recording is cleared, it isn't meant to outlive the recording.
+ * 
+ */
+public class WatchRecorder
+{
+
+	private static Log _logger = LogFactory.getLog(WatchRecorder.class);
+
+	// where the chunks are written, null to record nothing
+	private final File _directory;
+
+	private final int _chunkSize;
+
+	private final Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+
+	private String[] _paths = new String[0];
+
+	private String[][] _segments = new String[0][];
+
+	// chunk being collected, column by column
+	private double[] _time = new double[0];
+
+	private double[][] _values = new double[0][];
+
+	private int _count = 0;
+
+	// samples recorded since the variables were set, the time of the scenes without one
+	private long _sequence = 0;
+
+	private boolean _recording = false;
+
+	private File _file;
+
+	private FileChannel _channel;
+
+	// chunks written to the file
+	private final List<Chunk> _chunks = new ArrayList<Chunk>();
+
+	private long _size = 0;
+
+	/**
+	 * A compressed chunk in the file
+	 */
+	private static class Chunk
+	{
+		final long position;
+
+		final int length;
+
+		final int samples;
+
+		final double from;
+
+		final double to;
+
+		Chunk(long position, int length, int samples, double from, double to)
+		{
+			this.position = position;
+			this.length = length;
+			this.samples = samples;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * @param directory
+	 *            - where the recordings are written, null to record nothing
+	 * @param chunkSize
+	 *            - samples of every variable compressed and written together
+	 */
+	public WatchRecorder(File directory, int chunkSize)
+	{
+		this._directory = chunkSize > 0 ? directory : null;
+		this._chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * Starts recording the watched variables. The recording goes on if the variables didn't change, e.g. when watching starts again after being stopped.
+	 * 
+	 * @param paths
+	 *            - paths of the watched variables
+	 */
+	public synchronized void start(Collection<String> paths)
+	{
+		if(_directory == null)
+		{
+			return;
+		}
+		if(!Arrays.asList(_paths).equals(new ArrayList<String>(paths)))
+		{
+			clear();
+			_paths = paths.toArray(new String[paths.size()]);
+			_segments = new String[_paths.length][];
+			_values = new double[_paths.length][];
+			for(int i = 0; i < _paths.length; i++)
+			{
+				_segments[i] = _paths[i].split("\\.");
+				_values[i] = new double[_chunkSize];
+			}
+			_time = new double[_paths.length > 0 ? _chunkSize : 0];
+		}
+		if(_paths.length > 0 && _channel == null)
+		{
+			try
+			{
+				_directory.mkdirs();
+				_file = File.createTempFile("watch", ".chunks", _directory);
+				_file.deleteOnExit();
+				_channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			catch(IOException e)
+			{
+				_logger.warn("Unable to record the watched variables in " + _directory + " " + e.getMessage());
+				close();
+			}
+		}
+		_recording = _channel != null;
+	}
+
+	/**
+	 * Stops recording, keeping what was recorded
+	 */
+	public synchronized void stop()
+	{
+		_recording = false;
+	}
+
+	/**
+	 * Stops recording and deletes the recording
+	 */
+	public synchronized void clear()
+	{
+		close();
+		_paths = new String[0];
+		_segments = new String[0][];
+		_time = new double[0];
+		_values = new double[0][];
+		_count = 0;
+		_sequence = 0;
+	}
+
+	private void close()
+	{
+		_recording = false;
+		_chunks.clear();
+		_size = 0;
+		if(_channel != null)
+		{
+			try
+			{
+				_channel.close();
+			}
+			catch(IOException e)
+			{
+				_logger.warn("Unable to close the recording " + _file + " " + e.getMessage());
+			}
+			_channel = null;
+		}
+		if(_file != null)
+		{
+			if(!_file.delete())
+			{
+				_logger.warn("Unable to delete the recording " + _file);
+			}
+			_file = null;
+		}
+	}
+
+	public synchronized boolean isRecording()
+	{
+		return _recording;
+	}
+
+	/**
+	 * @return true if nothing was recorded
+	 */
+	public synchronized boolean isEmpty()
+	{
+		return _chunks.isEmpty() && _count == 0;
+	}
+
+	/**
+	 * @return bytes written to disk
+	 */
+	public synchronized long getSize()
+	{
+		return _size;
+	}
+
+	/**
+	 * Records the values of the watched variables in a scene
+	 * 
+	 * @param scene
+	 *            - scene update, see {@link WatchDataStream#parseScene(String)}
+	 */
+	public synchronized void add(JsonObject scene)
+	{
+		if(!_recording)
+		{
+			return;
+		}
+		_time[_count] = WatchDataStream.timeOf(scene, _sequence++);
+		for(int i = 0; i < _paths.length; i++)
+		{
+			_values[i][_count] = WatchDataStream.valueAt(scene, _segments[i]);
+		}
+		if(++_count == _chunkSize)
+		{
+			write();
+		}
+	}
+
+	/**
+	 * Compresses the chunk collected and appends it to the file
+	 */
+	private void write()
+	{
+		ByteBuffer columns = ByteBuffer.allocate(_count * (_paths.length + 1) * 8);
+		put(columns, _time, _count);
+		for(double[] column : _values)
+		{
+			put(columns, column, _count);
+		}
+		_deflater.reset();
+		_deflater.setInput(columns.array());
+		_deflater.finish();
+		byte[] compressed = new byte[columns.capacity() / 2 + 64];
+		int length = 0;
+		while(!_deflater.finished())
+		{
+			if(length == compressed.length)
+			{
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			length += _deflater.deflate(compressed, length, compressed.length - length);
+		}
+		try
+		{
+			ByteBuffer chunk = ByteBuffer.wrap(compressed, 0, length);
+			while(chunk.hasRemaining())
+			{
+				_channel.write(chunk, _size + chunk.position());
+			}
+			_chunks.add(new Chunk(_size, length, _count, min(_time, _count), max(_time, _count)));
+			_size += length;
+			_count = 0;
+		}
+		catch(IOException e)
+		{
+			// keeps what was recorded so far
+			_logger.warn("Unable to write to the recording " + _file + ", recording stopped " + e.getMessage());
+			_recording = false;
+			_count = 0;
+		}
+	}
+
+	/**
+	 * Writes the samples recorded in a time range as CSV, a row for every sample with the time and the value of every variable, empty if it's missing. The chunks are read from
+	 * disk one at a time.
+	 * 
+	 * @param from
+	 *            - time of the first sample, inclusive
+	 * @param to
+	 *            - time of the last sample, inclusive
+	 * @param out
+	 * @throws IOException
+	 */
+	public void export(double from, double to, Writer out) throws IOException
+	{
+		String[] paths;
+		List<Chunk> chunks;
+		FileChannel channel;
+		double[][] tail;
+		int count;
+		synchronized(this)
+		{
+			paths = _paths;
+			chunks = new ArrayList<Chunk>(_chunks);
+			channel = _channel;
+			count = _count;
+			tail = new double[paths.length + 1][];
+			tail[0] = Arrays.copyOf(_time, count);
+			for(int i = 0; i < paths.length; i++)
+			{
+				tail[i + 1] = Arrays.copyOf(_values[i], count);
+			}
+		}
+
+		StringBuilder row = new StringBuilder();
+		row.append("time");
+		for(String path : paths)
+		{
+			row.append(",\"").append(path.replace("\"", "\"\"")).append('"');
+		}
+		row.append('\n');
+		out.write(row.toString());
+
+		Inflater inflater = new Inflater();
+		try
+		{
+			for(Chunk chunk : chunks)
+			{
+				if(chunk.to >= from && chunk.from <= to)
+				{
+					write(read(channel, chunk, paths.length + 1, inflater), chunk.samples, from, to, row, out);
+				}
+			}
+		}
+		finally
+		{
+			inflater.end();
+		}
+		write(tail, count, from, to, row, out);
+	}
+
+	/**
+	 * @return the columns of a chunk
+	 */
+	private static double[][] read(FileChannel channel, Chunk chunk, int columns, Inflater inflater) throws IOException
+	{
+		ByteBuffer compressed = ByteBuffer.allocate(chunk.length);
+		while(compressed.hasRemaining())
+		{
+			if(channel.read(compressed, chunk.position + compressed.position()) < 0)
+			{
+				throw new EOFException("Recording truncated");
+			}
+		}
+		byte[] raw = new byte[chunk.samples * columns * 8];
+		inflater.reset();
+		inflater.setInput(compressed.array());
+		try
+		{
+			int length = 0;
+			while(length < raw.length && !inflater.finished())
+			{
+				int inflated = inflater.inflate(raw, length, raw.length - length);
+				if(inflated == 0 && inflater.needsInput())
+				{
+					break;
+				}
+				length += inflated;
+			}
+			if(length < raw.length)
+			{
+				throw new EOFException("Chunk of the recording truncated");
+			}
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException("Chunk of the recording corrupted", e);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(raw);
+		double[][] data = new double[columns][chunk.samples];
+		for(double[] column : data)
+		{
+			buffer.asDoubleBuffer().get(column);
+			buffer.position(buffer.position() + chunk.samples * 8);
+		}
+		return data;
+	}
+
+	private static void write(double[][] columns, int samples, double from, double to, StringBuilder row, Writer out) throws IOException
+	{
+		for(int i = 0; i < samples; i++)
+		{
+			double time = columns[0][i];
+			if(time < from || time > to)
+			{
+				continue;
+			}
+			row.setLength(0);
+			row.append(time);
+			for(int j = 1; j < columns.length; j++)
+			{
+				row.append(',');
+				double value = columns[j][i];
+				if(!Double.isNaN(value) && !Double.isInfinite(value))
+				{
+					row.append(value);
+				}
+			}
+			row.append('\n');
+			out.write(row.toString());
+		}
+	}
+
+	private static void put(ByteBuffer buffer, double[] column, int count)
+	{
+		buffer.asDoubleBuffer().put(column, 0, count);
+		buffer.position(buffer.position() + count * 8);
+	}
+
+	private static double min(double[] column, int count)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < count; i++)
+		{
+			min = Math.min(min, column[i]);
+		}
+		return min;
+	}
+
+	private static double max(double[] column, int count)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < count; i++)
+		{
+			max = Math.max(max, column[i]);
+		}
+		return max;
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.geppetto.frontend.BinaryMessageEncoder;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.TextOutboundFrame;
+import org.geppetto.frontend.TransportMessageFactory;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Decodes messages of the binary protocol the way a client would
+ * 
+ */
+public class TestBinaryMessageEncoder
+{
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testSceneUpdate()
+	{
+		String scene = "{\"scene\":{\"time\":{\"value\":0.5,\"unit\":\"ms\"},\"position\":[1,2,3],\"v\":[0,1,2,3,4,5,6,7,8.5,-9e-3]}}";
+		ByteBuffer buffer = TransportMessageFactory.getBinaryTransportMessage("Visitor1-3", OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, scene).order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(BinaryMessageEncoder.VERSION, buffer.get());
+		assertEquals(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE.ordinal(), buffer.get());
+
+		byte[] requestID = new byte[buffer.getShort()];
+		buffer.get(requestID);
+		assertEquals("Visitor1-3", new String(requestID, UTF_8));
+
+		byte[] data = new byte[buffer.getInt()];
+		buffer.get(data);
+		JsonObject update = new JsonParser().parse(new String(data, UTF_8)).getAsJsonObject().getAsJsonObject("update");
+		JsonObject sceneObject = update.getAsJsonObject("scene");
+		// short arrays stay in the JSON, long ones are replaced by a reference
+		assertEquals(3, sceneObject.getAsJsonArray("position").size());
+		assertEquals(0, sceneObject.getAsJsonObject("v").get(BinaryMessageEncoder.ARRAY_PLACEHOLDER).getAsInt());
+
+		assertEquals(1, buffer.getInt());
+		assertEquals(10, buffer.getInt());
+		buffer.position((buffer.position() + 7) & ~7);
+		assertEquals(0.0, buffer.getDouble(), 0);
+		for(int i = 1; i < 8; i++)
+		{
+			buffer.getDouble();
+		}
+		assertEquals(8.5, buffer.getDouble(), 0);
+		assertEquals(-9e-3, buffer.getDouble(), 0);
+		assertTrue(!buffer.hasRemaining());
+	}
+
+	@Test
+	public void testMixedArrayKeepsNumbers()
+	{
+		String scene = "{\"v\":[0,1,2,3,4,5,6,7,8,12345678901234567890,1e2,\"end\"]}";
+		ByteBuffer buffer = TransportMessageFactory.getBinaryTransportMessage("Visitor1-4", OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, scene).order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.position(2);
+		buffer.position(buffer.position() + 2 + buffer.getShort());
+		byte[] data = new byte[buffer.getInt()];
+		buffer.get(data);
+
+		// not only numbers, the array stays in the JSON as it was
+		assertTrue(new String(data, UTF_8).contains("[0,1,2,3,4,5,6,7,8,12345678901234567890,1e2,\"end\"]"));
+		assertEquals(0, buffer.getInt());
+	}
+
+	@Test
+	public void testBinaryMessageFromClient() throws Exception
+	{
+		final List<Runnable> scheduled = new ArrayList<Runnable>();
+		BinaryClient client = new BinaryClient(new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				scheduled.add(command);
+			}
+		});
+
+		client.receive(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+		// the client is disconnected, the close frame is written by the drain of its queue
+		assertEquals(1, scheduled.size());
+		assertFalse(client.getOutboundQueue().offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "1")));
+	}
+
+	/**
+	 * Connection receiving binary frames
+	 */
+	private static class BinaryClient extends GeppettoMessageInbound
+	{
+
+		BinaryClient(Executor writer)
+		{
+			super("Visitor1", writer);
+		}
+
+		void receive(ByteBuffer message) throws IOException
+		{
+			onBinaryMessage(message);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.geppetto.frontend.controllers.Bulkhead;
+import org.junit.Test;
+
+/**
+ * Checks that a saturated bulkhead rejects operations instead of queuing them
+ * 
+ */
+public class TestBulkhead
+{
+
+	@Test
+	public void testSaturation() throws InterruptedException
+	{
+		Bulkhead bulkhead = new Bulkhead("test", 1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable operation = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				started.countDown();
+				try
+				{
+					release.await();
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		try
+		{
+			bulkhead.execute(operation);
+			started.await();
+			// one operation running and one waiting, the third one is rejected
+			bulkhead.execute(operation);
+			try
+			{
+				bulkhead.execute(operation);
+				fail("operation accepted by a saturated bulkhead");
+			}
+			catch(RejectedExecutionException e)
+			{
+				assertEquals(1, bulkhead.getRejectedCount());
+			}
+			assertEquals(1, bulkhead.getActiveCount());
+			assertEquals(1, bulkhead.getQueueSize());
+			assertTrue(bulkhead.getRetryAfter() >= 1000);
+		}
+		finally
+		{
+			release.countDown();
+			bulkhead.shutdown();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geppetto.frontend.controllers.ConnectionRegistry;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.junit.Test;
+
+/**
+ * Checks the connections exported through JMX when no client is connected
+ * 
+ */
+public class TestConnectionRegistry
+{
+
+	private GeppettoServletController controller = GeppettoServletController.getInstance();
+
+	@Test
+	public void testNoConnections()
+	{
+		ConnectionRegistry registry = new ConnectionRegistry(controller);
+
+		assertEquals(0, registry.getConnectionCount());
+		assertEquals(0, registry.getControllingCount());
+		assertEquals(0, registry.getWaitlistLength());
+		assertEquals(0, registry.getConnectionIDs().length);
+		assertNull(registry.getControllingVisitor());
+	}
+
+	@Test
+	public void testUnknownConnection()
+	{
+		ConnectionRegistry registry = new ConnectionRegistry(controller);
+
+		assertFalse(registry.disconnect("Visitor0"));
+		assertFalse(registry.demote("Visitor0"));
+	}
+
+	@Test
+	public void testRegistered() throws Exception
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.geppetto.frontend:type=Connections");
+
+		assertEquals(0, server.getAttribute(name, "ConnectionCount"));
+		assertEquals(Boolean.FALSE, server.invoke(name, "demote", new Object[] { "Visitor0" }, new String[] { String.class.getName() }));
+	}
+
+	@Test
+	public void testDisabledUserIsRemoved() throws Exception
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.geppetto.frontend:type=Connection,name=" + ObjectName.quote("Visitor9"));
+		// the messages stay queued
+		GeppettoMessageInbound visitor = new GeppettoMessageInbound("Visitor9", new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+			}
+		});
+
+		controller.addConnection(visitor);
+		assertTrue(server.isRegistered(name));
+		controller.disableUser(null, visitor);
+
+		// removed like a connection closed by the client
+		assertFalse(server.isRegistered(name));
+		assertNull(controller.getConnection("Visitor9"));
+	}
+
+	@Test
+	public void testWatchDataOnlyForOwnSession()
+	{
+		GeppettoMessageInbound visitor = new GeppettoMessageInbound("Visitor8", new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+			}
+		});
+		visitor.setSessionID("session1");
+
+		controller.addConnection(visitor);
+		try
+		{
+			assertNotNull(controller.getWatchRecorder("Visitor8", "session1"));
+			// guessing the connection ID isn't enough
+			assertNull(controller.getWatchRecorder("Visitor8", "session2"));
+			assertNull(controller.getWatchRecorder("Visitor8", null));
+		}
+		finally
+		{
+			controller.removeConnection(visitor);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.apache.catalina.websocket.WsOutbound;
+import org.apache.coyote.http11.upgrade.UpgradeOutbound;
+import org.geppetto.frontend.BinaryOutboundFrame;
+import org.geppetto.frontend.EncodedOutboundFrame;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.TextOutboundFrame;
+import org.junit.Test;
+
+/**
+ * Writes encoded frames to a web socket and reads back the messages the client receives
+ * 
+ */
+public class TestEncodedOutboundFrame
+{
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Collects the bytes written to the socket
+	 */
+	private static class Socket extends UpgradeOutbound
+	{
+		private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+
+		Socket()
+		{
+			super(null);
+		}
+
+		@Override
+		public void write(int b)
+		{
+			_bytes.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			_bytes.write(b, off, len);
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		/**
+		 * @return payload of the fragments sent, put back together
+		 */
+		byte[] getMessage()
+		{
+			ByteBuffer frames = ByteBuffer.wrap(_bytes.toByteArray());
+			ByteArrayOutputStream message = new ByteArrayOutputStream();
+			while(frames.hasRemaining())
+			{
+				frames.get();
+				long length = frames.get() & 0x7F;
+				if(length == 126)
+				{
+					length = frames.getShort() & 0xFFFF;
+				}
+				else if(length == 127)
+				{
+					length = frames.getLong();
+				}
+				byte[] payload = new byte[(int) length];
+				frames.get(payload);
+				message.write(payload, 0, payload.length);
+			}
+			return message.toByteArray();
+		}
+	}
+
+	private static String scene(int entities)
+	{
+		StringBuilder scene = new StringBuilder("{\"entities\":{");
+		for(int i = 0; i < entities; i++)
+		{
+			scene.append(i == 0 ? "" : ",").append("\"entity").append(i).append("\":{\"name\":\"\u00e9l\u00e9ment ").append(i).append("\",\"v\":-60.0}");
+		}
+		return scene.append("}}").toString();
+	}
+
+	@Test
+	public void testDeflatedText() throws IOException
+	{
+		String scene = scene(2000);
+		EncodedOutboundFrame frame = EncodedOutboundFrame.encode(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, scene), true);
+
+		assertEquals(scene.getBytes(UTF_8).length, frame.getLength());
+		assertTrue(frame.getEncodedLength() < frame.getLength() / 4);
+		assertEquals(scene, frame.getText());
+
+		// the message is larger than the buffer of the socket and is sent in several fragments, every observer gets it whole
+		for(int i = 0; i < 2; i++)
+		{
+			Socket socket = new Socket();
+			frame.writeTo(new WsOutbound(socket, 8192, 8192));
+			assertEquals(scene, new String(socket.getMessage(), UTF_8));
+		}
+	}
+
+	@Test
+	public void testBinary() throws IOException
+	{
+		byte[] message = scene(100).getBytes(UTF_8);
+		for(boolean deflate : new boolean[] { false, true })
+		{
+			EncodedOutboundFrame frame = EncodedOutboundFrame.encode(new BinaryOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, ByteBuffer.wrap(message)), deflate);
+
+			Socket socket = new Socket();
+			frame.writeTo(new WsOutbound(socket, 1024, 1024));
+			assertEquals(new String(message, UTF_8), new String(socket.getMessage(), UTF_8));
+		}
+
+		// the message decoded by the first write is shared by the next ones
+		EncodedOutboundFrame frame = EncodedOutboundFrame.encode(new BinaryOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, ByteBuffer.wrap(message)), true);
+		for(int i = 0; i < 2; i++)
+		{
+			Socket socket = new Socket();
+			frame.writeTo(new WsOutbound(socket, 1024, 1024));
+			assertEquals(new String(message, UTF_8), new String(socket.getMessage(), UTF_8));
+		}
+
+		// frames that are not encoded are written as a whole
+		Socket socket = new Socket();
+		new BinaryOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, ByteBuffer.wrap(message)).writeTo(new WsOutbound(socket, 1024, 1024));
+		assertEquals(new String(message, UTF_8), new String(socket.getMessage(), UTF_8));
+	}
+}
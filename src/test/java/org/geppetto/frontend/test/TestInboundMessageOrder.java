@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.common.GeppettoInitializationException;
+import org.geppetto.core.data.model.VariableList;
+import org.geppetto.core.data.model.WatchList;
+import org.geppetto.core.simulation.ISimulation;
+import org.geppetto.core.simulation.ISimulationCallbackListener;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.geppetto.frontend.controllers.SimulationServerConfig;
+import org.geppetto.frontend.controllers.SimulationServerConfig.ServerBehaviorModes;
+import org.junit.Test;
+
+/**
+ * Checks that the messages of a client are handled in order, including the ones run on a bulkhead
+ * 
+ */
+public class TestInboundMessageOrder
+{
+
+	/**
+	 * Records when the simulation is loaded and started, the load takes a while
+	 */
+	private static class RecordingSimulation implements ISimulation
+	{
+
+		private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		@Override
+		public void init(URL simConfigURL, String requestID, ISimulationCallbackListener listener) throws GeppettoInitializationException
+		{
+			init(simConfigURL.toString(), requestID, listener);
+		}
+
+		@Override
+		public void init(String simulationConfig, String requestID, ISimulationCallbackListener listener) throws GeppettoInitializationException
+		{
+			try
+			{
+				Thread.sleep(300);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			calls.add("init");
+		}
+
+		@Override
+		public void start(String requestID) throws GeppettoExecutionException
+		{
+			calls.add("start");
+			started.countDown();
+		}
+
+		@Override
+		public void pause() throws GeppettoExecutionException
+		{
+		}
+
+		@Override
+		public void stop() throws GeppettoExecutionException
+		{
+		}
+
+		@Override
+		public boolean isRunning()
+		{
+			return false;
+		}
+
+		@Override
+		public VariableList listWatchableVariables()
+		{
+			return null;
+		}
+
+		@Override
+		public VariableList listForceableVariables()
+		{
+			return null;
+		}
+
+		@Override
+		public void addWatchLists(List<WatchList> lists) throws GeppettoExecutionException, GeppettoInitializationException
+		{
+		}
+
+		@Override
+		public void startWatch()
+		{
+		}
+
+		@Override
+		public void stopWatch()
+		{
+		}
+
+		@Override
+		public void clearWatchLists()
+		{
+		}
+
+		@Override
+		public List<WatchList> getWatchLists()
+		{
+			return null;
+		}
+
+		@Override
+		public String getSimulationConfig(URL simURL) throws GeppettoInitializationException
+		{
+			return "<simulation/>";
+		}
+
+		@Override
+		public int getSimulationCapacity()
+		{
+			return 1;
+		}
+
+		@Override
+		public List<URL> getScripts()
+		{
+			return null;
+		}
+
+		@Override
+		public String getModelTree(String aspectInstancePath)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Connection running the recording simulation, its messages stay queued
+	 */
+	private static class TestConnection extends GeppettoMessageInbound
+	{
+
+		private final ISimulation simulation;
+
+		TestConnection(ISimulation simulation)
+		{
+			super("Visitor1", new Executor()
+			{
+				@Override
+				public void execute(Runnable command)
+				{
+				}
+			});
+			this.simulation = simulation;
+		}
+
+		@Override
+		public synchronized ISimulation getSimulationService()
+		{
+			return simulation;
+		}
+
+		void receive(String type, String data)
+		{
+			onTextMessage(CharBuffer.wrap("{\"requestID\":\"" + type + "\",\"type\":\"" + type + "\",\"data\":\"" + data + "\"}"));
+		}
+	}
+
+	@Test
+	public void testLoadBeforeStart() throws IOException, InterruptedException
+	{
+		File simulationFile = File.createTempFile("simulation", ".xml");
+		simulationFile.deleteOnExit();
+		FileWriter writer = new FileWriter(simulationFile);
+		writer.write("<simulation/>");
+		writer.close();
+
+		SimulationServerConfig config = GeppettoServletController.getInstance().getSimulationServerConfig();
+		ServerBehaviorModes mode = config.getServerBehaviorMode();
+		config.setServerBehaviorMode(ServerBehaviorModes.MULTIUSER);
+		try
+		{
+			RecordingSimulation simulation = new RecordingSimulation();
+			TestConnection connection = new TestConnection(simulation);
+
+			// the load runs on a bulkhead, the start waits for it
+			connection.receive("init_url", simulationFile.toURI().toURL().toString());
+			connection.receive("start", "");
+
+			assertTrue(simulation.started.await(10, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("init", "start"), simulation.calls);
+		}
+		finally
+		{
+			config.setServerBehaviorMode(mode);
+		}
+	}
+}
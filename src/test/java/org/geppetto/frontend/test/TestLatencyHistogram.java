@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.frontend.INBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.geppetto.frontend.controllers.LatencyHistogram;
+import org.geppetto.frontend.controllers.RequestLatencyTracker;
+import org.junit.Test;
+
+/**
+ * Checks the percentiles of the latency histograms and the correlation of requests and replies
+ * 
+ */
+public class TestLatencyHistogram
+{
+
+	@Test
+	public void testPercentiles()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 1; i <= 1000; i++)
+		{
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		assertEquals(1000, histogram.getMax(), 0);
+		// percentiles are within 1/16th of the actual value
+		assertEquals(500, histogram.getP50(), 500 / 16.0);
+		assertEquals(990, histogram.getP99(), 990 / 16.0);
+		assertEquals(999, histogram.getP999(), 999 / 16.0);
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getP99(), 0);
+	}
+
+	@Test
+	public void testSmallLatencies()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(3000);
+		histogram.record(7000);
+
+		assertEquals(3, histogram.getPercentile(0.5));
+		assertEquals(7, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testRequestCorrelation()
+	{
+		RequestLatencyTracker tracker = new RequestLatencyTracker();
+		GeppettoMessageInbound first = new GeppettoMessageInbound("Visitor1");
+		GeppettoMessageInbound second = new GeppettoMessageInbound("Visitor2");
+
+		tracker.received(first, "1", INBOUND_MESSAGE_TYPES.GET_MODEL_TREE);
+		tracker.received(second, "1", INBOUND_MESSAGE_TYPES.START);
+		tracker.received(second, "2", INBOUND_MESSAGE_TYPES.PAUSE);
+		assertEquals(3, tracker.getPendingCount());
+
+		// only the first reply to a request is measured
+		tracker.replied(first, "1");
+		tracker.replied(first, "1");
+		tracker.replied(second, null);
+		assertEquals(1, tracker.getHistogram(INBOUND_MESSAGE_TYPES.GET_MODEL_TREE).getCount());
+		assertEquals(0, tracker.getHistogram(INBOUND_MESSAGE_TYPES.START).getCount());
+
+		tracker.connectionClosed(second);
+		assertEquals(0, tracker.getPendingCount());
+	}
+}
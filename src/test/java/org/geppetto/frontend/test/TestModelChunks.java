@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.geppetto.frontend.ModelChunks;
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Splits a model in chunks and puts it back together the way a client would
+ * 
+ */
+public class TestModelChunks
+{
+
+	@Test
+	public void testSplit()
+	{
+		StringBuilder model = new StringBuilder("{\"entities\":{\"scene\":{");
+		for(int i = 0; i < 100; i++)
+		{
+			model.append(i == 0 ? "" : ",").append("\"entity").append(i).append("\":{\"v\":-60,\"position\":[").append(i).append(",0,0]}");
+		}
+		model.append("}}}");
+
+		ModelChunks chunks = ModelChunks.split(model.toString(), 500);
+
+		JsonParser parser = new JsonParser();
+		JsonObject begin = parser.parse(chunks.getBegin()).getAsJsonObject();
+		assertEquals("[\"entities\",\"scene\"]", begin.get("path").toString());
+		assertEquals(chunks.getChunks().size(), begin.get("chunks").getAsInt());
+		assertEquals(chunks.getChunks().size(), parser.parse(chunks.getEnd()).getAsJsonObject().get("chunks").getAsInt());
+
+		JsonObject scene = new JsonObject();
+		for(int i = 0; i < chunks.getChunks().size(); i++)
+		{
+			String chunk = chunks.getChunks().get(i);
+			// chunks are closed as soon as they reach the size, an entity is about 50 characters
+			assertEquals(true, chunk.length() < 600);
+			JsonObject message = parser.parse(chunk).getAsJsonObject();
+			assertEquals(i, message.get("index").getAsInt());
+			for(Map.Entry<String, JsonElement> entity : message.getAsJsonObject("entities").entrySet())
+			{
+				scene.add(entity.getKey(), entity.getValue());
+			}
+		}
+		assertEquals(parser.parse(model.toString()).getAsJsonObject().getAsJsonObject("entities").getAsJsonObject("scene"), scene);
+	}
+
+	@Test
+	public void testEmptyModel()
+	{
+		ModelChunks chunks = ModelChunks.split("{}", 500);
+
+		assertEquals(1, chunks.getChunks().size());
+		assertEquals("{\"index\":0,\"entities\":{}}", chunks.getChunks().get(0));
+	}
+}
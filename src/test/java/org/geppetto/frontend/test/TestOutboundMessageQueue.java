@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.catalina.websocket.Constants;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.TextOutboundFrame;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.geppetto.frontend.controllers.OutboundMessageQueue;
+import org.geppetto.frontend.controllers.OutboundMessageQueue.OverflowPolicy;
+import org.junit.Test;
+
+/**
+ * Checks the conflation of scenes and the overflow policies of the per connection outbound queue. The writer never runs, so the messages stay queued.
+ * 
+ */
+public class TestOutboundMessageQueue
+{
+
+	private Executor idleWriter = new Executor()
+	{
+		@Override
+		public void execute(Runnable command)
+		{
+		}
+	};
+
+	private GeppettoMessageInbound connection = new GeppettoMessageInbound("Visitor1");
+
+	@Test
+	public void testLatestSceneWins()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 4, OverflowPolicy.DROP_OLDEST);
+
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "1"));
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SIMULATION_PAUSED, "paused"));
+		assertTrue(queue.hasPendingScene());
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "2")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "3")));
+
+		// the paused message is never replaced, only the latest scene is left
+		assertEquals(2, queue.getDepth());
+		assertEquals(2, queue.getFramesConflated());
+		assertEquals(0, queue.getFramesDropped());
+	}
+
+	@Test
+	public void testDropOldest()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 2, OverflowPolicy.DROP_OLDEST);
+
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "1")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "2")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "3")));
+
+		// the scene is dropped to make room
+		assertEquals(2, queue.getDepth());
+		assertEquals(1, queue.getFramesDropped());
+		assertFalse(queue.hasPendingScene());
+	}
+
+	@Test
+	public void testDropOldestWatchData()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 2, OverflowPolicy.DROP_OLDEST);
+
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "1")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "2")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "3")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "4")));
+
+		// batches of watched values make room like scenes, the client falling behind stays connected
+		assertEquals(2, queue.getDepth());
+		assertEquals(2, queue.getFramesDropped());
+	}
+
+	@Test
+	public void testDropOldestAndConflateDiffer()
+	{
+		// the oldest message that can be dropped goes, whatever its type
+		OutboundMessageQueue dropOldest = new OutboundMessageQueue(connection, idleWriter, 2, OverflowPolicy.DROP_OLDEST);
+		dropOldest.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "1"));
+		dropOldest.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "2"));
+		assertTrue(dropOldest.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "3")));
+		assertFalse(dropOldest.hasPendingScene());
+		assertEquals(2, dropOldest.getDepth());
+
+		// the newer batch replaces the stale one, the scene is kept
+		OutboundMessageQueue conflate = new OutboundMessageQueue(connection, idleWriter, 2, OverflowPolicy.CONFLATE);
+		conflate.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "1"));
+		conflate.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "2"));
+		assertTrue(conflate.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.WATCH_DATA, "3")));
+		assertTrue(conflate.hasPendingScene());
+		assertEquals(2, conflate.getDepth());
+		assertEquals(1, conflate.getFramesDropped());
+	}
+
+	@Test
+	public void testControlMessagesAreNeverDropped()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 2, OverflowPolicy.CONFLATE);
+
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SIMULATION_STARTED, "started")));
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SIMULATION_PAUSED, "paused")));
+		// nothing can be dropped to make room, the client is disconnected
+		assertFalse(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.ERROR, "error")));
+
+		assertEquals(0, queue.getDepth());
+	}
+
+	@Test
+	public void testDisconnect()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 1, OverflowPolicy.DISCONNECT);
+
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "1")));
+		assertFalse(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "2")));
+		assertFalse(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "3")));
+
+		assertEquals(0, queue.getDepth());
+	}
+
+	@Test
+	public void testCloseIsWrittenByTheDrain()
+	{
+		final List<Runnable> scheduled = new ArrayList<Runnable>();
+		Executor recordingWriter = new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				scheduled.add(command);
+			}
+		};
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, recordingWriter, 1, OverflowPolicy.DISCONNECT);
+
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "1"));
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "2"));
+
+		// the drain already scheduled sends the close frame, no other writer task can write to the web socket at the same time
+		assertEquals(1, scheduled.size());
+		assertSame(queue, scheduled.get(0));
+	}
+
+	@Test
+	public void testDisconnectDiscardsQueuedMessages()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 4, OverflowPolicy.CONFLATE);
+
+		assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "1")));
+		queue.disconnect(Constants.STATUS_CLOSE_NORMAL);
+
+		assertEquals(0, queue.getDepth());
+		assertFalse(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.INFO_MESSAGE, "2")));
+		assertEquals(0, queue.getFramesWritten());
+		assertEquals(0, queue.getBytesWritten());
+	}
+
+	@Test
+	public void testControlMessagesOvertakeModelChunks()
+	{
+		OutboundMessageQueue queue = new OutboundMessageQueue(connection, idleWriter, 2, OverflowPolicy.DROP_OLDEST);
+
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL_BEGIN, "begin"));
+		for(int i = 0; i < 10; i++)
+		{
+			assertTrue(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL_CHUNK, "chunk")));
+		}
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL_END, "end"));
+		// the scene waits for the model, the error is written before the chunks
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, "scene"));
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.ERROR, "error"));
+
+		// chunks don't count against the capacity
+		assertEquals(14, queue.getDepth());
+		assertEquals(0, queue.getFramesDropped());
+	}
+
+	@Test
+	public void testDroppedSceneDelta()
+	{
+		GeppettoMessageInbound deltaConnection = new GeppettoMessageInbound("Visitor2");
+		deltaConnection.setSceneDeltaEnabled(true);
+		deltaConnection.setSceneVersion(3);
+		OutboundMessageQueue queue = new OutboundMessageQueue(deltaConnection, idleWriter, 2, OverflowPolicy.DROP_OLDEST);
+
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_DELTA, "1"));
+		queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_DELTA, "2"));
+		// the first delta is dropped, the second one doesn't apply anymore and neither does the new one
+		assertFalse(queue.offer(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.SCENE_DELTA, "3")));
+
+		assertEquals(0, queue.getDepth());
+		assertEquals(3, queue.getFramesDropped());
+		assertEquals(-1, deltaConnection.getSceneVersion());
+	}
+}
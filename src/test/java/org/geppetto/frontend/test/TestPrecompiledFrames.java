@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.geppetto.frontend.BinaryOutboundFrame;
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.OutboundFrame;
+import org.geppetto.frontend.PrecompiledFrames;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
+import org.geppetto.frontend.TextOutboundFrame;
+import org.geppetto.frontend.TransportMessageFactory;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+/**
+ * Checks that precompiled frames are the same messages the factory builds
+ * 
+ */
+public class TestPrecompiledFrames
+{
+
+	private static final String[] REQUEST_IDS = { null, "Visitor1-3", "\"quoted\" <&> \u00e9\n" };
+
+	private static final OUTBOUND_MESSAGE_TYPES[] CONSTANT = { OUTBOUND_MESSAGE_TYPES.READ_URL_PARAMETERS, OUTBOUND_MESSAGE_TYPES.SERVER_UNAVAILABLE,
+			OUTBOUND_MESSAGE_TYPES.SERVER_AVAILABLE, OUTBOUND_MESSAGE_TYPES.RELOAD_CANVAS, OUTBOUND_MESSAGE_TYPES.OBSERVER_MODE, OUTBOUND_MESSAGE_TYPES.STOP_WATCH,
+			OUTBOUND_MESSAGE_TYPES.CLEAR_WATCH, OUTBOUND_MESSAGE_TYPES.SIMULATION_PAUSED, OUTBOUND_MESSAGE_TYPES.SIMULATION_STOPPED };
+
+	private static Object content(OutboundFrame frame)
+	{
+		if(frame instanceof TextOutboundFrame)
+		{
+			return ((TextOutboundFrame) frame).getText();
+		}
+		return ((BinaryOutboundFrame) frame).getBuffer();
+	}
+
+	private static Object expected(TRANSPORT_PROTOCOLS protocol, String requestID, OUTBOUND_MESSAGE_TYPES type)
+	{
+		switch(protocol)
+		{
+			case BINARY:
+				return TransportMessageFactory.getBinaryTransportMessage(requestID, type, null);
+			case JSON_V2:
+				return TransportMessageFactory.getTransportMessageV2(requestID, type, null).toString();
+			case JSON:
+			default:
+				return new Gson().toJson(TransportMessageFactory.getTransportMessage(requestID, type, null));
+		}
+	}
+
+	@Test
+	public void testConstantTypes()
+	{
+		for(OUTBOUND_MESSAGE_TYPES type : CONSTANT)
+		{
+			assertTrue(type.toString(), PrecompiledFrames.isConstant(type));
+		}
+		assertFalse(PrecompiledFrames.isConstant(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE));
+		assertFalse(PrecompiledFrames.isConstant(OUTBOUND_MESSAGE_TYPES.SIMULATOR_FULL));
+		assertFalse(PrecompiledFrames.isConstant(OUTBOUND_MESSAGE_TYPES.CLIENT_ID));
+	}
+
+	@Test
+	public void testSameAsFactory()
+	{
+		PrecompiledFrames frames = new PrecompiledFrames();
+		for(TRANSPORT_PROTOCOLS protocol : TRANSPORT_PROTOCOLS.values())
+		{
+			for(OUTBOUND_MESSAGE_TYPES type : OUTBOUND_MESSAGE_TYPES.values())
+			{
+				for(String requestID : REQUEST_IDS)
+				{
+					OutboundFrame frame = frames.getFrame(protocol, requestID, type);
+					if(!PrecompiledFrames.isConstant(type))
+					{
+						assertNull(frame);
+						continue;
+					}
+					assertEquals(protocol + " " + type + " " + requestID, expected(protocol, requestID, type), content(frame));
+					assertSame(type, frame.getType());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSharedWithoutRequestID()
+	{
+		PrecompiledFrames frames = new PrecompiledFrames();
+
+		assertSame(frames.getFrame(TRANSPORT_PROTOCOLS.JSON, null, OUTBOUND_MESSAGE_TYPES.SERVER_AVAILABLE),
+				frames.getFrame(TRANSPORT_PROTOCOLS.JSON, null, OUTBOUND_MESSAGE_TYPES.SERVER_AVAILABLE));
+		ByteBuffer binary = ((BinaryOutboundFrame) frames.getFrame(TRANSPORT_PROTOCOLS.BINARY, "1", OUTBOUND_MESSAGE_TYPES.STOP_WATCH)).getBuffer();
+		assertEquals(1, binary.get(2));
+		assertEquals('1', binary.get(4));
+	}
+}
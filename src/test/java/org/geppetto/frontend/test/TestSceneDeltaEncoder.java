@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import org.geppetto.frontend.SceneDeltaEncoder;
+import org.geppetto.frontend.SceneDeltaEncoder.SceneDelta;
+import org.geppetto.frontend.controllers.GeppettoMessageInbound;
+import org.geppetto.frontend.controllers.GeppettoServletController;
+import org.geppetto.frontend.controllers.SimulationServerConfig;
+import org.geppetto.frontend.controllers.SimulationServerConfig.ServerBehaviorModes;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks the deltas between consecutive scenes
+ * 
+ */
+public class TestSceneDeltaEncoder
+{
+
+	@Test
+	public void testDelta()
+	{
+		SceneDeltaEncoder encoder = new SceneDeltaEncoder(0);
+
+		SceneDelta first = encoder.update("{\"scene\":{\"time\":0.1,\"c302\":{\"v\":-60,\"geometry\":[1,2,3]},\"muscle\":{\"v\":-50}}}");
+		assertTrue(first.isKeyframe());
+		assertEquals(-1, first.getBaseVersion());
+
+		SceneDelta second = encoder.update("{\"scene\":{\"time\":0.2,\"c302\":{\"v\":-55,\"geometry\":[1,2,3]}}}");
+		assertFalse(second.isKeyframe());
+		assertEquals(first.getVersion(), second.getBaseVersion());
+
+		JsonObject message = new JsonParser().parse(second.getDelta()).getAsJsonObject();
+		assertEquals(second.getVersion(), message.get("version").getAsLong());
+		JsonObject scene = message.getAsJsonObject("delta").getAsJsonObject("scene");
+		assertEquals(0.2, scene.get("time").getAsDouble(), 0);
+		// only the potential changed, the geometry is not sent again
+		JsonObject c302 = scene.getAsJsonObject("c302");
+		assertEquals(1, c302.entrySet().size());
+		assertEquals(-55, c302.get("v").getAsInt());
+		// entities no longer in the scene are removed
+		assertFalse(scene.has("muscle"));
+		assertEquals("[[\"scene\",\"muscle\"]]", message.get("removed").toString());
+	}
+
+	@Test
+	public void testNullIsNotRemoved()
+	{
+		SceneDeltaEncoder encoder = new SceneDeltaEncoder(0);
+
+		encoder.update("{\"scene\":{\"c302\":{\"v\":-60,\"label\":\"c302\"}}}");
+		JsonObject message = new JsonParser().parse(encoder.update("{\"scene\":{\"c302\":{\"v\":null}}}").getDelta()).getAsJsonObject();
+
+		// the property set to null is in the delta, the removed one is only listed
+		JsonObject c302 = message.getAsJsonObject("delta").getAsJsonObject("scene").getAsJsonObject("c302");
+		assertTrue(c302.get("v").isJsonNull());
+		assertFalse(c302.has("label"));
+		assertEquals("[[\"scene\",\"c302\",\"label\"]]", message.get("removed").toString());
+
+		// nothing removed, nothing listed
+		message = new JsonParser().parse(encoder.update("{\"scene\":{\"c302\":{\"v\":-50}}}").getDelta()).getAsJsonObject();
+		assertFalse(message.has("removed"));
+	}
+
+	@Test
+	public void testKeyframes()
+	{
+		SceneDeltaEncoder encoder = new SceneDeltaEncoder(2);
+
+		assertTrue(encoder.update("{\"time\":1}").isKeyframe());
+		assertFalse(encoder.update("{\"time\":2}").isKeyframe());
+		assertTrue(encoder.update("{\"time\":3}").isKeyframe());
+
+		encoder.reset();
+		SceneDelta afterReset = encoder.update("{\"time\":4}");
+		assertTrue(afterReset.isKeyframe());
+		assertEquals("{\"time\":4}", encoder.getKeyframe().getKeyframe());
+	}
+
+	@Test
+	public void testScenesPerConnection()
+	{
+		// the messages stay queued
+		Executor idleWriter = new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+			}
+		};
+		GeppettoServletController controller = GeppettoServletController.getInstance();
+		SimulationServerConfig config = controller.getSimulationServerConfig();
+		ServerBehaviorModes mode = config.getServerBehaviorMode();
+		config.setServerBehaviorMode(ServerBehaviorModes.MULTIUSER);
+		try
+		{
+			GeppettoMessageInbound first = new GeppettoMessageInbound("Visitor1", idleWriter);
+			GeppettoMessageInbound second = new GeppettoMessageInbound("Visitor2", idleWriter);
+			first.setSceneDeltaEnabled(true);
+			second.setSceneDeltaEnabled(true);
+
+			// every visitor runs a simulation of its own
+			controller.sendSceneUpdate(null, Collections.singleton(first), "{\"time\":1}");
+			controller.sendSceneUpdate(null, Collections.singleton(second), "{\"time\":5}");
+			assertEquals("{\"time\":1}", first.getSceneDeltaEncoder().getKeyframe().getKeyframe());
+			assertEquals("{\"time\":5}", second.getSceneDeltaEncoder().getKeyframe().getKeyframe());
+
+			// a model loaded by a visitor doesn't reset the scene of the other
+			controller.resetScene(second);
+			controller.sendSceneKeyframe(null, first);
+			assertEquals(1, first.getSceneVersion());
+			// the keyframe replaces the scene still queued
+			assertEquals(1, first.getOutboundQueue().getDepth());
+			assertEquals(1, first.getOutboundQueue().getFramesConflated());
+			controller.sendSceneKeyframe(null, second);
+			assertNull(second.getSceneDeltaEncoder().getKeyframe());
+			assertEquals(-1, second.getSceneVersion());
+			assertEquals(1, second.getOutboundQueue().getDepth());
+			assertEquals(0, second.getOutboundQueue().getFramesConflated());
+		}
+		finally
+		{
+			config.setServerBehaviorMode(mode);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geppetto.frontend.controllers.ScriptCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that scripts are fetched once and revalidated with the server
+ * 
+ */
+public class TestScriptCache
+{
+
+	private static final String SCRIPT = "Simulation.start()";
+
+	private HttpServer server;
+
+	private URL url;
+
+	private final AtomicInteger fetches = new AtomicInteger();
+
+	private final AtomicInteger notModified = new AtomicInteger();
+
+	private volatile CountDownLatch release = new CountDownLatch(0);
+
+	@Before
+	public void startServer() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/script.js", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				try
+				{
+					release.await(5, TimeUnit.SECONDS);
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				if("\"1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+				{
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				fetches.incrementAndGet();
+				byte[] body = SCRIPT.getBytes("UTF-8");
+				exchange.getResponseHeaders().add("ETag", "\"1\"");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/script.js");
+	}
+
+	@After
+	public void stopServer()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void testServedFromMemory() throws Exception
+	{
+		ScriptCache cache = new ScriptCache(1024, 60000, 5000);
+
+		assertEquals(SCRIPT + "\n", cache.get(url));
+		assertEquals(SCRIPT + "\n", cache.get(url));
+
+		assertEquals(1, fetches.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(SCRIPT.length() + 1, cache.getSize());
+	}
+
+	@Test
+	public void testRevalidated() throws Exception
+	{
+		ScriptCache cache = new ScriptCache(1024, 0, 5000);
+
+		cache.get(url);
+		assertEquals(SCRIPT + "\n", cache.get(url));
+
+		assertEquals(1, fetches.get());
+		assertEquals(1, notModified.get());
+		assertEquals(1, cache.getRevalidations());
+	}
+
+	@Test
+	public void testCoalesced() throws Exception
+	{
+		final ScriptCache cache = new ScriptCache(1024, 60000, 5000);
+		release = new CountDownLatch(1);
+		ExecutorService clients = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<String>> scripts = new ArrayList<Future<String>>();
+			for(int i = 0; i < 4; i++)
+			{
+				scripts.add(clients.submit(new Callable<String>()
+				{
+					@Override
+					public String call() throws IOException
+					{
+						return cache.get(url);
+					}
+				}));
+			}
+			// lets the requests reach the cache before the server answers
+			Thread.sleep(200);
+			release.countDown();
+			for(Future<String> script : scripts)
+			{
+				assertEquals(SCRIPT + "\n", script.get(5, TimeUnit.SECONDS));
+			}
+		}
+		finally
+		{
+			clients.shutdownNow();
+		}
+
+		assertEquals(1, fetches.get());
+		assertEquals(3, cache.getCoalescedRequests());
+	}
+
+	@Test
+	public void testDisabled() throws Exception
+	{
+		ScriptCache cache = new ScriptCache(0, 60000, 5000);
+
+		cache.get(url);
+		cache.get(url);
+
+		assertEquals(2, fetches.get());
+		assertEquals(0, cache.getEntryCount());
+	}
+}
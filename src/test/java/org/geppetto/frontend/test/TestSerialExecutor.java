@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.frontend.controllers.SerialExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the tasks of a serial executor run in order while different executors run in parallel
+ * 
+ */
+public class TestSerialExecutor
+{
+
+	private ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@After
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testOrder() throws InterruptedException
+	{
+		final List<Integer> first = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Integer> second = Collections.synchronizedList(new ArrayList<Integer>());
+		SerialExecutor firstExecutor = new SerialExecutor(pool, 1000);
+		SerialExecutor secondExecutor = new SerialExecutor(pool, 1000);
+		final CountDownLatch done = new CountDownLatch(1000);
+
+		for(int i = 0; i < 500; i++)
+		{
+			final int task = i;
+			firstExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					first.add(task);
+					done.countDown();
+				}
+			});
+			secondExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					second.add(task);
+					done.countDown();
+				}
+			});
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for(int i = 0; i < 500; i++)
+		{
+			assertEquals(i, (int) first.get(i));
+			assertEquals(i, (int) second.get(i));
+		}
+	}
+
+	@Test
+	public void testSlowTaskDoesNotBlockOtherExecutors() throws InterruptedException
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		SerialExecutor slow = new SerialExecutor(pool, 1);
+		SerialExecutor fast = new SerialExecutor(pool, 1);
+
+		slow.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					release.await();
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		fast.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	@Test
+	public void testErrorDoesNotStallExecutor() throws InterruptedException
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		// runs the tasks on the calling thread, the Error reaches the test
+		SerialExecutor executor = new SerialExecutor(new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				try
+				{
+					command.run();
+				}
+				catch(Error e)
+				{
+				}
+			}
+		}, 10);
+
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				throw new StackOverflowError();
+			}
+		});
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testCapacity()
+	{
+		SerialExecutor executor = new SerialExecutor(pool, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					release.await();
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		try
+		{
+			// the first task may already be running, the executor is full after three
+			executor.execute(blocked);
+			executor.execute(blocked);
+			executor.execute(blocked);
+		}
+		finally
+		{
+			release.countDown();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.OutboundFrame;
+import org.geppetto.frontend.TRANSPORT_PROTOCOLS;
+import org.geppetto.frontend.TextOutboundFrame;
+import org.geppetto.frontend.controllers.SimulationCache;
+import org.junit.Test;
+
+/**
+ * Checks the revalidation and the eviction of the cached simulations
+ * 
+ */
+public class TestSimulationCache
+{
+
+	private static URL descriptor(String content) throws IOException
+	{
+		File file = File.createTempFile("simulation", ".xml");
+		file.deleteOnExit();
+		write(file, content);
+		return file.toURI().toURL();
+	}
+
+	private static void write(File file, String content) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(content.getBytes("UTF-8"));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	@Test
+	public void testHitWhenUnchanged() throws Exception
+	{
+		SimulationCache cache = new SimulationCache(1024, 5000);
+		URL url = descriptor("<simulation/>");
+
+		SimulationCache.Entry first = cache.lookup(url);
+		SimulationCache.Entry second = cache.lookup(url);
+
+		assertSame(first, second);
+		assertEquals("<simulation/>", second.getDescriptor());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testMissWhenChanged() throws Exception
+	{
+		SimulationCache cache = new SimulationCache(1024, 5000);
+		URL url = descriptor("<simulation/>");
+
+		SimulationCache.Entry first = cache.lookup(url);
+		write(new File(url.toURI()), "<simulation name=\"changed\"/>");
+		SimulationCache.Entry second = cache.lookup(url);
+
+		assertNotSame(first, second);
+		assertEquals("<simulation name=\"changed\"/>", second.getDescriptor());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(second.getDescriptor().length(), cache.getSize());
+	}
+
+	@Test
+	public void testModelFrames() throws Exception
+	{
+		SimulationCache cache = new SimulationCache(1024, 5000);
+		SimulationCache.Entry entry = cache.lookup(descriptor("<simulation/>"));
+		String model = "{\"entity\":{}}";
+		List<OutboundFrame> frames = Collections.<OutboundFrame> singletonList(new TextOutboundFrame(OUTBOUND_MESSAGE_TYPES.LOAD_MODEL, model));
+
+		entry.putModelFrames(SimulationCache.digest(model), TRANSPORT_PROTOCOLS.JSON, false, frames);
+
+		assertSame(frames, entry.getModelFrames(SimulationCache.digest(model), TRANSPORT_PROTOCOLS.JSON, false));
+		assertNull(entry.getModelFrames(SimulationCache.digest(model), TRANSPORT_PROTOCOLS.JSON, true));
+		assertNull(entry.getModelFrames(SimulationCache.digest("{}"), TRANSPORT_PROTOCOLS.JSON, false));
+		assertEquals("<simulation/>".length() + model.length(), cache.getSize());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyLoaded() throws Exception
+	{
+		SimulationCache cache = new SimulationCache(30, 5000);
+		URL first = descriptor("<simulation name=\"1\"/>");
+		URL second = descriptor("<simulation name=\"2\"/>");
+
+		cache.lookup(first);
+		cache.lookup(second);
+
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(1, cache.getEvictions());
+		cache.lookup(second);
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testDisabled() throws Exception
+	{
+		SimulationCache cache = new SimulationCache(0, 5000);
+
+		assertNull(cache.lookup(descriptor("<simulation/>")));
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void testStalledServer() throws Exception
+	{
+		// accepts connections but never replies
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		try
+		{
+			new SimulationCache(1024, 200).lookup(new URL("http://127.0.0.1:" + server.getLocalPort() + "/simulation.xml"));
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+}
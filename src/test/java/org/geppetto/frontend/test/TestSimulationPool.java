@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geppetto.core.common.GeppettoExecutionException;
+import org.geppetto.core.data.model.WatchList;
+import org.geppetto.core.simulation.ISimulation;
+import org.geppetto.frontend.SyntheticSimulation;
+import org.geppetto.frontend.controllers.SimulationPool;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectFactory;
+
+/**
+ * Checks the reuse of the simulation service instances across visitors
+ * 
+ */
+public class TestSimulationPool
+{
+
+	private static class SyntheticFactory implements ObjectFactory<ISimulation>
+	{
+
+		private final int capacity;
+
+		private ISimulation singleton;
+
+		SyntheticFactory(int capacity, boolean singleton)
+		{
+			this.capacity = capacity;
+			this.singleton = singleton ? create() : null;
+		}
+
+		@Override
+		public ISimulation getObject()
+		{
+			return singleton != null ? singleton : create();
+		}
+
+		private ISimulation create()
+		{
+			SyntheticSimulation simulation = new SyntheticSimulation();
+			simulation.setSimulationCapacity(capacity);
+			return simulation;
+		}
+	}
+
+	@Test
+	public void testPrewarm()
+	{
+		SimulationPool pool = new SimulationPool(new SyntheticFactory(3, false));
+
+		pool.prewarm(5);
+
+		// never more than the simulator can run
+		assertEquals(3, pool.getIdleCount());
+		assertEquals(3, pool.getCreatedCount());
+		assertEquals(3, pool.getCapacity());
+
+		pool.lease();
+		assertEquals(2, pool.getIdleCount());
+		assertEquals(1, pool.getLeasedCount());
+		assertEquals(3, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testReleaseResetsAndReuses() throws Exception
+	{
+		SimulationPool pool = new SimulationPool(new SyntheticFactory(2, false));
+
+		ISimulation first = pool.lease();
+		List<WatchList> watchLists = new ArrayList<WatchList>();
+		watchLists.add(new WatchList());
+		first.addWatchLists(watchLists);
+		first.startWatch();
+		pool.release(first);
+
+		assertEquals(0, pool.getLeasedCount());
+		assertEquals(1, pool.getIdleCount());
+		assertTrue(first.getWatchLists().isEmpty());
+
+		assertSame(first, pool.lease());
+		assertNotSame(first, pool.lease());
+		assertEquals(2, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testKeepsAtMostCapacityIdle()
+	{
+		SimulationPool pool = new SimulationPool(new SyntheticFactory(1, false));
+
+		ISimulation first = pool.lease();
+		ISimulation second = pool.lease();
+		pool.release(first);
+		pool.release(second);
+
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(0, pool.getLeasedCount());
+	}
+
+	@Test
+	public void testForgetsDiscardedInstances()
+	{
+		final List<ISimulation> instances = new ArrayList<ISimulation>();
+		SimulationPool pool = new SimulationPool(new ObjectFactory<ISimulation>()
+		{
+			private final SyntheticFactory factory = new SyntheticFactory(1, false);
+
+			// hands out again the second instance once it's discarded
+			@Override
+			public ISimulation getObject()
+			{
+				ISimulation simulation = instances.size() == 2 ? instances.get(1) : factory.getObject();
+				instances.add(simulation);
+				return simulation;
+			}
+		});
+
+		ISimulation first = pool.lease();
+		ISimulation second = pool.lease();
+		pool.release(first);
+		// no room among the idle instances, the second one is discarded
+		pool.release(second);
+		assertSame(first, pool.lease());
+		assertSame(second, pool.lease());
+
+		// not mistaken for a single instance shared by the visitors
+		assertFalse(pool.isShared());
+		assertEquals(2, pool.getLeasedCount());
+	}
+
+	@Test
+	public void testSharedInstance()
+	{
+		SimulationPool pool = new SimulationPool(new SyntheticFactory(1, true));
+
+		pool.prewarm(2);
+		ISimulation first = pool.lease();
+		ISimulation second = pool.lease();
+
+		assertTrue(pool.isShared());
+		assertSame(first, second);
+		pool.release(first);
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(0, pool.getLeasedCount());
+	}
+
+	@Test
+	public void testSharedInstanceStoppedWhenVisitorLeaves() throws Exception
+	{
+		final List<String> calls = new ArrayList<String>();
+		final SyntheticSimulation simulation = new SyntheticSimulation()
+		{
+			@Override
+			public synchronized void stop() throws GeppettoExecutionException
+			{
+				calls.add("stop");
+				super.stop();
+			}
+		};
+		// the OSGi service hands out always the same instance
+		SimulationPool pool = new SimulationPool(new ObjectFactory<ISimulation>()
+		{
+			@Override
+			public ISimulation getObject()
+			{
+				return simulation;
+			}
+		});
+
+		pool.prewarm(2);
+		ISimulation leaving = pool.lease();
+		pool.release(leaving);
+
+		// the simulation left running by the visitor doesn't go on without anybody watching
+		assertEquals(1, calls.size());
+		assertEquals(0, pool.getIdleCount());
+		assertSame(simulation, pool.lease());
+	}
+
+	@Test
+	public void testNoFactory()
+	{
+		SimulationPool pool = new SimulationPool(null);
+
+		pool.prewarm(2);
+
+		assertNull(pool.lease());
+		assertEquals(0, pool.getCapacity());
+		assertFalse(pool.isShared());
+	}
+}
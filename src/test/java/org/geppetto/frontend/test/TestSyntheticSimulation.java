@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.core.common.GeppettoErrorCodes;
+import org.geppetto.core.data.model.WatchList;
+import org.geppetto.core.simulation.ISimulationCallbackListener;
+import org.geppetto.frontend.SyntheticSimulation;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks the callbacks of the simulation used to load test the frontend
+ * 
+ */
+public class TestSyntheticSimulation
+{
+
+	private static class RecordingListener implements ISimulationCallbackListener
+	{
+
+		private final List<SimulationEvents> events = new ArrayList<SimulationEvents>();
+
+		private final List<String> updates = new ArrayList<String>();
+
+		private final CountDownLatch over = new CountDownLatch(1);
+
+		@Override
+		public synchronized void updateReady(SimulationEvents event, String requestID, String sceneUpdate)
+		{
+			events.add(event);
+			updates.add(sceneUpdate);
+			if(event == SimulationEvents.SIMULATION_OVER)
+			{
+				over.countDown();
+			}
+		}
+
+		@Override
+		public void error(GeppettoErrorCodes errorCode, String classSource, String errorMessage, Exception e)
+		{
+		}
+
+		@Override
+		public void message(String message)
+		{
+		}
+	}
+
+	@Test
+	public void testLoad() throws Exception
+	{
+		SyntheticSimulation simulation = new SyntheticSimulation();
+		simulation.setEntities(3);
+		simulation.setPayloadSize(100);
+		RecordingListener listener = new RecordingListener();
+
+		simulation.init("any", "1", listener);
+
+		assertEquals(Arrays.asList(ISimulationCallbackListener.SimulationEvents.LOAD_MODEL), listener.events);
+		JsonObject model = new JsonParser().parse(listener.updates.get(0)).getAsJsonObject();
+		assertEquals(3, model.entrySet().size());
+		assertEquals(100, model.getAsJsonObject("entity0").get("payload").getAsString().length());
+		assertFalse(simulation.isRunning());
+	}
+
+	@Test
+	public void testRunToTheEnd() throws Exception
+	{
+		SyntheticSimulation simulation = new SyntheticSimulation();
+		simulation.setEntities(2);
+		simulation.setUpdateRate(1000);
+		simulation.setSteps(5);
+		RecordingListener listener = new RecordingListener();
+
+		simulation.init("any", "1", listener);
+		simulation.start("2");
+
+		assertTrue(listener.over.await(5, TimeUnit.SECONDS));
+		assertFalse(simulation.isRunning());
+		synchronized(listener)
+		{
+			// model, start, 5 scenes and the end
+			assertEquals(8, listener.events.size());
+			assertEquals(ISimulationCallbackListener.SimulationEvents.START_SIMULATION, listener.events.get(1));
+			for(int i = 2; i < 7; i++)
+			{
+				assertEquals(ISimulationCallbackListener.SimulationEvents.SCENE_UPDATE, listener.events.get(i));
+				new JsonParser().parse(listener.updates.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testPause() throws Exception
+	{
+		SyntheticSimulation simulation = new SyntheticSimulation();
+		simulation.setUpdateRate(1000);
+		RecordingListener listener = new RecordingListener();
+
+		simulation.init("any", "1", listener);
+		simulation.start("2");
+		assertTrue(simulation.isRunning());
+		simulation.pause();
+		assertFalse(simulation.isRunning());
+
+		int events;
+		synchronized(listener)
+		{
+			events = listener.events.size();
+		}
+		Thread.sleep(50);
+		synchronized(listener)
+		{
+			assertEquals(events, listener.events.size());
+		}
+	}
+
+	@Test
+	public void testWatchedVariables() throws Exception
+	{
+		SyntheticSimulation simulation = new SyntheticSimulation();
+		simulation.setEntities(1);
+		RecordingListener listener = new RecordingListener();
+		WatchList watchList = new WatchList();
+		watchList.setName("watch");
+		watchList.setVariablePaths(Arrays.asList("entity0.electrical.v0", "entity0.electrical.v1"));
+
+		simulation.init("any", "1", listener);
+		simulation.addWatchLists(Arrays.asList(watchList));
+		simulation.startWatch();
+		simulation.start("2");
+		simulation.stop();
+
+		synchronized(listener)
+		{
+			JsonObject scene = new JsonParser().parse(listener.updates.get(1)).getAsJsonObject().getAsJsonObject("scene");
+			assertEquals(2, scene.getAsJsonObject("variables").entrySet().size());
+		}
+		assertEquals(1, simulation.getWatchLists().size());
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.commons.logging.LogFactory;
+import org.geppetto.frontend.controllers.TraceSampler;
+import org.junit.Test;
+
+/**
+ * Checks the sampling of the events logged on the paths run for every message
+ * 
+ */
+public class TestTraceSampler
+{
+
+	@Test
+	public void testDisabled()
+	{
+		TraceSampler sampler = new TraceSampler(0);
+
+		for(int i = 0; i < 1000; i++)
+		{
+			assertFalse(sampler.sample());
+		}
+		assertEquals(0, sampler.getSampledCount());
+	}
+
+	@Test
+	public void testRate()
+	{
+		TraceSampler sampler = new TraceSampler(100);
+
+		int sampled = 0;
+		for(int i = 0; i < 1000; i++)
+		{
+			if(sampler.sample())
+			{
+				sampler.trace(LogFactory.getLog(TestTraceSampler.class), "event " + i);
+				sampled++;
+			}
+		}
+		assertEquals(10, sampled);
+		assertEquals(10, sampler.getSampledCount());
+	}
+
+	@Test
+	public void testTurnedOffAtRuntime()
+	{
+		TraceSampler sampler = new TraceSampler(1);
+
+		sampler.setRate(0);
+
+		assertFalse(sampler.sample());
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.TransportMessageFactory;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks the envelope of the second version of the JSON protocol
+ * 
+ */
+public class TestTransportMessageFactory
+{
+
+	@Test
+	public void testSceneUpdateIsEmbedded()
+	{
+		String scene = "{\"scene\":{\"time\":{\"value\":0.5,\"unit\":\"ms\"}}}";
+		String message = TransportMessageFactory.getTransportMessageV2("Visitor1-3", OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE, scene).toString();
+
+		JsonObject envelope = new JsonParser().parse(message).getAsJsonObject();
+		assertEquals("Visitor1-3", envelope.get("requestID").getAsString());
+		assertEquals(OUTBOUND_MESSAGE_TYPES.SCENE_UPDATE.toString(), envelope.get("type").getAsString());
+		// the scene is an object of the envelope rather than a string to parse again
+		JsonObject update = envelope.getAsJsonObject("data").getAsJsonObject("update");
+		assertEquals(0.5, update.getAsJsonObject("scene").getAsJsonObject("time").get("value").getAsDouble(), 0);
+	}
+
+	@Test
+	public void testStringsAreEscaped()
+	{
+		JsonObject error = new JsonObject();
+		error.addProperty("message", "can't read \"model.xml\"\n");
+		String message = TransportMessageFactory.getTransportMessageV2(null, OUTBOUND_MESSAGE_TYPES.ERROR, error.toString()).toString();
+
+		JsonObject envelope = new JsonParser().parse(message).getAsJsonObject();
+		assertTrue(!envelope.has("requestID"));
+		JsonObject data = envelope.getAsJsonObject("data");
+		assertEquals("can't read \"model.xml\"\n", data.getAsJsonObject("message").get("message").getAsString());
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.geppetto.frontend.controllers.Waitlist;
+import org.junit.Test;
+
+/**
+ * Checks the order in which visitors waiting for the simulator get a place
+ * 
+ */
+public class TestWaitlist
+{
+
+	@Test
+	public void testFirstComeFirstServed()
+	{
+		Waitlist<String> waitlist = new Waitlist<String>();
+
+		assertTrue(waitlist.join("a", 2));
+		assertTrue(waitlist.join("b", 2));
+		assertFalse(waitlist.join("c", 2));
+		assertFalse(waitlist.join("d", 2));
+		assertEquals(Arrays.asList("c", "d"), waitlist.getWaiting());
+		assertEquals(2, waitlist.getPosition("d"));
+
+		assertEquals("c", waitlist.leave("a"));
+		assertEquals(1, waitlist.getPosition("d"));
+		assertEquals(2, waitlist.getActiveCount());
+	}
+
+	@Test
+	public void testWaitingVisitorLeaves()
+	{
+		Waitlist<String> waitlist = new Waitlist<String>();
+		waitlist.join("a", 1);
+		waitlist.join("b", 1);
+		waitlist.join("c", 1);
+
+		// nobody is promoted when a visitor that was waiting leaves
+		assertNull(waitlist.leave("b"));
+		assertEquals("c", waitlist.leave("a"));
+		assertEquals(0, waitlist.size());
+		// unknown visitors are ignored
+		assertNull(waitlist.leave("z"));
+		assertNull(waitlist.leave("c"));
+		assertEquals(0, waitlist.getActiveCount());
+	}
+
+	@Test
+	public void testEstimatedWait() throws Exception
+	{
+		Waitlist<String> waitlist = new Waitlist<String>();
+		waitlist.join("a", 2);
+		waitlist.join("b", 2);
+		waitlist.join("c", 2);
+
+		assertEquals(-1, waitlist.getEstimatedWait(1));
+		Thread.sleep(20);
+		waitlist.leave("a");
+		assertTrue(waitlist.getEstimatedWait(2) >= waitlist.getEstimatedWait(1));
+		assertTrue(waitlist.getEstimatedWait(1) >= 10);
+	}
+
+	@Test
+	public void testConcurrentVisitors() throws Exception
+	{
+		final Waitlist<Integer> waitlist = new Waitlist<Integer>();
+		final int visitors = 1000;
+		final CountDownLatch done = new CountDownLatch(visitors);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		for(int i = 0; i < visitors; i++)
+		{
+			final int visitor = i;
+			pool.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					waitlist.join(visitor, 10);
+					waitlist.leave(visitor);
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		pool.shutdown();
+
+		// every place freed went to somebody that then left too
+		assertEquals(0, waitlist.size());
+		assertEquals(0, waitlist.getActiveCount());
+	}
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geppetto.frontend.OUTBOUND_MESSAGE_TYPES;
+import org.geppetto.frontend.TransportMessageFactory;
+import org.geppetto.frontend.controllers.WatchDataStream;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks the batches of watched variables taken out of the scene updates
+ * 
+ */
+public class TestWatchDataStream
+{
+
+	private static String scene(double time, double v)
+	{
+		return "{\"scene\":{\"time\":{\"value\":" + time + ",\"unit\":\"ms\"},\"hhcell\":{\"electrical\":{\"SimulationTree\":{\"v\":{\"value\":" + v
+				+ ",\"unit\":\"mV\"},\"hhpop\":[{\"spiking\":" + (v > 0 ? 1 : 0) + "}]}}}}}";
+	}
+
+	@Test
+	public void testColumns()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 3);
+		stream.setVariables(Arrays.asList("hhcell.electrical.SimulationTree.v", "hhcell.electrical.SimulationTree.hhpop[0].spiking", "hhcell.missing"));
+
+		assertTrue(stream.add(WatchDataStream.parseScene(scene(0.05, -65))).isEmpty());
+		assertTrue(stream.add(WatchDataStream.parseScene(scene(0.1, 20))).isEmpty());
+		List<String> batches = stream.add(WatchDataStream.parseScene(scene(0.15, -60)));
+
+		JsonObject expected = new JsonParser().parse("{\"time\":[0.05,0.1,0.15],\"variables\":{\"hhcell.electrical.SimulationTree.v\":[-65.0,20.0,-60.0],"
+				+ "\"hhcell.electrical.SimulationTree.hhpop[0].spiking\":[0.0,1.0,0.0],\"hhcell.missing\":[null,null,null]}}").getAsJsonObject();
+		assertEquals(1, batches.size());
+		assertEquals(expected, new JsonParser().parse(batches.get(0)));
+		assertTrue(stream.flush().isEmpty());
+	}
+
+	@Test
+	public void testFlushInterval() throws Exception
+	{
+		WatchDataStream stream = new WatchDataStream(0, 1000);
+		stream.setVariables(Collections.singletonList("hhcell.electrical.SimulationTree.v"));
+
+		List<String> batches = stream.add(WatchDataStream.parseScene(scene(0.05, -65)));
+
+		assertEquals(Collections.singletonList("{\"time\":[0.05],\"variables\":{\"hhcell.electrical.SimulationTree.v\":[-65.0]}}"), batches);
+	}
+
+	@Test
+	public void testStopCollecting()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 1000);
+		stream.setVariables(Collections.singletonList("v"));
+		assertTrue(stream.isCollecting());
+		stream.add(new JsonParser().parse("{\"v\":1}").getAsJsonObject());
+
+		stream.setVariables(Collections.<String> emptyList());
+
+		assertFalse(stream.isCollecting());
+		assertTrue(stream.add(new JsonParser().parse("{\"v\":2}").getAsJsonObject()).isEmpty());
+		assertTrue(stream.flush().isEmpty());
+	}
+
+	@Test
+	public void testTimeWithoutScene()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 1000);
+		stream.setVariables(Collections.singletonList("v"));
+		stream.add(new JsonParser().parse("{\"v\":1}").getAsJsonObject());
+		stream.add(new JsonParser().parse("{\"v\":2}").getAsJsonObject());
+
+		assertEquals(Collections.singletonList("{\"time\":[0.0,1.0],\"variables\":{\"v\":[1.0,2.0]}}"), stream.flush());
+	}
+
+	@Test
+	public void testBinaryColumns()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 8);
+		stream.setVariables(Collections.singletonList("hhcell.electrical.SimulationTree.v"));
+		String batch = null;
+		for(int i = 0; i < 8; i++)
+		{
+			for(String sent : stream.add(WatchDataStream.parseScene(scene(i * 0.05, -65 + i))))
+			{
+				batch = sent;
+			}
+		}
+
+		ByteBuffer message = TransportMessageFactory.getBinaryTransportMessage(null, OUTBOUND_MESSAGE_TYPES.WATCH_DATA, batch).order(ByteOrder.LITTLE_ENDIAN);
+
+		// the time and the variable are sent as float64 arrays
+		message.position(4 + message.getShort(2));
+		message.position(message.position() + 4 + message.getInt(message.position()));
+		assertEquals(2, message.getInt());
+	}
+
+	private static JsonObject sample(int time, double v)
+	{
+		return new JsonParser().parse("{\"time\":" + time + ",\"v\":" + v + "}").getAsJsonObject();
+	}
+
+	@Test
+	public void testDownsampleKeepsSpikes()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 100000);
+		Map<String, Integer> resolutions = new LinkedHashMap<String, Integer>();
+		resolutions.put("v", 4);
+		stream.setVariables(resolutions);
+
+		// 4 samples sent as they are, then buckets of 4 samples
+		for(int i = 0; i < 12; i++)
+		{
+			stream.add(sample(i, i == 9 ? 100 : -i));
+		}
+		JsonObject batch = new JsonParser().parse(stream.flush().get(0)).getAsJsonObject();
+
+		assertEquals(new JsonParser().parse("[0,1,2,3,4,7,8,11]"), batch.get("time"));
+		// minimum and maximum of each bucket, in the order they occurred
+		assertEquals(new JsonParser().parse("[0.0,-1.0,-2.0,-3.0,-4.0,-7.0,100.0,-11.0]"), batch.getAsJsonObject("variables").get("v"));
+	}
+
+	@Test
+	public void testDownsampleIsBounded()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 1000000);
+		Map<String, Integer> resolutions = new LinkedHashMap<String, Integer>();
+		resolutions.put("v", 500);
+		stream.setVariables(resolutions);
+
+		int samples = 500000;
+		for(int i = 0; i < samples; i++)
+		{
+			stream.add(sample(i, Math.sin(i * 0.001)));
+		}
+		JsonArray time = new JsonParser().parse(stream.flush().get(0)).getAsJsonObject().getAsJsonArray("time");
+
+		// about resolution * log2(samples / resolution) points
+		assertTrue(String.valueOf(time.size()), time.size() < 500 * 12);
+		assertEquals(samples - 1, time.get(time.size() - 1).getAsDouble(), 0);
+	}
+
+	@Test
+	public void testResolutionsInSeparateBatches()
+	{
+		WatchDataStream stream = new WatchDataStream(60000, 1000);
+		Map<String, Integer> resolutions = new LinkedHashMap<String, Integer>();
+		resolutions.put("a", 0);
+		resolutions.put("b", 100);
+		resolutions.put("c", 0);
+		stream.setVariables(resolutions);
+		stream.add(new JsonParser().parse("{\"a\":1,\"b\":2,\"c\":3}").getAsJsonObject());
+
+		assertEquals(Arrays.asList("{\"time\":[0.0],\"variables\":{\"a\":[1.0],\"c\":[3.0]}}", "{\"time\":[0.0],\"variables\":{\"b\":[2.0]}}"), stream.flush());
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geppetto.frontend.controllers.WatchDataStream;
+import org.geppetto.frontend.controllers.WatchHistory;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks the recent values of the watched variables kept for the clients joining a running simulation
+ * 
+ */
+public class TestWatchHistory
+{
+
+	private static final String V = "hhcell.electrical.SimulationTree.v";
+
+	private static JsonObject scene(double time, double v)
+	{
+		return WatchDataStream.parseScene("{\"scene\":{\"time\":{\"value\":" + time + ",\"unit\":\"ms\"},\"hhcell\":{\"electrical\":{\"SimulationTree\":{\"v\":{\"value\":"
+				+ v + ",\"unit\":\"mV\"}}}}}}");
+	}
+
+	private static Map<String, Integer> variables(String... paths)
+	{
+		Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+		for(String path : paths)
+		{
+			variables.put(path, 0);
+		}
+		return variables;
+	}
+
+	private static JsonObject history(WatchHistory history)
+	{
+		return new JsonParser().parse(history.getHistory()).getAsJsonObject();
+	}
+
+	@Test
+	public void testOldestFirst()
+	{
+		WatchHistory history = new WatchHistory(3);
+		history.start(variables(V, "hhcell.missing"));
+		assertNull(history.getHistory());
+		for(int i = 1; i <= 5; i++)
+		{
+			history.add(scene(i * 0.05, -60 - i));
+		}
+
+		JsonObject expected = new JsonParser().parse("{\"history\":true,\"time\":[0.15000000000000002,0.2,0.25],\"variables\":{\"" + V
+				+ "\":[-63.0,-64.0,-65.0],\"hhcell.missing\":[null,null,null]}}").getAsJsonObject();
+		assertEquals(expected, history(history));
+	}
+
+	@Test
+	public void testRestart()
+	{
+		WatchHistory history = new WatchHistory(10);
+		history.start(variables(V));
+		history.add(scene(0.05, -65));
+		history.stop();
+		assertFalse(history.isRecording());
+		history.add(scene(0.1, -64));
+		assertEquals(1, history(history).getAsJsonArray("time").size());
+
+		// same variables, the history is kept
+		history.start(variables(V));
+		assertTrue(history.isRecording());
+		history.add(scene(0.15, -63));
+		assertEquals(2, history(history).getAsJsonArray("time").size());
+
+		// other variables, it starts again
+		history.start(variables(V, "hhcell.missing"));
+		assertNull(history.getHistory());
+	}
+
+	@Test
+	public void testClear()
+	{
+		WatchHistory history = new WatchHistory(10);
+		history.start(variables(V));
+		history.add(scene(0.05, -65));
+		history.clear();
+		assertFalse(history.isRecording());
+		assertTrue(history.getVariables().isEmpty());
+		assertNull(history.getHistory());
+	}
+
+	@Test
+	public void testDisabled()
+	{
+		WatchHistory history = new WatchHistory(0);
+		history.start(variables(V));
+		assertFalse(history.isRecording());
+		history.add(scene(0.05, -65));
+		assertNull(history.getHistory());
+	}
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2011 - 2015 OpenWorm.
+ * http://openworm.org
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the MIT License
+ * which accompanies this distribution, and is available at
+ * http://opensource.org/licenses/MIT
+ *
+ * Contributors:
+ *     	OpenWorm - http://openworm.org/people.html
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is 
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, 
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR 
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE 
+ * USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *******************************************************************************/
+package org.geppetto.frontend.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.geppetto.frontend.controllers.WatchDataStream;
+import org.geppetto.frontend.controllers.WatchRecorder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Checks the values of the watched variables recorded on disk and exported
+ * 
+ */
+public class TestWatchRecorder
+{
+
+	private static final String V = "hhcell.electrical.SimulationTree.v";
+
+	private File _directory;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		_directory = File.createTempFile("watch", "");
+		_directory.delete();
+	}
+
+	@After
+	public void tearDown()
+	{
+		File[] files = _directory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+			{
+				file.delete();
+			}
+		}
+		_directory.delete();
+	}
+
+	private static JsonObject scene(double time, double v)
+	{
+		return WatchDataStream.parseScene("{\"scene\":{\"time\":{\"value\":" + time + ",\"unit\":\"ms\"},\"hhcell\":{\"electrical\":{\"SimulationTree\":{\"v\":{\"value\":"
+				+ v + ",\"unit\":\"mV\"}}}}}}");
+	}
+
+	private static String export(WatchRecorder recorder, double from, double to) throws IOException
+	{
+		StringWriter out = new StringWriter();
+		recorder.export(from, to, out);
+		return out.toString();
+	}
+
+	@Test
+	public void testExport() throws IOException
+	{
+		WatchRecorder recorder = new WatchRecorder(_directory, 4);
+		recorder.start(Arrays.asList(V, "hhcell.missing"));
+		assertTrue(recorder.isEmpty());
+		for(int i = 1; i <= 10; i++)
+		{
+			recorder.add(scene(i, -60 - i));
+		}
+
+		// two chunks on disk, the last samples still in memory
+		assertFalse(recorder.isEmpty());
+		assertTrue(recorder.getSize() > 0);
+		assertEquals(1, _directory.listFiles().length);
+		StringBuilder expected = new StringBuilder("time,\"" + V + "\",\"hhcell.missing\"\n");
+		for(int i = 1; i <= 10; i++)
+		{
+			expected.append((double) i).append(',').append(-60.0 - i).append(",\n");
+		}
+		assertEquals(expected.toString(), export(recorder, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void testTimeRange() throws IOException
+	{
+		WatchRecorder recorder = new WatchRecorder(_directory, 4);
+		recorder.start(Arrays.asList(V));
+		for(int i = 1; i <= 10; i++)
+		{
+			recorder.add(scene(i, -60 - i));
+		}
+		assertEquals("time,\"" + V + "\"\n4.0,-64.0\n5.0,-65.0\n6.0,-66.0\n", export(recorder, 4, 6));
+		assertEquals("time,\"" + V + "\"\n", export(recorder, 20, 30));
+	}
+
+	@Test
+	public void testRestart() throws IOException
+	{
+		WatchRecorder recorder = new WatchRecorder(_directory, 4);
+		recorder.start(Arrays.asList(V));
+		recorder.add(scene(1, -61));
+		recorder.stop();
+		assertFalse(recorder.isRecording());
+		recorder.add(scene(2, -62));
+
+		// same variables, the recording goes on
+		recorder.start(Arrays.asList(V));
+		recorder.add(scene(3, -63));
+		assertEquals("time,\"" + V + "\"\n1.0,-61.0\n3.0,-63.0\n", export(recorder, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+
+		// other variables, it starts again in another file
+		recorder.start(Arrays.asList(V, "hhcell.missing"));
+		assertTrue(recorder.isEmpty());
+		assertEquals(1, _directory.listFiles().length);
+	}
+
+	@Test
+	public void testClear()
+	{
+		WatchRecorder recorder = new WatchRecorder(_directory, 2);
+		recorder.start(Arrays.asList(V));
+		for(int i = 1; i <= 5; i++)
+		{
+			recorder.add(scene(i, -60 - i));
+		}
+		recorder.clear();
+		assertFalse(recorder.isRecording());
+		assertTrue(recorder.isEmpty());
+		assertEquals(0, _directory.listFiles().length);
+	}
+
+	@Test
+	public void testDisabled()
+	{
+		WatchRecorder recorder = new WatchRecorder(null, 4);
+		recorder.start(Arrays.asList(V));
+		assertFalse(recorder.isRecording());
+		recorder.add(scene(1, -61));
+		assertTrue(recorder.isEmpty());
+	}
+}